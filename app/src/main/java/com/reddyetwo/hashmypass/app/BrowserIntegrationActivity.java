@@ -21,12 +21,12 @@
 package com.reddyetwo.hashmypass.app;
 
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.Typeface;
 import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.text.Editable;
 import android.text.TextWatcher;
@@ -45,6 +45,8 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.reddyetwo.hashmypass.app.adapter.ProfileSpinnerAdapter;
+import com.reddyetwo.hashmypass.app.data.DataCallback;
+import com.reddyetwo.hashmypass.app.data.DataExecutor;
 import com.reddyetwo.hashmypass.app.data.Favicon;
 import com.reddyetwo.hashmypass.app.data.FaviconSettings;
 import com.reddyetwo.hashmypass.app.data.Preferences;
@@ -53,7 +55,6 @@ import com.reddyetwo.hashmypass.app.data.ProfileSettings;
 import com.reddyetwo.hashmypass.app.data.Tag;
 import com.reddyetwo.hashmypass.app.data.TagSettings;
 import com.reddyetwo.hashmypass.app.dialog.TagSettingsDialogFragment;
-import com.reddyetwo.hashmypass.app.hash.PasswordHasher;
 import com.reddyetwo.hashmypass.app.util.ClipboardHelper;
 import com.reddyetwo.hashmypass.app.util.Constants;
 import com.reddyetwo.hashmypass.app.util.FaviconLoader;
@@ -71,7 +72,7 @@ import java.util.regex.Pattern;
  */
 public class BrowserIntegrationActivity extends Activity
         implements TagSettingsDialogFragment.OnTagSettingsSavedListener,
-                   IdenticonGenerationTask.OnIconGeneratedListener {
+                   PasswordGenerationScheduler.OnPasswordGeneratedListener {
 
     /**
      * URL Pattern for parsing site name
@@ -80,14 +81,9 @@ public class BrowserIntegrationActivity extends Activity
             Pattern.compile("^.*?([\\w\\d\\-]+)\\.((co|com|net|org|ac)\\.)?\\w+$");
 
     /**
-     * Constant for empty string label
+     * Password and identicon generation scheduler
      */
-    private static final String EMPTY_STRING = "";
-
-    /**
-     * Identicon generation task
-     */
-    private IdenticonGenerationTask mTask;
+    private PasswordGenerationScheduler mGenerationScheduler;
 
     /**
      * Tag name EditText component
@@ -144,6 +140,16 @@ public class BrowserIntegrationActivity extends Activity
      */
     private Tag mTag;
 
+    /**
+     * Whether the displayed password is being generated again
+     */
+    private boolean mPasswordPending;
+
+    /**
+     * Identicon of the master key, or null if the master key is empty
+     */
+    private Bitmap mIdenticon;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -152,6 +158,7 @@ public class BrowserIntegrationActivity extends Activity
         requestWindowFeature(Window.FEATURE_NO_TITLE);
         setContentView(R.layout.activity_browser_integration);
 
+        mGenerationScheduler = new PasswordGenerationScheduler(this, this);
         initializeView();
 
         // Get site from URL
@@ -199,13 +206,19 @@ public class BrowserIntegrationActivity extends Activity
 
     private void initializeProfileSpinner() {
         mProfileSpinner = (Spinner) findViewById(R.id.profile_spinner);
-        if (!ProfileSettings.getList(this).isEmpty()) {
-            populateProfileSpinner();
-        } else {
-            // No profiles, no hash!
-            Toast.makeText(this, R.string.error_no_profiles, Toast.LENGTH_LONG).show();
-            finish();
-        }
+        ProfileSettings.getListAsync(this, new DataCallback<List<Profile>>() {
+            @Override
+            public void onResult(List<Profile> profiles) {
+                if (!profiles.isEmpty()) {
+                    populateProfileSpinner(profiles);
+                } else {
+                    // No profiles, no hash!
+                    Toast.makeText(BrowserIntegrationActivity.this, R.string.error_no_profiles,
+                            Toast.LENGTH_LONG).show();
+                    finish();
+                }
+            }
+        });
     }
 
     private void addPasswordClickedListener() {
@@ -242,7 +255,7 @@ public class BrowserIntegrationActivity extends Activity
         mTagSettingsImageButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                if (mTagEditText.getText().length() > 0) {
+                if (mTag != null && mTagEditText.getText().length() > 0) {
                     TagSettingsDialogFragment settingsDialog = new TagSettingsDialogFragment();
                     settingsDialog.setProfileId(mProfileId);
                     settingsDialog.setTag(mTag);
@@ -279,28 +292,35 @@ public class BrowserIntegrationActivity extends Activity
         final Intent intent = getIntent();
 
         // Check if we have a favicon stored for this site
-        mFavicon = FaviconSettings.getFavicon(this, mSite);
-        if (mFavicon != null) {
-            // Loaded from storage
-            faviconProgressBar.setVisibility(View.GONE);
-            faviconImageView.setImageBitmap(mFavicon.getIcon());
-            faviconImageView.setVisibility(View.VISIBLE);
-        } else {
-            // Load favicon from website
-            faviconProgressBar.setVisibility(View.VISIBLE);
-            faviconImageView.setVisibility(View.GONE);
-            FaviconLoader faviconLoader = new FaviconLoader(this);
-            faviconLoader.load(intent.getStringExtra(Intent.EXTRA_TEXT),
-                    new FaviconLoader.OnFaviconLoaded() {
-                        @Override
-                        public void onFaviconLoaded(BitmapDrawable icon) {
-                            faviconImageView.setImageDrawable(icon);
-                            faviconProgressBar.setVisibility(View.GONE);
-                            faviconImageView.setVisibility(View.VISIBLE);
-                            mFavicon = new Favicon(Favicon.NO_ID, mSite, icon.getBitmap());
-                        }
-                    });
-        }
+        FaviconSettings.getFaviconAsync(this, mSite, new DataCallback<Favicon>() {
+            @Override
+            public void onResult(Favicon favicon) {
+                mFavicon = favicon;
+                if (mFavicon != null) {
+                    // Loaded from storage
+                    faviconProgressBar.setVisibility(View.GONE);
+                    faviconImageView.setImageBitmap(mFavicon.getIcon());
+                    faviconImageView.setVisibility(View.VISIBLE);
+                } else {
+                    // Load favicon from website
+                    faviconProgressBar.setVisibility(View.VISIBLE);
+                    faviconImageView.setVisibility(View.GONE);
+                    FaviconLoader faviconLoader =
+                            new FaviconLoader(BrowserIntegrationActivity.this);
+                    faviconLoader.load(intent.getStringExtra(Intent.EXTRA_TEXT),
+                            new FaviconLoader.OnFaviconLoaded() {
+                                @Override
+                                public void onFaviconLoaded(BitmapDrawable icon) {
+                                    faviconImageView.setImageDrawable(icon);
+                                    faviconProgressBar.setVisibility(View.GONE);
+                                    faviconImageView.setVisibility(View.VISIBLE);
+                                    mFavicon = new Favicon(Favicon.NO_ID, mSite,
+                                            icon.getBitmap());
+                                }
+                            });
+                }
+            }
+        });
     }
 
     @Override
@@ -310,24 +330,59 @@ public class BrowserIntegrationActivity extends Activity
         /* Cancel the alarm and restore the cached master key */
         MasterKeyAlarmManager.cancelAlarm(this);
 
-        TagAutocomplete.populateTagAutocompleteTextView(this,
-                ((Profile) mProfileSpinner.getSelectedItem()).getId(), mTagEditText);
+        // The spinner is empty until the profiles have been read
+        Profile profile = (Profile) mProfileSpinner.getSelectedItem();
+        if (profile != null) {
+            TagAutocomplete
+                    .populateTagAutocompleteTextView(this, profile.getId(), mTagEditText);
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        TwikApplication.getInstance().clearIdenticonsIfNotRemembered();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mGenerationScheduler.quit();
+        TwikApplication.getInstance().clearIdenticonsIfNotRemembered();
     }
 
     private void stop() {
-        if (mFavicon != null && mFavicon.getId() == Favicon.NO_ID &&
-                FaviconSettings.insertFavicon(this, mFavicon) < 0) {
-            Log.e(TwikApplication.LOG_TAG, "Error storing favicon");
+        if (mTag == null) {
+            // The tag of the site has not been read yet
+            return;
         }
 
-        saveTag();
+        // The favicon and the tag are saved in background, after the activity has finished
+        final Favicon favicon = mFavicon;
+        final Tag tag = new Tag(mTag);
+        final long profileId = mProfileId;
+        final String site = mSite;
+        DataExecutor.submit(this, new DataExecutor.Method<Void>() {
+            @Override
+            public Void run(Context context) {
+                if (favicon != null && favicon.getId() == Favicon.NO_ID &&
+                        FaviconSettings.insertFavicon(context, favicon) < 0) {
+                    Log.e(TwikApplication.LOG_TAG, "Error storing favicon");
+                }
+
+                saveTag(context, tag, profileId, site);
+                return null;
+            }
+        }, null);
 
         // Update last used profile preference
         Preferences.setLastProfile(this, mProfileId);
 
-        // Cache master key
-        TwikApplication.getInstance()
-                .cacheMasterKey(SecurePassword.getPassword(mMasterKeyEditText.getText()));
+        // Cache master key and its identicon
+        TwikApplication application = TwikApplication.getInstance();
+        application.cacheMasterKey(SecurePassword.getPassword(mMasterKeyEditText.getText()));
+        application.cacheIdenticon(SecurePassword.getPassword(mMasterKeyEditText.getText()),
+                mIdenticon);
 
         // Copy password to clipboard
         if (Preferences.getCopyToClipboard(this) && mPasswordTextView.length() > 0) {
@@ -339,33 +394,36 @@ public class BrowserIntegrationActivity extends Activity
         finish();
     }
 
-    private void saveTag() {
+    /**
+     * Save the tag used for a site. It must not be called from the main thread.
+     */
+    private static void saveTag(Context context, Tag tag, long profileId, String site) {
         // Increase hash counter
-        mTag.setHashCounter(mTag.getHashCounter() + 1);
+        tag.setHashCounter(tag.getHashCounter() + 1);
 
         // Current site tag
-        Tag siteTag = TagSettings.getSiteTag(this, mProfileId, mSite);
+        Tag siteTag = TagSettings.getSiteTag(context, profileId, site);
 
-        if (siteTag != null && siteTag.getId() != mTag.getId()) {
+        if (siteTag != null && siteTag.getId() != tag.getId()) {
             /* I understand I should remove the previous tag because it
             is no longer necessary, but we should add its hash counter
             because we are generating the password for the same website */
-            mTag.setHashCounter(mTag.getHashCounter() + siteTag.getHashCounter());
-            TagSettings.deleteTag(this, siteTag);
+            tag.setHashCounter(tag.getHashCounter() + siteTag.getHashCounter());
+            TagSettings.deleteTag(context, siteTag);
         }
 
         /* If the tag is not already stored in the database,
         save the current settings */
-        mTag.setSite(mSite);
+        tag.setSite(site);
 
         // We have to check whether we are overwriting an existing tag
-        Tag storedTag = TagSettings.getTag(this, mProfileId, mTag.getName());
+        Tag storedTag = TagSettings.getTag(context, profileId, tag.getName());
         if (storedTag.getId() == Tag.NO_ID) {
             // Not overwriting
-            if (mTag.getId() == Tag.NO_ID) {
-                mTag.setId(TagSettings.insertTag(this, mTag));
+            if (tag.getId() == Tag.NO_ID) {
+                tag.setId(TagSettings.insertTag(context, tag));
             } else {
-                if (!TagSettings.updateTag(this, mTag)) {
+                if (!TagSettings.updateTag(context, tag)) {
                     Log.e(TwikApplication.LOG_TAG,
                             "Error updating tag from browser activity");
                 }
@@ -374,20 +432,20 @@ public class BrowserIntegrationActivity extends Activity
             /* Overwrite the current tag with the new site and the updated
             tag settings and hash counter */
 
-            if (mTag.getId() != Tag.NO_ID) {
+            if (tag.getId() != Tag.NO_ID) {
                 // Unlink the current tag from this site
-                Tag oldTag = TagSettings.getTag(this, mTag.getId());
+                Tag oldTag = TagSettings.getTag(context, tag.getId());
                 oldTag.setSite(null);
-                if (!TagSettings.updateTag(this, oldTag)) {
+                if (!TagSettings.updateTag(context, oldTag)) {
                     Log.e(TwikApplication.LOG_TAG,
                             "Error updating existing tag from browser activity");
                 }
             }
 
             // Update the tag
-            mTag.setHashCounter(storedTag.getHashCounter() + 1);
-            mTag.setId(storedTag.getId());
-            if (!TagSettings.updateTag(this, mTag)) {
+            tag.setHashCounter(storedTag.getHashCounter() + 1);
+            tag.setId(storedTag.getId());
+            if (!TagSettings.updateTag(context, tag)) {
                 Log.e(TwikApplication.LOG_TAG,
                         "Error updating stored tag from browser activity");
             }
@@ -396,18 +454,30 @@ public class BrowserIntegrationActivity extends Activity
 
     private void updateTag() {
         if (mProfileId > -1) {
-            mTag = TagSettings.getSiteTag(this, mProfileId, mSite);
-            String siteTagName;
-            if (mTag == null) {
-                // There is no previous association, use the site as tag.
-                siteTagName = mSite;
-                Profile profile = ProfileSettings.getProfile(this, mProfileId);
-                mTag = new Tag(Tag.NO_ID, mProfileId, 0, mSite, mSite, profile.getPasswordLength(),
-                        profile.getPasswordType());
-            } else {
-                siteTagName = mTag.getName();
-            }
-            mTagEditText.setText(siteTagName);
+            final long profileId = mProfileId;
+            final String site = mSite;
+            DataExecutor.submit(this, new DataExecutor.Method<Tag>() {
+                @Override
+                public Tag run(Context context) {
+                    Tag tag = TagSettings.getSiteTag(context, profileId, site);
+                    if (tag == null) {
+                        // There is no previous association, use the site as tag.
+                        Profile profile = ProfileSettings.getProfile(context, profileId);
+                        tag = new Tag(Tag.NO_ID, profileId, 0, site, site,
+                                profile.getPasswordLength(), profile.getPasswordType());
+                    }
+                    return tag;
+                }
+            }, new DataCallback<Tag>() {
+                @Override
+                public void onResult(Tag tag) {
+                    // Skip the tag if another profile has been selected since
+                    if (profileId == mProfileId) {
+                        mTag = tag;
+                        mTagEditText.setText(tag.getName());
+                    }
+                }
+            });
         }
     }
 
@@ -452,8 +522,7 @@ public class BrowserIntegrationActivity extends Activity
         return host;
     }
 
-    private void populateProfileSpinner() {
-        List<Profile> profileList = ProfileSettings.getList(this);
+    private void populateProfileSpinner(List<Profile> profileList) {
         mProfileSpinner.setAdapter(new ProfileSpinnerAdapter(this, profileList));
 
         // Get the last used profile
@@ -466,29 +535,39 @@ public class BrowserIntegrationActivity extends Activity
         }
     }
 
+    /**
+     * Schedule the generation of the password and the identicon in background
+     */
     private void updatePassword() {
-        if (mProfileId != 0 && mTagEditText.length() > 0 &&
-                mMasterKeyEditText.length() > 0) {
-            Profile profile = ProfileSettings.getProfile(this, mProfileId);
+        Tag tag = null;
+        if (mProfileId != 0 && mTag != null && mTagEditText.length() > 0) {
             mTag.setName(mTagEditText.getText().toString());
-            String password = PasswordHasher.hashTagWithKeys(mTag.getName(),
-                    SecurePassword.getPassword(mMasterKeyEditText.getText()),
-                    profile.getPrivateKey(), mTag.getPasswordLength(), mTag.getPasswordType());
-            mPasswordTextView.setText(password);
-        } else {
-            mPasswordTextView.setText(EMPTY_STRING);
+            tag = mTag;
         }
+        // The displayed password must not be used until it has been generated again
+        mPasswordPending = true;
+        updateOkButton();
+        mGenerationScheduler.schedule(mProfileId, tag,
+                SecurePassword.getPassword(mMasterKeyEditText.getText()));
+    }
+
+    private void updateOkButton() {
+        mOkButton.setEnabled(!mPasswordPending && mTagEditText.length() > 0 &&
+                mMasterKeyEditText.length() > 0);
     }
 
     @Override
-    public void onIconGenerated(Bitmap bitmap) {
-        if (bitmap != null) {
-            mIdenticonImageView.setImageBitmap(bitmap);
+    public void onPasswordGenerated(String password, Bitmap identicon) {
+        mPasswordPending = false;
+        updateOkButton();
+        mPasswordTextView.setText(password);
+        mIdenticon = identicon;
+        if (identicon != null) {
+            mIdenticonImageView.setImageBitmap(identicon);
             mIdenticonImageView.setVisibility(View.VISIBLE);
         } else {
             mIdenticonImageView.setVisibility(View.INVISIBLE);
         }
-        mTask = null;
     }
 
     private class PasswordTextWatcher implements TextWatcher {
@@ -506,10 +585,6 @@ public class BrowserIntegrationActivity extends Activity
         @Override
         public void afterTextChanged(Editable s) {
             updatePassword();
-            generateIdenticon();
-
-            mOkButton.setEnabled(mTagEditText.length() > 0 && mMasterKeyEditText.length() > 0);
-
 
             // Update tag settings button visibility
             if (mTagEditText.getText().length() > 0) {
@@ -521,16 +596,6 @@ public class BrowserIntegrationActivity extends Activity
             }
         }
 
-        private void generateIdenticon() {
-            if (mTask != null && mTask.getStatus() == AsyncTask.Status.RUNNING) {
-                mTask.cancel(true);
-            }
-
-            mTask = new IdenticonGenerationTask(BrowserIntegrationActivity.this,
-                    BrowserIntegrationActivity.this);
-            mTask.execute(SecurePassword.getPassword(mMasterKeyEditText.getText()));
-        }
-
     }
 
 }
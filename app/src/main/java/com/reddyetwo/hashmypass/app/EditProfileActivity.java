@@ -40,6 +40,7 @@ import android.widget.Spinner;
 import android.widget.Toast;
 
 import com.reddyetwo.hashmypass.app.adapter.ColorPaletteAdapter;
+import com.reddyetwo.hashmypass.app.data.DataCallback;
 import com.reddyetwo.hashmypass.app.data.PasswordType;
 import com.reddyetwo.hashmypass.app.data.Profile;
 import com.reddyetwo.hashmypass.app.data.ProfileSettings;
@@ -49,6 +50,8 @@ import com.reddyetwo.hashmypass.app.util.KeyboardManager;
 import com.reddyetwo.hashmypass.app.util.ProfileFormInflater;
 import com.reddyetwo.hashmypass.app.util.ProfileFormWatcher;
 
+import java.util.concurrent.Future;
+
 /**
  * Activity which allows editing or adding a profile
  */
@@ -129,26 +132,53 @@ public class EditProfileActivity extends AppCompatActivity {
      */
     private Profile mProfile;
 
+    /**
+     * Pending read of the profile
+     */
+    private Future<Profile> mProfileFuture;
+
     @Override
-    protected void onCreate(Bundle savedInstanceState) {
+    protected void onCreate(final Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
         setContentView(R.layout.activity_edit_profile);
 
-        if (!loadProfileData()) {
-            return;
+        mProfileId = getIntent().getLongExtra(EXTRA_PROFILE_ID, Profile.NO_ID);
+        if (mProfileId != Profile.NO_ID) {
+            // Load profile from database
+            mProfileFuture = ProfileSettings
+                    .getProfileAsync(this, mProfileId, new DataCallback<Profile>() {
+                        @Override
+                        public void onResult(Profile profile) {
+                            if (profile == null) {
+                                // Profile not found
+                                NavUtils.navigateUpFromSameTask(EditProfileActivity.this);
+                            } else {
+                                showProfile(profile, savedInstanceState);
+                            }
+                        }
+                    });
+        } else {
+            setTitle(R.string.action_add_profile);
+            showProfile(new Profile(), savedInstanceState);
         }
-
-        initializeView();
-        initializeSettings(savedInstanceState);
-        populateView();
     }
 
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
-        outState.putInt(KEY_PASSWORD_LENGTH,
-                Integer.parseInt((String) mPasswordLengthSpinner.getSelectedItem()));
+        if (mProfile != null) {
+            outState.putInt(KEY_PASSWORD_LENGTH,
+                    Integer.parseInt((String) mPasswordLengthSpinner.getSelectedItem()));
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mProfileFuture != null) {
+            mProfileFuture.cancel(false);
+        }
     }
 
     @Override
@@ -184,12 +214,19 @@ public class EditProfileActivity extends AppCompatActivity {
                     new DialogInterface.OnClickListener() {
                         @Override
                         public void onClick(DialogInterface dialog, int which) {
-                            if (ProfileSettings.deleteProfile(EditProfileActivity
-                                    .this, mProfileId)) {
-                                NavUtils.navigateUpFromSameTask(EditProfileActivity.this);
-                            } else {
-                                Log.e(TwikApplication.LOG_TAG, "Error deleting profile");
-                            }
+                            ProfileSettings.deleteProfileAsync(EditProfileActivity.this,
+                                    mProfileId, new DataCallback<Boolean>() {
+                                        @Override
+                                        public void onResult(Boolean deleted) {
+                                            if (deleted) {
+                                                NavUtils.navigateUpFromSameTask(
+                                                        EditProfileActivity.this);
+                                            } else {
+                                                Log.e(TwikApplication.LOG_TAG,
+                                                        "Error deleting profile");
+                                            }
+                                        }
+                                    });
                         }
                     });
             builder.setNegativeButton(android.R.string.cancel, null);
@@ -201,29 +238,19 @@ public class EditProfileActivity extends AppCompatActivity {
     }
 
     /**
-     * Load the profile data.
+     * Show the profile data in the form.
      *
-     * @return true if data has been successfully loaded, false otherwise
+     * @param profile            the profile
+     * @param savedInstanceState the saved instance state, or null
      */
-    private boolean loadProfileData() {
-        mProfileId = getIntent().getLongExtra(EXTRA_PROFILE_ID, Profile.NO_ID);
-
-        if (mProfileId != Profile.NO_ID) {
-            // Load profile from database
-            mProfile = ProfileSettings.getProfile(this, mProfileId);
-            if (mProfile == null) {
-                // Profile not found
-                NavUtils.navigateUpFromSameTask(EditProfileActivity.this);
-                return false;
-            }
-        } else {
-            mProfile = new Profile();
-            setTitle(R.string.action_add_profile);
-        }
-
+    private void showProfile(Profile profile, Bundle savedInstanceState) {
+        mProfile = profile;
         mColor = mProfile.getColorIndex();
         mOriginalName = mProfile.getName();
-        return true;
+
+        initializeView();
+        initializeSettings(savedInstanceState);
+        populateView();
     }
 
     private void initializeView() {
@@ -264,9 +291,9 @@ public class EditProfileActivity extends AppCompatActivity {
     }
 
     private void initializeSettings(Bundle savedInstanceState) {
-        mInitialPasswordLength =
-                savedInstanceState != null ? savedInstanceState.getInt(KEY_PASSWORD_LENGTH) :
-                        mProfile.getPasswordLength();
+        mInitialPasswordLength = savedInstanceState != null &&
+                savedInstanceState.containsKey(KEY_PASSWORD_LENGTH) ?
+                savedInstanceState.getInt(KEY_PASSWORD_LENGTH) : mProfile.getPasswordLength();
     }
 
     private void populateView() {
@@ -359,25 +386,46 @@ public class EditProfileActivity extends AppCompatActivity {
     private class SaveButtonClickListener implements View.OnClickListener {
         @Override
         public void onClick(View v) {
+            // Do not save the profile twice
+            mSaveButton.setEnabled(false);
+
             // Update profile in the database
             Profile profile = new Profile(mProfileId, mNameEditText.getText().toString(),
                     mPrivateKeyEditText.getText().toString(),
                     Integer.decode((String) mPasswordLengthSpinner.getSelectedItem()),
                     PasswordType.values()[mPasswordTypeSpinner.getSelectedItemPosition()], mColor);
             if (mProfileId == Profile.NO_ID) {
-                long profileId = ProfileSettings.insertProfile(EditProfileActivity.this, profile);
-                if (profileId == -1) {
-                    setResult(RESULT_CANCELED);
-                } else {
-                    Intent resultIntent = new Intent();
-                    resultIntent.putExtra(RESULT_KEY_PROFILE_ID, profileId);
-                    setResult(RESULT_OK, resultIntent);
-                }
-            } else if (!ProfileSettings.updateProfile(EditProfileActivity.this, profile)) {
-                Log.e(TwikApplication.LOG_TAG, "Error updating profile");
-                Toast.makeText(EditProfileActivity.this, R.string.error, Toast.LENGTH_LONG).show();
+                ProfileSettings.insertProfileAsync(EditProfileActivity.this, profile,
+                        new DataCallback<Long>() {
+                            @Override
+                            public void onResult(Long profileId) {
+                                if (profileId == -1) {
+                                    setResult(RESULT_CANCELED);
+                                } else {
+                                    Intent resultIntent = new Intent();
+                                    resultIntent.putExtra(RESULT_KEY_PROFILE_ID, profileId);
+                                    setResult(RESULT_OK, resultIntent);
+                                }
+                                navigateUp();
+                            }
+                        });
+            } else {
+                ProfileSettings.updateProfileAsync(EditProfileActivity.this, profile,
+                        new DataCallback<Boolean>() {
+                            @Override
+                            public void onResult(Boolean updated) {
+                                if (!updated) {
+                                    Log.e(TwikApplication.LOG_TAG, "Error updating profile");
+                                    Toast.makeText(EditProfileActivity.this, R.string.error,
+                                            Toast.LENGTH_LONG).show();
+                                }
+                                navigateUp();
+                            }
+                        });
             }
+        }
 
+        private void navigateUp() {
             // Go to the parent activity
             NavUtils.navigateUpFromSameTask(EditProfileActivity.this);
         }
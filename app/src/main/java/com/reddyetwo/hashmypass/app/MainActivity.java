@@ -29,11 +29,13 @@ import android.hardware.SensorManager;
 import android.os.Bundle;
 import android.support.annotation.IntDef;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.DefaultItemAnimator;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.support.v7.widget.Toolbar;
 import android.util.Log;
 import android.view.Menu;
@@ -48,6 +50,8 @@ import android.widget.Toast;
 import com.reddyetwo.hashmypass.app.adapter.ProfileSpinnerAdapter;
 import com.reddyetwo.hashmypass.app.adapter.TagListAdapter;
 import com.reddyetwo.hashmypass.app.animation.Animations;
+import com.reddyetwo.hashmypass.app.data.DataCallback;
+import com.reddyetwo.hashmypass.app.data.DataExecutor;
 import com.reddyetwo.hashmypass.app.data.Favicon;
 import com.reddyetwo.hashmypass.app.data.FaviconSettings;
 import com.reddyetwo.hashmypass.app.data.Preferences;
@@ -63,6 +67,7 @@ import com.reddyetwo.hashmypass.app.util.FabUtils;
 import com.reddyetwo.hashmypass.app.util.MasterKeyAlarmManager;
 
 import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * Main application activity, which shows the list of tags
@@ -78,6 +83,7 @@ public class MainActivity extends AppCompatActivity
     private static final int REQUEST_CREATE_DEFAULT_PROFILE = 2;
     private static final String FRAGMENT_GENERATE_PASSWORD = "generatePassword";
     private static final long LIST_ANIMATION_DURATION = 150;
+    private static final int SEARCH_RESULTS_LIMIT = 100;
     // State keys
     private static final String STATE_SELECTED_PROFILE_ID = "profile_id";
     private static final String STATE_ORIENTATION_HAS_CHANGED = "orientation_has_changed";
@@ -85,6 +91,14 @@ public class MainActivity extends AppCompatActivity
      * Selected profile ID
      */
     private long mSelectedProfileId = -1;
+    /**
+     * Selected profile, or null if the profiles have not been read yet
+     */
+    private Profile mSelectedProfile;
+    /**
+     * Pending read of the profile list
+     */
+    private Future<List<Profile>> mProfileListFuture;
     /**
      * Listener for clicks on tag list items
      */
@@ -109,6 +123,10 @@ public class MainActivity extends AppCompatActivity
      * Tag order mode
      */
     private int mTagOrder;
+    /**
+     * Tag search query, or null if the search view is collapsed
+     */
+    private String mSearchQuery;
     /**
      * Tag list UI component
      */
@@ -160,13 +178,27 @@ public class MainActivity extends AppCompatActivity
             return;
         }
 
-        if (ProfileSettings.getList(this).isEmpty()) {
-            // Show tutorial when profile list is empty
-            showTutorial();
-        } else {
-            // Cancel the master key alarm to clear cache
-            MasterKeyAlarmManager.cancelAlarm(this);
-            populateView();
+        mProfileListFuture =
+                ProfileSettings.getListAsync(this, new DataCallback<List<Profile>>() {
+                    @Override
+                    public void onResult(List<Profile> profiles) {
+                        if (profiles.isEmpty()) {
+                            // Show tutorial when profile list is empty
+                            showTutorial();
+                        } else {
+                            // Cancel the master key alarm to clear cache
+                            MasterKeyAlarmManager.cancelAlarm(MainActivity.this);
+                            populateView(profiles);
+                        }
+                    }
+                });
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        if (mProfileListFuture != null) {
+            mProfileListFuture.cancel(false);
         }
     }
 
@@ -207,10 +239,13 @@ public class MainActivity extends AppCompatActivity
         addTagClickedListener();
     }
 
-    private void populateView() {
-        populateToolBarSpinner();
+    private void populateView(List<Profile> profiles) {
+        /* Warning: the profile could have been removed. In that case,
+        select the first profile in the list */
+        int position = profiles.indexOf(new Profile(mSelectedProfileId));
+        setSelectedProfile(profiles.get(position == -1 ? 0 : position));
+        populateToolBarSpinner(profiles);
         populateTagList();
-        updateFabColor();
     }
 
     private void addOrientationChangedListener() {
@@ -243,9 +278,12 @@ public class MainActivity extends AppCompatActivity
         mFab.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                Profile profile = ProfileSettings.getProfile(MainActivity.this, mSelectedProfileId);
+                if (mSelectedProfile == null) {
+                    // The profiles have not been read yet
+                    return;
+                }
                 Tag tag = new Tag(Tag.NO_ID, mSelectedProfileId, 1, null, "",
-                        profile.getPasswordLength(), profile.getPasswordType());
+                        mSelectedProfile.getPasswordLength(), mSelectedProfile.getPasswordType());
                 showGeneratePasswordDialog(tag);
             }
         });
@@ -257,16 +295,73 @@ public class MainActivity extends AppCompatActivity
     }
 
     private void populateTagList() {
-        final List<Tag> tags = TagSettings
-                .getProfileTags(this, mSelectedProfileId, mTagOrder, TagSettings.LIMIT_UNBOUNDED);
+        if (isSearching()) {
+            populateSearchResults();
+            return;
+        }
+
+        final long profileId = mSelectedProfileId;
+        final int tagOrder = mTagOrder;
+        TagSettings.getProfileTagListAsync(this, profileId, tagOrder,
+                new DataCallback<List<Tag>>() {
+                    @Override
+                    public void onResult(List<Tag> tags) {
+                        // Skip the list if another profile or order has been selected since
+                        if (profileId == mSelectedProfileId && tagOrder == mTagOrder &&
+                                !isSearching()) {
+                            showTagList(tags);
+                        }
+                    }
+                });
+    }
+
+    private void populateSearchResults() {
+        final long profileId = mSelectedProfileId;
+        final String query = mSearchQuery;
+        TagSettings.searchTagsAsync(this, profileId, query, SEARCH_RESULTS_LIMIT,
+                new DataCallback<List<Tag>>() {
+                    @Override
+                    public void onResult(List<Tag> tags) {
+                        // Skip the results if the query or the profile have changed since
+                        if (profileId == mSelectedProfileId && query.equals(mSearchQuery)) {
+                            showSearchResults(tags);
+                        }
+                    }
+                });
+    }
+
+    private void showSearchResults(List<Tag> tags) {
+        if (!tags.isEmpty() && getTagListStatus() == LIST_CONTAINS_ITEMS) {
+            // Replace the results as the user types, without the list transition
+            mAdapter.setTagOrder(getListOrder());
+            mAdapter.setTags(tags);
+        } else {
+            showTagList(tags);
+        }
+    }
+
+    private boolean isSearching() {
+        return mSearchQuery != null && !mSearchQuery.isEmpty();
+    }
+
+    /**
+     * Return the order of the tag list, which is the order chosen by the user unless it shows
+     * search results
+     */
+    private int getListOrder() {
+        return isSearching() ? TagSettings.ORDER_BY_HASH_COUNTER : mTagOrder;
+    }
+
+    private void showTagList(List<Tag> tags) {
         @ListStatus final int stateBeforeUpdating = getTagListStatus();
 
         if (stateBeforeUpdating == LIST_NOT_INITIALIZED) {
-            mAdapter = new TagListAdapter(this, mSelectedProfileId, mTagOrder, mTagClickedListener,
-                    tags);
+            mAdapter = new TagListAdapter(this, mSelectedProfileId, getListOrder(),
+                    mTagClickedListener, tags);
             mTagRecyclerView.setAdapter(mAdapter);
         } else {
             mAdapter.setProfileId(mSelectedProfileId);
+            mAdapter.setTagOrder(getListOrder());
         }
 
         if (stateBeforeUpdating == LIST_EMPTY) {
@@ -282,37 +377,15 @@ public class MainActivity extends AppCompatActivity
     }
 
     /**
-     * Update FAB color to match the currently selected profile
-     */
-    private void updateFabColor() {
-        if (mSelectedProfileId != Profile.NO_ID) {
-            Profile profile = ProfileSettings.getProfile(this, mSelectedProfileId);
-            /* Warning: the profile could have been removed. In that case,
-            select the first profile in the list */
-            if (profile == null) {
-                profile = ProfileSettings.getList(this).get(0);
-                mSelectedProfileId = profile.getId();
-            }
-            int colorIndex = profile.getColorIndex();
-            FabUtils.setFabColor(mFab, mColorsNormal[colorIndex], mColorsPressed[colorIndex]);
-        }
-    }
-
-    /**
-     * Get the tag position in the list of tags
+     * Select a profile and update FAB color to match it
      *
-     * @param id the tag ID
-     * @return the position of the tag in the list
+     * @param profile the profile
      */
-    private int getTagPosition(long id) {
-        List<Tag> tags = TagSettings
-                .getProfileTags(this, mSelectedProfileId, mTagOrder, TagSettings.LIMIT_UNBOUNDED);
-        int position = 0;
-        int size = tags.size();
-        while (position < size && tags.get(position).getId() != id) {
-            position++;
-        }
-        return position;
+    private void setSelectedProfile(Profile profile) {
+        mSelectedProfile = profile;
+        mSelectedProfileId = profile.getId();
+        int colorIndex = profile.getColorIndex();
+        FabUtils.setFabColor(mFab, mColorsNormal[colorIndex], mColorsPressed[colorIndex]);
     }
 
     /**
@@ -398,6 +471,7 @@ public class MainActivity extends AppCompatActivity
     protected void onStop() {
         super.onStop();
         setMasterKeyCacheAlarm();
+        TagSettings.flushHashCounters(this);
     }
 
     @Override
@@ -420,6 +494,13 @@ public class MainActivity extends AppCompatActivity
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.main, menu);
+
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        TagSearchListener searchListener = new TagSearchListener(searchView);
+        searchView.setQueryHint(getString(R.string.search_websites));
+        searchView.setOnQueryTextListener(searchListener);
+        MenuItemCompat.setOnActionExpandListener(searchItem, searchListener);
         return true;
     }
 
@@ -441,12 +522,12 @@ public class MainActivity extends AppCompatActivity
         } else if (id == R.id.action_sort_by_usage) {
             mTagOrder = TagSettings.ORDER_BY_HASH_COUNTER;
             Preferences.setTagOrder(this, mTagOrder);
-            mAdapter.setTagOrder(mTagOrder);
+            mAdapter.setTagOrder(getListOrder());
             populateTagList();
         } else if (id == R.id.action_sort_by_name) {
             mTagOrder = TagSettings.ORDER_BY_NAME;
             Preferences.setTagOrder(this, mTagOrder);
-            mAdapter.setTagOrder(mTagOrder);
+            mAdapter.setTagOrder(getListOrder());
             populateTagList();
         } else {
             return super.onOptionsItemSelected(item);
@@ -473,15 +554,12 @@ public class MainActivity extends AppCompatActivity
     }
 
     private void addProfile(long profileId) {
+        // The view is populated with the new profile when the activity is resumed
         mSelectedProfileId = profileId;
-        int colorIndex = ProfileSettings.getProfile(this, mSelectedProfileId).getColorIndex();
-        FabUtils.setFabColor(mFab, mColorsNormal[colorIndex], mColorsPressed[colorIndex]);
-        populateTagList();
     }
 
-    private void populateToolBarSpinner() {
+    private void populateToolBarSpinner(List<Profile> profiles) {
         if (mToolbar != null) {
-            final List<Profile> profiles = ProfileSettings.getList(this);
             Profile addProfile = new Profile();
             addProfile.setName(getString(R.string.action_add_profile));
             profiles.add(addProfile);
@@ -497,8 +575,7 @@ public class MainActivity extends AppCompatActivity
 
             /* If we had previously selected a profile before pausing the
             activity and it still exists, select it in the spinner. */
-            int position = mSelectedProfileId == Profile.NO_ID ? 0 :
-                    profiles.indexOf(ProfileSettings.getProfile(this, mSelectedProfileId));
+            int position = profiles.indexOf(mSelectedProfile);
 
 
             /* It may happen that the last profiled used for hashing no longer exists */
@@ -533,14 +610,17 @@ public class MainActivity extends AppCompatActivity
     }
 
     @Override
-    public void onDialogDismiss(Tag tag) {
-        boolean listWasEmpty = mAdapter.getItemCount() == 0;
+    public void onDialogDismiss(final Tag tag) {
         if (tag != null && tag.getId() == Tag.NO_ID &&
                 tag.getName().length() > 0) {
             // It is a new tag
-            tag.setId(TagSettings.insertTag(this, tag));
-            int position = getTagPosition(tag.getId());
-            mAdapter.add(tag, position);
+            TagSettings.insertTagAsync(this, tag, new DataCallback<Long>() {
+                @Override
+                public void onResult(Long tagId) {
+                    tag.setId(tagId);
+                    updateTagList(tag, true);
+                }
+            });
 
             // Update last used profile
             Preferences.setLastProfile(this, mSelectedProfileId);
@@ -548,7 +628,33 @@ public class MainActivity extends AppCompatActivity
             /* Save the tag and update the list because the name of a tag can
              alter its position in the list
               */
-            TagSettings.updateTag(this, tag);
+            TagSettings.updateTagAsync(this, tag, new DataCallback<Boolean>() {
+                @Override
+                public void onResult(Boolean updated) {
+                    updateTagList(tag, false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Add a saved tag to the list, or move it to its new position. Search results are
+     * searched again instead.
+     *
+     * @param tag      the tag
+     * @param inserted true if the tag has just been inserted
+     */
+    private void updateTagList(Tag tag, boolean inserted) {
+        if (isSearching()) {
+            // The tag may not match the query, or no longer match it
+            populateSearchResults();
+            return;
+        }
+
+        boolean listWasEmpty = mAdapter.getItemCount() == 0;
+        if (inserted) {
+            mAdapter.add(tag);
+        } else {
             mAdapter.update(tag);
         }
 
@@ -557,28 +663,41 @@ public class MainActivity extends AppCompatActivity
         }
     }
 
-    private void deleteTag(Tag tag) {
-        if (!TagSettings.deleteTag(this, tag)) {
-            Toast.makeText(this, R.string.error, Toast.LENGTH_LONG).show();
-            Log.e(TwikApplication.LOG_TAG, "Error deleting tag from database");
-            return;
-        }
+    private void deleteTag(final Tag tag) {
+        TagSettings.deleteTagAsync(this, tag, new DataCallback<Boolean>() {
+            @Override
+            public void onResult(Boolean deleted) {
+                if (!deleted) {
+                    Toast.makeText(MainActivity.this, R.string.error, Toast.LENGTH_LONG).show();
+                    Log.e(TwikApplication.LOG_TAG, "Error deleting tag from database");
+                    return;
+                }
 
-        // Update tags list
-        mAdapter.remove(tag);
+                // Update tags list
+                mAdapter.remove(tag);
 
-        if (mAdapter.getItemCount() == 0) {
-            updateTagListView(LIST_CONTAINS_ITEMS, mAdapter.getTags());
-        }
+                if (mAdapter.getItemCount() == 0) {
+                    updateTagListView(LIST_CONTAINS_ITEMS, mAdapter.getTags());
+                }
+            }
+        });
 
-        // Check if we should delete favicon
-        String site = tag.getSite();
+        // Check if we should delete favicon, after the tag has been deleted
+        final String site = tag.getSite();
         if (site != null) {
-            Favicon favicon = FaviconSettings.getFavicon(this, site);
-            boolean shouldDeleteFavicon = favicon != null && !TagSettings.siteHasTags(this, site);
-            if (shouldDeleteFavicon && !FaviconSettings.deleteFavicon(this, favicon)) {
-                Log.e(TwikApplication.LOG_TAG, "Error deleting favicon");
-            }
+            DataExecutor.submit(this, new DataExecutor.Method<Void>() {
+                @Override
+                public Void run(Context context) {
+                    if (TagSettings.siteHasTags(context, site)) {
+                        return null;
+                    }
+                    Favicon favicon = FaviconSettings.getFavicon(context, site);
+                    if (favicon != null && !FaviconSettings.deleteFavicon(context, favicon)) {
+                        Log.e(TwikApplication.LOG_TAG, "Error deleting favicon");
+                    }
+                    return null;
+                }
+            }, null);
         }
     }
 
@@ -627,9 +746,8 @@ public class MainActivity extends AppCompatActivity
                 intent.putExtra(EditProfileActivity.EXTRA_PROFILE_ID, id);
                 startActivityForResult(intent, REQUEST_ADD_PROFILE);
             } else if (id != mSelectedProfileId) {
-                mSelectedProfileId = id;
+                setSelectedProfile((Profile) parent.getItemAtPosition(position));
                 populateTagList();
-                updateFabColor();
             }
         }
 
@@ -640,6 +758,57 @@ public class MainActivity extends AppCompatActivity
 
     }
 
+    /**
+     * Listener which searches the tags as the user types in the search view
+     */
+    private class TagSearchListener
+            implements SearchView.OnQueryTextListener, MenuItemCompat.OnActionExpandListener {
+
+        private final SearchView mSearchView;
+
+        /**
+         * Constructor
+         *
+         * @param searchView the {@link android.support.v7.widget.SearchView} instance
+         */
+        public TagSearchListener(SearchView searchView) {
+            mSearchView = searchView;
+        }
+
+        @Override
+        public boolean onQueryTextSubmit(String query) {
+            // The results are already shown, just hide the keyboard
+            mSearchView.clearFocus();
+            return true;
+        }
+
+        @Override
+        public boolean onQueryTextChange(String newText) {
+            boolean wasSearching = isSearching();
+            mSearchQuery = newText;
+            if (wasSearching || isSearching()) {
+                populateTagList();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean onMenuItemActionExpand(MenuItem item) {
+            mSearchQuery = "";
+            return true;
+        }
+
+        @Override
+        public boolean onMenuItemActionCollapse(MenuItem item) {
+            boolean wasSearching = isSearching();
+            mSearchQuery = null;
+            if (wasSearching) {
+                populateTagList();
+            }
+            return true;
+        }
+    }
+
     private class TagListProfileChangedAnimatorListener implements Animator.AnimatorListener {
 
         private final AnimatorSet mVisibleAnimator;
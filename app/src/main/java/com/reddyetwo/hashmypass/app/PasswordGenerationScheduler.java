@@ -0,0 +1,336 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.view.Choreographer;
+
+import com.reddyetwo.hashmypass.app.data.PasswordType;
+import com.reddyetwo.hashmypass.app.data.Profile;
+import com.reddyetwo.hashmypass.app.data.ProfileSettings;
+import com.reddyetwo.hashmypass.app.data.Tag;
+import com.reddyetwo.hashmypass.app.hash.HasherSession;
+import com.reddyetwo.hashmypass.app.hash.IntermediateHashCache;
+import com.reddyetwo.hashmypass.app.util.ApiUtils;
+import com.reddyetwo.hashmypass.app.util.IdenticonGenerator;
+
+import java.util.Arrays;
+
+/**
+ * Latest-wins scheduler which generates the password of a tag and the identicon of the master
+ * key in a background thread, while the user types.
+ * <p/>
+ * Requests which arrive while the worker thread is busy replace each other, so only the latest
+ * one is generated. Results are delivered in the main thread at most once per frame, with the
+ * password and the identicon together, and only if no newer request has been scheduled. The
+ * result of the latest request is always delivered, so callers can tell when the displayed
+ * password is up to date.
+ */
+public class PasswordGenerationScheduler {
+
+    private static final String THREAD_NAME = "PasswordGeneration";
+
+    private final Context mContext;
+    private final OnPasswordGeneratedListener mListener;
+    private final HandlerThread mThread;
+    private final Handler mWorkerHandler;
+    private final Handler mMainHandler;
+    private final Object mLock = new Object();
+    private final Runnable mGenerateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            generate();
+        }
+    };
+    private final Runnable mScheduleDeliveryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mFrameCallback != null) {
+                postFrameCallback();
+            } else {
+                deliver();
+            }
+        }
+    };
+    private final Object mFrameCallback;
+
+    // Guarded by mLock
+    private Request mPendingRequest;
+    private Result mPendingResult;
+    private long mLatestGeneration;
+    private boolean mDeliveryScheduled;
+    private boolean mQuit;
+
+    // Only accessed from the worker thread
+    private HasherSession mHasherSession;
+    private char[] mIdenticonMasterKey;
+    private Bitmap mIdenticon;
+
+    /**
+     * Constructor. It must be called from the main thread.
+     *
+     * @param context  the {@link android.content.Context} instance
+     * @param listener the {@link com.reddyetwo.hashmypass.app.PasswordGenerationScheduler.OnPasswordGeneratedListener}
+     *                 listener, called in the main thread
+     */
+    public PasswordGenerationScheduler(Context context, OnPasswordGeneratedListener listener) {
+        mContext = context.getApplicationContext();
+        mListener = listener;
+        mThread = new HandlerThread(THREAD_NAME, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mWorkerHandler = new Handler(mThread.getLooper());
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mFrameCallback = ApiUtils.hasJellyBeanApi() ? createFrameCallback() : null;
+    }
+
+    /**
+     * Schedule the generation of a password and an identicon, replacing any request which has
+     * not been started yet. The password is empty if there is no tag or the master key is empty.
+     *
+     * @param profileId the profile ID
+     * @param tag       the {@link com.reddyetwo.hashmypass.app.data.Tag}, or null to only
+     *                  generate the identicon. Its settings are copied.
+     * @param masterKey the master key. The scheduler keeps it and wipes it when done.
+     */
+    public void schedule(long profileId, Tag tag, char[] masterKey) {
+        synchronized (mLock) {
+            if (mQuit) {
+                Arrays.fill(masterKey, ' ');
+                return;
+            }
+            if (mPendingRequest != null) {
+                // Never generated, drop it
+                mPendingRequest.wipe();
+            }
+            mPendingRequest = tag == null ?
+                    new Request(++mLatestGeneration, profileId, "", 0, null, masterKey) :
+                    new Request(++mLatestGeneration, profileId, tag.getName(),
+                            tag.getPasswordLength(), tag.getPasswordType(), masterKey);
+        }
+        mWorkerHandler.removeCallbacks(mGenerateRunnable);
+        mWorkerHandler.post(mGenerateRunnable);
+    }
+
+    /**
+     * Stop the worker thread and wipe the keys kept by the scheduler. No more results are
+     * delivered after calling this method.
+     */
+    public void quit() {
+        synchronized (mLock) {
+            mQuit = true;
+            if (mPendingRequest != null) {
+                mPendingRequest.wipe();
+                mPendingRequest = null;
+            }
+            mPendingResult = null;
+        }
+        mWorkerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                wipe();
+                mThread.quit();
+            }
+        });
+    }
+
+    private void generate() {
+        Request request;
+        synchronized (mLock) {
+            request = mPendingRequest;
+            mPendingRequest = null;
+        }
+        if (request == null) {
+            return;
+        }
+
+        String password = "";
+        if (request.mTagName.length() > 0 && request.mMasterKey.length > 0) {
+            Profile profile = ProfileSettings.getProfile(mContext, request.mProfileId);
+            if (profile != null) {
+                password = IntermediateHashCache.hashTag(
+                        getHasherSession(request.mMasterKey, profile.getPrivateKey()),
+                        request.mProfileId, request.mTagName, request.mLength,
+                        request.mPasswordType);
+            }
+        }
+        Bitmap identicon = getIdenticon(request.mMasterKey);
+        request.wipe();
+
+        synchronized (mLock) {
+            if (mQuit || request.mGeneration != mLatestGeneration) {
+                // A newer request is pending, skip this result
+                return;
+            }
+            mPendingResult = new Result(request.mGeneration, password, identicon);
+            if (mDeliveryScheduled) {
+                return;
+            }
+            mDeliveryScheduled = true;
+        }
+        mMainHandler.post(mScheduleDeliveryRunnable);
+    }
+
+    /**
+     * Get the identicon of a master key, which is only generated again if the master key has
+     * changed since the previous request
+     *
+     * @param masterKey the master key
+     * @return the identicon {@link android.graphics.Bitmap}, or null if the master key is empty
+     */
+    private Bitmap getIdenticon(char[] masterKey) {
+        if (mIdenticonMasterKey == null || !Arrays.equals(mIdenticonMasterKey, masterKey)) {
+            if (mIdenticonMasterKey != null) {
+                Arrays.fill(mIdenticonMasterKey, ' ');
+            }
+            mIdenticonMasterKey = Arrays.copyOf(masterKey, masterKey.length);
+            mIdenticon = masterKey.length > 0 ? IdenticonGenerator
+                    .generate(mContext, Arrays.copyOf(masterKey, masterKey.length)) : null;
+        }
+        return mIdenticon;
+    }
+
+    /**
+     * Get the hashing session of a master key and a private key, reusing the current one
+     * if the keys have not changed
+     *
+     * @param masterKey  the master key
+     * @param privateKey the private key
+     * @return the {@link com.reddyetwo.hashmypass.app.hash.HasherSession} instance
+     */
+    private HasherSession getHasherSession(char[] masterKey, String privateKey) {
+        if (mHasherSession == null || !mHasherSession.matches(masterKey, privateKey)) {
+            if (mHasherSession != null) {
+                mHasherSession.wipe();
+            }
+            mHasherSession = new HasherSession(masterKey, privateKey);
+        }
+        return mHasherSession;
+    }
+
+    private void wipe() {
+        if (mHasherSession != null) {
+            mHasherSession.wipe();
+            mHasherSession = null;
+        }
+        if (mIdenticonMasterKey != null) {
+            Arrays.fill(mIdenticonMasterKey, ' ');
+            mIdenticonMasterKey = null;
+        }
+        mIdenticon = null;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private Object createFrameCallback() {
+        return new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                deliver();
+            }
+        };
+    }
+
+    /**
+     * Deliver the pending result in the next frame. It must be called from the main thread,
+     * whose {@link android.view.Choreographer} is used.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback() {
+        Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+    }
+
+    private void deliver() {
+        Result result;
+        synchronized (mLock) {
+            result = mPendingResult;
+            mPendingResult = null;
+            mDeliveryScheduled = false;
+            if (result == null || mQuit || result.mGeneration != mLatestGeneration) {
+                return;
+            }
+        }
+        mListener.onPasswordGenerated(result.mPassword, result.mIdenticon);
+    }
+
+    /**
+     * Interface which can be implemented to listen to password generated events
+     */
+    public interface OnPasswordGeneratedListener {
+
+        /**
+         * Method called in the main thread when the password and the identicon have been
+         * generated
+         *
+         * @param password  the password, which is empty if the tag or the master key are empty
+         * @param identicon the identicon {@link android.graphics.Bitmap}, or null if the master
+         *                  key is empty
+         */
+        void onPasswordGenerated(String password, Bitmap identicon);
+    }
+
+    /**
+     * Generation request
+     */
+    private static class Request {
+
+        private final long mGeneration;
+        private final long mProfileId;
+        private final String mTagName;
+        private final int mLength;
+        private final PasswordType mPasswordType;
+        private final char[] mMasterKey;
+
+        public Request(long generation, long profileId, String tagName, int length,
+                       PasswordType passwordType, char[] masterKey) {
+            mGeneration = generation;
+            mProfileId = profileId;
+            mTagName = tagName;
+            mLength = length;
+            mPasswordType = passwordType;
+            mMasterKey = masterKey;
+        }
+
+        public void wipe() {
+            Arrays.fill(mMasterKey, ' ');
+        }
+    }
+
+    /**
+     * Generation result
+     */
+    private static class Result {
+
+        private final long mGeneration;
+        private final String mPassword;
+        private final Bitmap mIdenticon;
+
+        public Result(long generation, String password, Bitmap identicon) {
+            mGeneration = generation;
+            mPassword = password;
+            mIdenticon = identicon;
+        }
+    }
+}
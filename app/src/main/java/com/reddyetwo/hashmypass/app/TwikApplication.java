@@ -21,8 +21,14 @@
 package com.reddyetwo.hashmypass.app;
 
 import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
 
+import com.reddyetwo.hashmypass.app.data.DataOpenHelper;
 import com.reddyetwo.hashmypass.app.data.Preferences;
+import com.reddyetwo.hashmypass.app.hash.IntermediateHashCache;
+import com.reddyetwo.hashmypass.app.util.IdenticonGenerator;
 import com.squareup.leakcanary.LeakCanary;
 
 import java.util.Arrays;
@@ -43,6 +49,23 @@ public class TwikApplication extends Application {
         super.onCreate();
         mInstance = this;
         LeakCanary.install(this);
+
+        // Create the database owner, which keeps the connection open for the process lifetime
+        DataOpenHelper.getInstance(this);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // Nothing is being read while the UI is hidden, so the WAL file can be checkpointed
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    DataOpenHelper.getInstance(TwikApplication.this).checkpointInBackground();
+                }
+            });
+        }
     }
 
     /**
@@ -91,6 +114,8 @@ public class TwikApplication extends Application {
             Arrays.fill(mCachedMasterKey, ' ');
             mCachedMasterKey = null;
         }
+        IntermediateHashCache.clear();
+        IdenticonGenerator.clearCache();
     }
 
     /**
@@ -103,4 +128,28 @@ public class TwikApplication extends Application {
             mCachedMasterKey = Arrays.copyOf(masterKey, masterKey.length);
         }
     }
+
+    /**
+     * Save the identicon of a submitted master key to cache if the master key is remembered
+     *
+     * @param masterKey the master key, which is wiped
+     * @param identicon the identicon {@link android.graphics.Bitmap} of the master key, or null
+     */
+    public void cacheIdenticon(char[] masterKey, Bitmap identicon) {
+        if (identicon != null && masterKey.length > 0 &&
+                Preferences.getRememberMasterKeyMins(this) > 0) {
+            IdenticonGenerator.cache(masterKey, identicon);
+        }
+        Arrays.fill(masterKey, ' ');
+    }
+
+    /**
+     * Remove the cached identicons if the master key is not remembered. It must be called when
+     * a screen where the master key is typed is paused.
+     */
+    public void clearIdenticonsIfNotRemembered() {
+        if (Preferences.getRememberMasterKeyMins(this) == 0) {
+            IdenticonGenerator.clearCache();
+        }
+    }
 }
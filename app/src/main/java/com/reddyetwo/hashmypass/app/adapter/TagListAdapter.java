@@ -27,10 +27,13 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import com.reddyetwo.hashmypass.app.R;
+import com.reddyetwo.hashmypass.app.data.PagedTagList;
 import com.reddyetwo.hashmypass.app.data.Tag;
 import com.reddyetwo.hashmypass.app.data.TagSettings;
 import com.reddyetwo.hashmypass.app.util.FaviconLoader;
 
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -60,7 +63,7 @@ public class TagListAdapter extends RecyclerView.Adapter<TagListViewHolder> {
     private long mProfileId;
 
     /**
-     * List of tags
+     * List of tags, sorted with {@link #mTagComparator}
      */
     private List<Tag> mTags;
 
@@ -69,6 +72,28 @@ public class TagListAdapter extends RecyclerView.Adapter<TagListViewHolder> {
      */
     private int mTagOrder;
 
+    /**
+     * Comparator matching the order of the tags
+     */
+    private Comparator<Tag> mTagComparator;
+
+    /**
+     * Listener which updates the items of a {@link com.reddyetwo.hashmypass.app.data.PagedTagList}
+     * when they are loaded
+     */
+    private final PagedTagList.OnTagsLoadedListener mTagsLoadedListener =
+            new PagedTagList.OnTagsLoadedListener() {
+                @Override
+                public void onTagsLoaded(int position, int count) {
+                    notifyItemRangeChanged(position, count);
+                }
+
+                @Override
+                public void onTagListRefreshed() {
+                    notifyDataSetChanged();
+                }
+            };
+
     /**
      * Constructor
      *
@@ -84,8 +109,10 @@ public class TagListAdapter extends RecyclerView.Adapter<TagListViewHolder> {
         mContext = context;
         mProfileId = profileId;
         mTagOrder = tagOrder;
+        mTagComparator = TagSettings.getTagComparator(tagOrder);
         mTagClickedListener = tagClickedListener;
         mTags = objects;
+        setTagsLoadedListener(mTagsLoadedListener);
     }
 
     /**
@@ -104,6 +131,7 @@ public class TagListAdapter extends RecyclerView.Adapter<TagListViewHolder> {
      */
     public void setTagOrder(int tagOrder) {
         mTagOrder = tagOrder;
+        mTagComparator = TagSettings.getTagComparator(tagOrder);
     }
 
     @Override
@@ -115,8 +143,17 @@ public class TagListAdapter extends RecyclerView.Adapter<TagListViewHolder> {
     }
 
     @Override
-    public void onBindViewHolder(TagListViewHolder tagListViewHolder, int i) {
+    public void onBindViewHolder(final TagListViewHolder tagListViewHolder, int i) {
         final Tag tag = mTags.get(i);
+        if (tag == null) {
+            // The tag is being loaded, and it will be bound again once loaded
+            FaviconLoader.setAsBackground(mContext, tagListViewHolder.getFaviconTextView(), null);
+            tagListViewHolder.getFaviconTextView().setText("");
+            tagListViewHolder.getTagNameTextView().setText("");
+            tagListViewHolder.itemView.setOnClickListener(null);
+            tagListViewHolder.itemView.setOnLongClickListener(null);
+            return;
+        }
 
         // Set tag favicon
         FaviconLoader.setAsBackground(mContext, tagListViewHolder.getFaviconTextView(), tag);
@@ -131,10 +168,11 @@ public class TagListAdapter extends RecyclerView.Adapter<TagListViewHolder> {
             public void onClick(View v) {
                 // Increase hash counter. Note that this may affect the order of the tags in the
                 // case that they are ordered by usage.
-                tag.setHashCounter(tag.getHashCounter() + 1);
-                TagSettings.updateTag(mContext, tag);
-                if (mTagOrder == TagSettings.ORDER_BY_HASH_COUNTER) {
-                    update(tag);
+                TagSettings.increaseHashCounterAsync(mContext, tag);
+                int position = tagListViewHolder.getAdapterPosition();
+                if (mTagOrder == TagSettings.ORDER_BY_HASH_COUNTER &&
+                        position != RecyclerView.NO_POSITION) {
+                    update(tag, position);
                 }
 
                 // Notify to the tag click listener
@@ -153,13 +191,22 @@ public class TagListAdapter extends RecyclerView.Adapter<TagListViewHolder> {
     }
 
     /**
-     * Add a tag to the list
+     * Add a tag to the list, at its position according to the sort criterion
      *
-     * @param tag      the tag
-     * @param position the position in the list
+     * @param tag the tag
      */
-    public void add(Tag tag, int position) {
-        mTags.add(position, tag);
+    public void add(Tag tag) {
+        int position;
+        if (mTags instanceof PagedTagList) {
+            // The list is refreshed in background if the position is not loaded
+            position = ((PagedTagList) mTags).insert(tag);
+            if (position < 0) {
+                return;
+            }
+        } else {
+            position = findPosition(tag, mTags.size());
+            mTags.add(position, tag);
+        }
         notifyItemInserted(position);
     }
 
@@ -170,6 +217,11 @@ public class TagListAdapter extends RecyclerView.Adapter<TagListViewHolder> {
      */
     public void remove(Tag tag) {
         int position = mTags.indexOf(tag);
+        if (position < 0 && mTags instanceof PagedTagList) {
+            // The tag is not loaded, so its position is not known
+            ((PagedTagList) mTags).refresh();
+            return;
+        }
         mTags.remove(position);
         notifyItemRemoved(position);
     }
@@ -180,33 +232,72 @@ public class TagListAdapter extends RecyclerView.Adapter<TagListViewHolder> {
      * @param tag the tag to add or modify
      */
     public void update(Tag tag) {
-        // It is necessary to compare the previous position in the list of the tag with the new
-        // position, updating the list if it has changed.
-        int oldPosition = 0;
-        int newPosition = TagSettings.getTagPosition(mContext, tag.getId(), mProfileId, mTagOrder,
-                TagSettings.LIMIT_UNBOUNDED);
-
-        while (oldPosition < mTags.size() && mTags.get(oldPosition).getId() != tag.getId()) {
-            oldPosition++;
-        }
-        if (oldPosition >= mTags.size()) {
+        int oldPosition = indexOf(tag.getId());
+        if (oldPosition >= 0) {
+            update(tag, oldPosition);
+        } else if (mTags instanceof PagedTagList) {
+            // The tag is not loaded, so its old position is not known
+            ((PagedTagList) mTags).refresh();
+        } else {
             // The tag is not in the list because it's new and its custom settings were saved during its creation.
-            mTags.add(newPosition, tag);
-            notifyItemInserted(newPosition);
+            add(tag);
         }
+    }
 
-        if (oldPosition != newPosition) {
-            // Animate the change of position of this tag.
-            // The tag is removed from its current position and added to the new one.
+    private int indexOf(long tagId) {
+        if (mTags instanceof PagedTagList) {
+            return ((PagedTagList) mTags).indexOfId(tagId);
+        }
+        for (int i = 0; i < mTags.size(); i++) {
+            if (mTags.get(i).getId() == tagId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Move a modified tag to its new position according to the sort criterion. The rest of the
+     * list is still sorted, so the position is found by binary search.
+     *
+     * @param tag         the modified tag
+     * @param oldPosition the position of the tag in the list
+     */
+    private void update(Tag tag, int oldPosition) {
+        int newPosition;
+        if (mTags instanceof PagedTagList) {
+            // Only the loaded tags are moved, without reading the database
+            newPosition = ((PagedTagList) mTags).move(oldPosition, tag);
+            if (newPosition < 0) {
+                return;
+            }
+        } else {
             mTags.remove(oldPosition);
+            newPosition = findPosition(tag, oldPosition);
             mTags.add(newPosition, tag);
-            notifyItemRemoved(oldPosition);
-            notifyItemInserted(newPosition);
-        } else {
-            // Update the tag because its name (and therefore its favicon) may have changed.
-            mTags.set(oldPosition, tag);
-            notifyItemChanged(oldPosition);
         }
+        if (oldPosition != newPosition) {
+            // Animate the change of position of this tag.
+            notifyItemMoved(oldPosition, newPosition);
+        }
+        // Update the tag because its name (and therefore its favicon) may have changed.
+        notifyItemChanged(newPosition);
+    }
+
+    /**
+     * Find the position where a tag must be inserted to keep the list sorted
+     *
+     * @param tag             the tag, which is not in the list
+     * @param defaultPosition the position returned if the sort criterion is not known
+     * @return the position
+     */
+    private int findPosition(Tag tag, int defaultPosition) {
+        if (mTagComparator == null) {
+            return Math.min(defaultPosition, mTags.size());
+        }
+        // Tags are never equal to each other because their IDs are compared last
+        int position = Collections.binarySearch(mTags, tag, mTagComparator);
+        return position < 0 ? -position - 1 : position;
     }
 
     /**
@@ -224,10 +315,18 @@ public class TagListAdapter extends RecyclerView.Adapter<TagListViewHolder> {
      * @param tags the list of tags
      */
     public void setTags(List<Tag> tags) {
+        setTagsLoadedListener(null);
         mTags = tags;
+        setTagsLoadedListener(mTagsLoadedListener);
         notifyDataSetChanged();
     }
 
+    private void setTagsLoadedListener(PagedTagList.OnTagsLoadedListener listener) {
+        if (mTags instanceof PagedTagList) {
+            ((PagedTagList) mTags).setOnTagsLoadedListener(listener);
+        }
+    }
+
     @Override
     public int getItemCount() {
         return mTags.size();
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.adapter;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.Filter;
+import android.widget.Filterable;
+import android.widget.TextView;
+
+import com.reddyetwo.hashmypass.app.util.TagNameIndex;
+
+/**
+ * Adapter for {@link android.widget.AutoCompleteTextView} which suggests the tag names starting
+ * with the typed text, from the most used. Suggestions are read from a
+ * {@link com.reddyetwo.hashmypass.app.util.TagNameIndex} without copying them.
+ */
+public class TagNameAdapter extends BaseAdapter implements Filterable {
+
+    private final Context mContext;
+    private final TagNameIndex mIndex;
+    private final TagNameFilter mFilter = new TagNameFilter();
+
+    /**
+     * Node of the index whose suggestions are shown
+     */
+    private int mNode = TagNameIndex.NO_NODE;
+
+    /**
+     * Constructor
+     *
+     * @param context the {@link android.content.Context} instance
+     * @param index   the index of the tag names
+     */
+    public TagNameAdapter(Context context, TagNameIndex index) {
+        mContext = context;
+        mIndex = index;
+    }
+
+    @Override
+    public int getCount() {
+        return mIndex.getSuggestionCount(mNode);
+    }
+
+    @Override
+    public String getItem(int position) {
+        return mIndex.getSuggestion(mNode, position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView nameTextView;
+        if (convertView == null) {
+            nameTextView = (TextView) LayoutInflater.from(mContext)
+                    .inflate(android.R.layout.simple_list_item_1, parent, false);
+        } else {
+            nameTextView = (TextView) convertView;
+        }
+        nameTextView.setText(getItem(position));
+        return nameTextView;
+    }
+
+    @Override
+    public Filter getFilter() {
+        return mFilter;
+    }
+
+    /**
+     * Filter which finds the node of the typed text in the index
+     */
+    private class TagNameFilter extends Filter {
+
+        @Override
+        protected FilterResults performFiltering(CharSequence constraint) {
+            // The suggestions are not copied, the results only hold the node
+            int node = mIndex.findNode(constraint);
+            FilterResults results = new FilterResults();
+            results.values = node;
+            results.count = mIndex.getSuggestionCount(node);
+            return results;
+        }
+
+        @Override
+        protected void publishResults(CharSequence constraint, FilterResults results) {
+            mNode = (Integer) results.values;
+            if (results.count > 0) {
+                notifyDataSetChanged();
+            } else {
+                notifyDataSetInvalidated();
+            }
+        }
+    }
+}
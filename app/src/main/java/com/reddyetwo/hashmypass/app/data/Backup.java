@@ -0,0 +1,530 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.reddyetwo.hashmypass.app.TwikApplication;
+import com.reddyetwo.hashmypass.app.hash.IntermediateHashCache;
+import com.reddyetwo.hashmypass.app.util.IdenticonGenerator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.Future;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Class to write and restore password-protected backups of the profiles, tags and favicons.
+ * <p/>
+ * A backup starts with a header which contains the parameters of the key derivation and the
+ * stream nonce, followed by the records, which are compressed and then encrypted in chunks by
+ * an {@link com.reddyetwo.hashmypass.app.data.EncryptedChunkOutputStream}. Rows are written
+ * while the cursors are walked and favicons are copied as they are read, and restores
+ * read the records in the same way, so memory use does not depend on the size of the backup.
+ */
+public class Backup {
+
+    private static final int MAGIC = 0x54574b42;
+    private static final int VERSION = 1;
+
+    private static final String KEY_DERIVATION_ALGORITHM = "PBKDF2WithHmacSHA1";
+    private static final String KEY_ALGORITHM = "AES";
+    private static final int KEY_ITERATIONS = 10000;
+    private static final int MAX_KEY_ITERATIONS = 1000000;
+    private static final int KEY_SIZE = 256;
+    private static final int SALT_SIZE = 16;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // Record types. Rows are written in this order, so that the profiles of the tags exist.
+    private static final int RECORD_END = 0;
+    private static final int RECORD_PROFILE = 1;
+    private static final int RECORD_TAG = 2;
+    private static final int RECORD_FAVICON = 3;
+
+    private static final String[] PROFILE_COLUMNS =
+            {DataOpenHelper.COLUMN_ID, DataOpenHelper.COLUMN_PROFILES_NAME,
+                    DataOpenHelper.COLUMN_PROFILES_PRIVATE_KEY,
+                    DataOpenHelper.COLUMN_PROFILES_PASSWORD_LENGTH,
+                    DataOpenHelper.COLUMN_PROFILES_PASSWORD_TYPE,
+                    DataOpenHelper.COLUMN_PROFILES_COLOR_INDEX};
+    private static final String[] TAG_COLUMNS =
+            {DataOpenHelper.COLUMN_ID, DataOpenHelper.COLUMN_TAGS_PROFILE_ID,
+                    DataOpenHelper.COLUMN_TAGS_NAME, DataOpenHelper.COLUMN_TAGS_SITE,
+                    DataOpenHelper.COLUMN_TAGS_HASH_COUNTER,
+                    DataOpenHelper.COLUMN_TAGS_PASSWORD_LENGTH,
+                    DataOpenHelper.COLUMN_TAGS_PASSWORD_TYPE};
+    private static final String[] FAVICON_COLUMNS =
+            {DataOpenHelper.COLUMN_ID, DataOpenHelper.COLUMN_FAVICONS_SITE,
+                    DataOpenHelper.COLUMN_FAVICONS_PACK_FILE,
+                    DataOpenHelper.COLUMN_FAVICONS_PACK_OFFSET,
+                    DataOpenHelper.COLUMN_FAVICONS_PACK_LENGTH};
+
+    private Backup() {
+
+    }
+
+    /**
+     * Write a backup of the profiles, tags and favicons. The output stream is closed.
+     *
+     * @param context  the {@link android.content.Context} instance
+     * @param output   the output stream
+     * @param password the password which protects the backup
+     * @throws java.io.IOException                    if the backup could not be written, or the
+     *                                                thread was interrupted
+     * @throws java.security.GeneralSecurityException if the encryption is not available
+     */
+    public static void writeBackup(Context context, OutputStream output, char[] password)
+            throws IOException, GeneralSecurityException {
+        // Stored hash counters must be up to date
+        HashCounterJournal.flush(context);
+
+        SecureRandom random = new SecureRandom();
+        byte[] salt = new byte[SALT_SIZE];
+        random.nextBytes(salt);
+        byte[] nonce = new byte[EncryptedChunkOutputStream.NONCE_SIZE];
+        random.nextBytes(nonce);
+
+        DataOutputStream records = null;
+        try {
+            SecretKey key = deriveKey(password, salt, KEY_ITERATIONS);
+            DataOutputStream header = new DataOutputStream(output);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeInt(KEY_ITERATIONS);
+            header.write(salt);
+            header.write(nonce);
+
+            // Small records are buffered before they are compressed
+            records = new DataOutputStream(new BufferedOutputStream(
+                    new DeflaterOutputStream(new EncryptedChunkOutputStream(output, key, nonce)),
+                    BUFFER_SIZE));
+            SQLiteDatabase db = DataOpenHelper.getInstance(context).getReadableDatabase();
+            writeProfiles(db, records);
+            writeTags(db, records);
+            writeFavicons(context, db, records);
+            records.writeByte(RECORD_END);
+        } finally {
+            // Writes the last chunk. Incomplete backups lack the end record, so they are not
+            // restored.
+            if (records != null) {
+                records.close();
+            } else {
+                output.close();
+            }
+        }
+    }
+
+    /**
+     * Restore a backup, replacing all the profiles, tags and favicons. The backup is restored
+     * in a single transaction, which is only committed once the whole backup has been
+     * authenticated, so nothing is changed if it fails. The input stream is closed.
+     *
+     * @param context  the {@link android.content.Context} instance
+     * @param input    the input stream
+     * @param password the password which protects the backup
+     * @throws java.io.IOException                    if the backup could not be read, is
+     *                                                corrupt or the password is wrong, or the
+     *                                                thread was interrupted
+     * @throws java.security.GeneralSecurityException if the encryption is not available
+     */
+    public static void restoreBackup(Context context, InputStream input, char[] password)
+            throws IOException, GeneralSecurityException {
+        try {
+            restoreRecords(context, input, password);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void restoreRecords(Context context, InputStream input, char[] password)
+            throws IOException, GeneralSecurityException {
+        DataInputStream header = new DataInputStream(input);
+        if (header.readInt() != MAGIC) {
+            throw new IOException("Not a backup");
+        }
+        int version = header.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported backup version " + version);
+        }
+        int iterations = header.readInt();
+        if (iterations <= 0 || iterations > MAX_KEY_ITERATIONS) {
+            throw new IOException("Invalid key iterations " + iterations);
+        }
+        byte[] salt = new byte[SALT_SIZE];
+        header.readFully(salt);
+        byte[] nonce = new byte[EncryptedChunkOutputStream.NONCE_SIZE];
+        header.readFully(nonce);
+        SecretKey key = deriveKey(password, salt, iterations);
+
+        // Pending increments refer to the replaced tags
+        HashCounterJournal.flush(context);
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getWritableDatabase();
+        EncryptedChunkInputStream chunks = new EncryptedChunkInputStream(input, key, nonce);
+        DataInputStream records = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(chunks), BUFFER_SIZE));
+        boolean restored = false;
+        db.beginTransactionNonExclusive();
+        try {
+            db.delete(DataOpenHelper.TAGS_TABLE_NAME, null, null);
+            db.delete(DataOpenHelper.PROFILES_TABLE_NAME, null, null);
+            db.delete(DataOpenHelper.FAVICONS_TABLE_NAME, null, null);
+
+            int recordType;
+            while ((recordType = records.readUnsignedByte()) != RECORD_END) {
+                checkInterrupted();
+                switch (recordType) {
+                    case RECORD_PROFILE:
+                        db.insertOrThrow(DataOpenHelper.PROFILES_TABLE_NAME, null,
+                                readProfile(records));
+                        break;
+                    case RECORD_TAG:
+                        db.insertOrThrow(DataOpenHelper.TAGS_TABLE_NAME, null, readTag(records));
+                        break;
+                    case RECORD_FAVICON:
+                        readFavicon(context, db, records);
+                        break;
+                    default:
+                        throw new IOException("Invalid backup record " + recordType);
+                }
+            }
+
+            // Authenticate the rest of the backup, including the last chunk
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (chunks.read(buffer) != -1) {
+                // Skip it
+            }
+            db.setTransactionSuccessful();
+            restored = true;
+        } finally {
+            db.endTransaction();
+            records.close();
+            // Cached profiles and tags have been replaced
+            TagRepository.clear();
+            if (restored) {
+                deleteFaviconFiles(context);
+                // Hashes and identicons of the replaced profiles must not outlive them
+                IntermediateHashCache.clear();
+                IdenticonGenerator.clearCache();
+            }
+            // The replaced favicons, or the restored ones if it failed, are unused
+            FaviconPack.compactIfNeeded(context);
+        }
+    }
+
+    /**
+     * Write a backup in the I/O thread, see
+     * {@link #writeBackup(android.content.Context, java.io.OutputStream, char[])}
+     *
+     * @param context  the {@link android.content.Context} instance
+     * @param output   the output stream
+     * @param password the password which protects the backup
+     * @param callback the callback which receives true if the backup has been written in the
+     *                 main thread, or null
+     * @return the {@link java.util.concurrent.Future} of the result
+     */
+    public static Future<Boolean> writeBackupAsync(Context context, final OutputStream output,
+                                                   final char[] password,
+                                                   DataCallback<Boolean> callback) {
+        return DataExecutor.submit(context, new DataExecutor.Method<Boolean>() {
+            @Override
+            public Boolean run(Context context) {
+                try {
+                    writeBackup(context, output, password);
+                    return true;
+                } catch (IOException | GeneralSecurityException e) {
+                    Log.e(TwikApplication.LOG_TAG, "Error writing backup: " + e);
+                    return false;
+                }
+            }
+        }, callback);
+    }
+
+    /**
+     * Restore a backup in the I/O thread, see
+     * {@link #restoreBackup(android.content.Context, java.io.InputStream, char[])}
+     *
+     * @param context  the {@link android.content.Context} instance
+     * @param input    the input stream
+     * @param password the password which protects the backup
+     * @param callback the callback which receives true if the backup has been restored in the
+     *                 main thread, or null
+     * @return the {@link java.util.concurrent.Future} of the result
+     */
+    public static Future<Boolean> restoreBackupAsync(Context context, final InputStream input,
+                                                     final char[] password,
+                                                     DataCallback<Boolean> callback) {
+        return DataExecutor.submit(context, new DataExecutor.Method<Boolean>() {
+            @Override
+            public Boolean run(Context context) {
+                try {
+                    restoreBackup(context, input, password);
+                    return true;
+                } catch (IOException | GeneralSecurityException e) {
+                    Log.e(TwikApplication.LOG_TAG, "Error restoring backup: " + e);
+                    return false;
+                }
+            }
+        }, callback);
+    }
+
+    private static SecretKey deriveKey(char[] password, byte[] salt, int iterations)
+            throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, KEY_SIZE);
+        try {
+            byte[] key = SecretKeyFactory.getInstance(KEY_DERIVATION_ALGORITHM).generateSecret(spec)
+                    .getEncoded();
+            return new SecretKeySpec(key, KEY_ALGORITHM);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static void writeProfiles(SQLiteDatabase db, DataOutputStream output)
+            throws IOException {
+        Cursor cursor = db.query(DataOpenHelper.PROFILES_TABLE_NAME, PROFILE_COLUMNS, null, null,
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                checkInterrupted();
+                output.writeByte(RECORD_PROFILE);
+                output.writeLong(cursor.getLong(0));
+                writeString(output, cursor, 1);
+                writeString(output, cursor, 2);
+                writeInteger(output, cursor, 3);
+                writeInteger(output, cursor, 4);
+                writeInteger(output, cursor, 5);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues readProfile(DataInputStream input) throws IOException {
+        ContentValues values = new ContentValues();
+        values.put(DataOpenHelper.COLUMN_ID, input.readLong());
+        values.put(DataOpenHelper.COLUMN_PROFILES_NAME, readString(input));
+        values.put(DataOpenHelper.COLUMN_PROFILES_PRIVATE_KEY, readString(input));
+        values.put(DataOpenHelper.COLUMN_PROFILES_PASSWORD_LENGTH, readInteger(input));
+        values.put(DataOpenHelper.COLUMN_PROFILES_PASSWORD_TYPE, readInteger(input));
+        values.put(DataOpenHelper.COLUMN_PROFILES_COLOR_INDEX, readInteger(input));
+        return values;
+    }
+
+    private static void writeTags(SQLiteDatabase db, DataOutputStream output) throws IOException {
+        Cursor cursor =
+                db.query(DataOpenHelper.TAGS_TABLE_NAME, TAG_COLUMNS, null, null, null, null,
+                        null);
+        try {
+            while (cursor.moveToNext()) {
+                checkInterrupted();
+                output.writeByte(RECORD_TAG);
+                output.writeLong(cursor.getLong(0));
+                output.writeLong(cursor.getLong(1));
+                writeString(output, cursor, 2);
+                writeString(output, cursor, 3);
+                writeInteger(output, cursor, 4);
+                writeInteger(output, cursor, 5);
+                writeInteger(output, cursor, 6);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues readTag(DataInputStream input) throws IOException {
+        ContentValues values = new ContentValues();
+        values.put(DataOpenHelper.COLUMN_ID, input.readLong());
+        values.put(DataOpenHelper.COLUMN_TAGS_PROFILE_ID, input.readLong());
+        values.put(DataOpenHelper.COLUMN_TAGS_NAME, readString(input));
+        values.put(DataOpenHelper.COLUMN_TAGS_SITE, readString(input));
+        values.put(DataOpenHelper.COLUMN_TAGS_HASH_COUNTER, readInteger(input));
+        values.put(DataOpenHelper.COLUMN_TAGS_PASSWORD_LENGTH, readInteger(input));
+        values.put(DataOpenHelper.COLUMN_TAGS_PASSWORD_TYPE, readInteger(input));
+        return values;
+    }
+
+    /**
+     * Write the favicons, copying each one into the backup in pieces which are preceded by
+     * their length and followed by an empty piece. Missing favicons are skipped.
+     */
+    private static void writeFavicons(Context context, SQLiteDatabase db, DataOutputStream output)
+            throws IOException {
+        Cursor cursor = db.query(DataOpenHelper.FAVICONS_TABLE_NAME, FAVICON_COLUMNS, null, null,
+                null, null, null);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            while (cursor.moveToNext()) {
+                checkInterrupted();
+                InputStream favicon = openFavicon(context, cursor);
+                if (favicon == null) {
+                    continue;
+                }
+                try {
+                    output.writeByte(RECORD_FAVICON);
+                    output.writeUTF(cursor.getString(1));
+                    int length;
+                    while ((length = favicon.read(buffer)) != -1) {
+                        if (length > 0) {
+                            output.writeInt(length);
+                            output.write(buffer, 0, length);
+                        }
+                    }
+                    output.writeInt(0);
+                } finally {
+                    favicon.close();
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Open a favicon from its packed file, or from its own file if it has not been packed yet
+     *
+     * @return the stream, or null if the favicon is missing
+     */
+    private static InputStream openFavicon(Context context, Cursor cursor) {
+        if (!cursor.isNull(4)) {
+            return FaviconPack.open(context, cursor.getLong(2), cursor.getLong(3),
+                    cursor.getInt(4));
+        }
+        try {
+            return context.openFileInput(FaviconSettings.getFileName(cursor.getLong(0)));
+        } catch (FileNotFoundException e) {
+            Log.d(TwikApplication.LOG_TAG, "Favicon file not found: " + e);
+            return null;
+        }
+    }
+
+    private static void readFavicon(Context context, SQLiteDatabase db, DataInputStream input)
+            throws IOException {
+        ContentValues values = new ContentValues();
+        values.put(DataOpenHelper.COLUMN_FAVICONS_SITE, input.readUTF());
+        FaviconPack.append(context, new FaviconInputStream(input), values);
+        db.insertOrThrow(DataOpenHelper.FAVICONS_TABLE_NAME, null, values);
+    }
+
+    /**
+     * Delete the files of the favicons which were not packed yet
+     *
+     * @param context the {@link android.content.Context} instance
+     */
+    private static void deleteFaviconFiles(Context context) {
+        for (String fileName : context.fileList()) {
+            if (FaviconSettings.getFaviconId(fileName) >= 0) {
+                context.deleteFile(fileName);
+            }
+        }
+    }
+
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Backup cancelled");
+        }
+    }
+
+    private static void writeString(DataOutputStream output, Cursor cursor, int column)
+            throws IOException {
+        boolean isNull = cursor.isNull(column);
+        output.writeBoolean(isNull);
+        if (!isNull) {
+            output.writeUTF(cursor.getString(column));
+        }
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        return input.readBoolean() ? null : input.readUTF();
+    }
+
+    private static void writeInteger(DataOutputStream output, Cursor cursor, int column)
+            throws IOException {
+        boolean isNull = cursor.isNull(column);
+        output.writeBoolean(isNull);
+        if (!isNull) {
+            output.writeInt(cursor.getInt(column));
+        }
+    }
+
+    private static Integer readInteger(DataInputStream input) throws IOException {
+        return input.readBoolean() ? null : input.readInt();
+    }
+
+    /**
+     * Input stream which reads the pieces of a favicon record
+     */
+    private static class FaviconInputStream extends InputStream {
+
+        private final DataInputStream mInput;
+        private int mPieceRemaining;
+        private boolean mEnded;
+
+        FaviconInputStream(DataInputStream input) {
+            mInput = input;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (mPieceRemaining == 0) {
+                if (mEnded) {
+                    return -1;
+                }
+                mPieceRemaining = mInput.readInt();
+                if (mPieceRemaining < 0) {
+                    throw new IOException("Invalid favicon length " + mPieceRemaining);
+                }
+                mEnded = mPieceRemaining == 0;
+            }
+            int count = Math.min(length, mPieceRemaining);
+            mInput.readFully(buffer, offset, count);
+            mPieceRemaining -= count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.data;
+
+/**
+ * Interface which can be implemented to receive the result of an asynchronous data access
+ * method
+ *
+ * @param <T> the type of the result
+ */
+public interface DataCallback<T> {
+
+    /**
+     * Method called in the main thread when the data access method has finished, unless its
+     * {@link java.util.concurrent.Future} has been cancelled
+     *
+     * @param result the result of the method
+     */
+    void onResult(T result);
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.data;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executor of the asynchronous data access methods, which runs them in a dedicated I/O thread
+ * and delivers their results in the main thread. Operations made of several data access
+ * methods can be submitted as a single {@link DataExecutor.Method}.
+ * <p/>
+ * A single thread runs the methods in the order in which they are submitted, so a read always
+ * sees the writes submitted before it, and results are delivered in the same order.
+ * Cancelling the returned {@link java.util.concurrent.Future} from the main thread guarantees
+ * that its callback is not called, even if the method has already finished. An exception
+ * thrown by a method is thrown again in the main thread, as the synchronous method would.
+ */
+public final class DataExecutor {
+
+    private static final String THREAD_NAME = "DataAccess";
+
+    private static final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private static final ExecutorService mExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, THREAD_NAME);
+                }
+            });
+
+    private DataExecutor() {
+
+    }
+
+    /**
+     * Run a data access method in the I/O thread
+     *
+     * @param context  the {@link android.content.Context} instance, whose application context
+     *                 is passed to the method
+     * @param method   the method
+     * @param callback the callback which receives the result in the main thread, or null
+     * @param <T>      the type of the result
+     * @return the {@link java.util.concurrent.Future} of the result
+     */
+    public static <T> Future<T> submit(Context context, final Method<T> method,
+                                       DataCallback<T> callback) {
+        final Context applicationContext = context.getApplicationContext();
+        DataFuture<T> future = new DataFuture<>(new Callable<T>() {
+            @Override
+            public T call() {
+                return method.run(applicationContext);
+            }
+        }, callback);
+        mExecutor.execute(future);
+        return future;
+    }
+
+    /**
+     * Data access method
+     *
+     * @param <T> the type of the result
+     */
+    public interface Method<T> {
+
+        /**
+         * Run the method in the I/O thread
+         *
+         * @param context the application context
+         * @return the result
+         */
+        T run(Context context);
+    }
+
+    private static class DataFuture<T> extends FutureTask<T> {
+
+        private final DataCallback<T> mCallback;
+        private volatile boolean mCancelled;
+
+        public DataFuture(Callable<T> callable, DataCallback<T> callback) {
+            super(callable);
+            mCallback = callback;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            // Also prevents the delivery of a result which has already been posted
+            mCancelled = true;
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        protected void done() {
+            if (!mCancelled) {
+                // Also posted without a callback, so that exceptions are not lost
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver();
+                    }
+                });
+            }
+        }
+
+        private void deliver() {
+            if (mCancelled) {
+                return;
+            }
+            T result;
+            try {
+                result = get();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+            if (mCallback != null) {
+                mCallback.onResult(result);
+            }
+        }
+    }
+}
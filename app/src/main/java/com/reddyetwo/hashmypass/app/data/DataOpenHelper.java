@@ -19,14 +19,27 @@
 
 package com.reddyetwo.hashmypass.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+
+import com.reddyetwo.hashmypass.app.R;
+import com.reddyetwo.hashmypass.app.util.ApiUtils;
 
 /**
  * Helper used to access database, as well as creating/upgrading it.
+ * <p/>
+ * There is a single instance per process, created by the application, which keeps the
+ * database connection open for the life of the process. Callers must not close the database.
+ * <p/>
+ * The database uses write-ahead logging, so reads are not blocked by writes and can run
+ * in parallel from several threads. The WAL checkpoint policy is configured with the
+ * {@code database_wal_autocheckpoint} and {@code database_checkpoint_in_background} resources.
  */
-class DataOpenHelper extends SQLiteOpenHelper {
+public class DataOpenHelper extends SQLiteOpenHelper {
 
     /**
      * Name of the ID column in the tables
@@ -53,6 +66,18 @@ class DataOpenHelper extends SQLiteOpenHelper {
     // Column names of the favicons table
     public static final String FAVICONS_TABLE_NAME = "favicons";
     public static final String COLUMN_FAVICONS_SITE = "site";
+    public static final String COLUMN_FAVICONS_PACK_FILE = "pack_file";
+    public static final String COLUMN_FAVICONS_PACK_OFFSET = "pack_offset";
+    public static final String COLUMN_FAVICONS_PACK_LENGTH = "pack_length";
+
+    // Full-text search table of the tags, whose document ID is the tag ID
+    public static final String TAGS_SEARCH_TABLE_NAME = "tags_search";
+    public static final String COLUMN_TAGS_SEARCH_DOCID = "docid";
+
+    // Single row table with the sequence number of the last hash counter journal record which
+    // has been written to the tags table
+    public static final String JOURNAL_TABLE_NAME = "hash_counter_journal";
+    public static final String COLUMN_JOURNAL_SEQUENCE = "sequence";
 
     /**
      * Database name
@@ -62,10 +87,14 @@ class DataOpenHelper extends SQLiteOpenHelper {
     /**
      * Database versions
      */
-    private static final int DATABASE_VERSION_CURRENT = 4;
+    private static final int DATABASE_VERSION_CURRENT = 8;
     private static final int DATABASE_VERSION_1 = 1;
     private static final int DATABASE_VERSION_2 = 2;
     private static final int DATABASE_VERSION_3 = 3;
+    private static final int DATABASE_VERSION_4 = 4;
+    private static final int DATABASE_VERSION_5 = 5;
+    private static final int DATABASE_VERSION_6 = 6;
+    private static final int DATABASE_VERSION_7 = 7;
 
     // Strings used in SQL queries
     private static final String SQL_CREATE_TABLE = "CREATE TABLE ";
@@ -80,6 +109,13 @@ class DataOpenHelper extends SQLiteOpenHelper {
     private static final String SQL_REFERENCES = " REFERENCES ";
     private static final String SQL_UNIQUE = "UNIQUE ";
     private static final String SQL_ADD_COLUMN = " ADD COLUMN ";
+    private static final String SQL_CREATE_INDEX = "CREATE INDEX ";
+    private static final String SQL_ON = " ON ";
+    private static final String SQL_DESC = " DESC";
+    private static final String SQL_COLLATE_NOCASE = " COLLATE NOCASE";
+    private static final String SQL_CREATE_TRIGGER = "CREATE TRIGGER ";
+    private static final String SQL_BEGIN = " BEGIN ";
+    private static final String SQL_END = "; END;";
 
     /**
      * SQL query for creating the profiles table
@@ -132,13 +168,169 @@ class DataOpenHelper extends SQLiteOpenHelper {
             SQL_ALTER_TABLE + PROFILES_TABLE_NAME + SQL_ADD_COLUMN +
             COLUMN_PROFILES_COLOR_INDEX + SQL_INTEGER + SQL_NOT_NULL + SQL_DEFAULT;
 
+    /**
+     * SQL queries for adding the location in the packed favicon file to the favicons table.
+     * Favicons stored in their own file, before the packed file was used, have no location.
+     */
+    private static final String FAVICONS_TABLE_ADD_PACK_FILE_COLUMN =
+            SQL_ALTER_TABLE + FAVICONS_TABLE_NAME + SQL_ADD_COLUMN + COLUMN_FAVICONS_PACK_FILE +
+                    SQL_INTEGER;
+    private static final String FAVICONS_TABLE_ADD_PACK_OFFSET_COLUMN =
+            SQL_ALTER_TABLE + FAVICONS_TABLE_NAME + SQL_ADD_COLUMN + COLUMN_FAVICONS_PACK_OFFSET +
+                    SQL_INTEGER;
+    private static final String FAVICONS_TABLE_ADD_PACK_LENGTH_COLUMN =
+            SQL_ALTER_TABLE + FAVICONS_TABLE_NAME + SQL_ADD_COLUMN + COLUMN_FAVICONS_PACK_LENGTH +
+                    SQL_INTEGER;
+
+    /**
+     * SQL query for creating the index which returns the tags of a profile sorted by usage.
+     * The row ID is implicitly the last column of the index, so it also resolves ties.
+     * <p/>
+     * The sort indexes only hold the keys, although the tag queries select every column, so
+     * each returned row is read from the table. A page of tags reads just a few rows, and
+     * covering indexes were not faster in twik-bench/baseline/jmh-tag-queries.txt, while they
+     * made hash counter updates twice as slow and the database a third larger.
+     */
+    private static final String TAGS_INDEX_HASH_COUNTER_CREATE =
+            SQL_CREATE_INDEX + "tags_profile_id_hash_counter" + SQL_ON + TAGS_TABLE_NAME + " (" +
+                    COLUMN_TAGS_PROFILE_ID + SQL_FIELD_SEPARATOR + COLUMN_TAGS_HASH_COUNTER +
+                    SQL_DESC + ");";
+
+    /**
+     * SQL query for creating the index which returns the tags of a profile sorted by name
+     */
+    private static final String TAGS_INDEX_NAME_CREATE =
+            SQL_CREATE_INDEX + "tags_profile_id_name" + SQL_ON + TAGS_TABLE_NAME + " (" +
+                    COLUMN_TAGS_PROFILE_ID + SQL_FIELD_SEPARATOR + COLUMN_TAGS_NAME +
+                    SQL_COLLATE_NOCASE + ");";
+
+    /**
+     * SQL query for creating the index which finds the tags of a site in any profile
+     */
+    private static final String TAGS_INDEX_SITE_CREATE =
+            SQL_CREATE_INDEX + "tags_site" + SQL_ON + TAGS_TABLE_NAME + " (" + COLUMN_TAGS_SITE +
+                    ");";
+
+    /**
+     * SQL query for creating the full-text search table of the tag names and sites. The
+     * content is stored in the table, because external content tables are not supported by
+     * the SQLite version of older devices.
+     */
+    private static final String TAGS_SEARCH_TABLE_CREATE =
+            "CREATE VIRTUAL TABLE " + TAGS_SEARCH_TABLE_NAME + " USING fts4(" +
+                    COLUMN_TAGS_NAME + SQL_FIELD_SEPARATOR + COLUMN_TAGS_SITE + ");";
+
+    /**
+     * SQL query for copying the existing tags to the full-text search table
+     */
+    private static final String TAGS_SEARCH_TABLE_POPULATE =
+            "INSERT INTO " + TAGS_SEARCH_TABLE_NAME + " (" + COLUMN_TAGS_SEARCH_DOCID +
+                    SQL_FIELD_SEPARATOR + COLUMN_TAGS_NAME + SQL_FIELD_SEPARATOR +
+                    COLUMN_TAGS_SITE + ") SELECT " + COLUMN_ID + SQL_FIELD_SEPARATOR +
+                    COLUMN_TAGS_NAME + SQL_FIELD_SEPARATOR + COLUMN_TAGS_SITE + " FROM " +
+                    TAGS_TABLE_NAME + ";";
+
+    /**
+     * SQL queries for creating the triggers which keep the full-text search table in sync
+     * with the tags table. Hash counter updates do not fire them.
+     */
+    private static final String TAGS_SEARCH_INSERT_TRIGGER_CREATE =
+            SQL_CREATE_TRIGGER + "tags_search_insert AFTER INSERT" + SQL_ON + TAGS_TABLE_NAME +
+                    SQL_BEGIN + "INSERT INTO " + TAGS_SEARCH_TABLE_NAME + " (" +
+                    COLUMN_TAGS_SEARCH_DOCID + SQL_FIELD_SEPARATOR + COLUMN_TAGS_NAME +
+                    SQL_FIELD_SEPARATOR + COLUMN_TAGS_SITE + ") VALUES (new." + COLUMN_ID +
+                    ", new." + COLUMN_TAGS_NAME + ", new." + COLUMN_TAGS_SITE + ")" + SQL_END;
+    private static final String TAGS_SEARCH_UPDATE_TRIGGER_CREATE =
+            SQL_CREATE_TRIGGER + "tags_search_update AFTER UPDATE OF " + COLUMN_TAGS_NAME +
+                    SQL_FIELD_SEPARATOR + COLUMN_TAGS_SITE + SQL_ON + TAGS_TABLE_NAME +
+                    SQL_BEGIN + "UPDATE " + TAGS_SEARCH_TABLE_NAME + " SET " +
+                    COLUMN_TAGS_NAME + " = new." + COLUMN_TAGS_NAME + SQL_FIELD_SEPARATOR +
+                    COLUMN_TAGS_SITE + " = new." + COLUMN_TAGS_SITE + " WHERE " +
+                    COLUMN_TAGS_SEARCH_DOCID + " = old." + COLUMN_ID + SQL_END;
+    private static final String TAGS_SEARCH_DELETE_TRIGGER_CREATE =
+            SQL_CREATE_TRIGGER + "tags_search_delete AFTER DELETE" + SQL_ON + TAGS_TABLE_NAME +
+                    SQL_BEGIN + "DELETE FROM " + TAGS_SEARCH_TABLE_NAME + " WHERE " +
+                    COLUMN_TAGS_SEARCH_DOCID + " = old." + COLUMN_ID + SQL_END;
+
+    /**
+     * SQL queries for creating the hash counter journal table and its only row
+     */
+    private static final String JOURNAL_TABLE_CREATE =
+            SQL_CREATE_TABLE + JOURNAL_TABLE_NAME + " (" + COLUMN_JOURNAL_SEQUENCE + SQL_INTEGER +
+                    SQL_NOT_NULL + SQL_DEFAULT + ");";
+    private static final String JOURNAL_TABLE_POPULATE =
+            "INSERT INTO " + JOURNAL_TABLE_NAME + " DEFAULT VALUES;";
+
+    // Strings used in SQL pragmas
+    private static final String SQL_PRAGMA_WAL_AUTOCHECKPOINT = "PRAGMA wal_autocheckpoint=";
+    private static final String SQL_PRAGMA_WAL_CHECKPOINT = "PRAGMA wal_checkpoint(PASSIVE)";
+
+    private static DataOpenHelper mInstance;
+
+    private final Context mContext;
+
     /**
      * Constructor
      *
      * @param context the {@link android.content.Context} instance
      */
-    public DataOpenHelper(Context context) {
+    private DataOpenHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION_CURRENT);
+        mContext = context;
+        if (ApiUtils.hasJellyBeanApi()) {
+            enableWriteAheadLogging();
+        }
+    }
+
+    /**
+     * Get the process-wide helper, creating it if needed
+     *
+     * @param context the {@link android.content.Context} instance. Only its application
+     *                context is kept.
+     * @return the {@link com.reddyetwo.hashmypass.app.data.DataOpenHelper} instance
+     */
+    public static synchronized DataOpenHelper getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new DataOpenHelper(context.getApplicationContext());
+        }
+        return mInstance;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void enableWriteAheadLogging() {
+        // Applied when the database is configured, before it is created or upgraded
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (!ApiUtils.hasJellyBeanApi()) {
+            db.enableWriteAheadLogging();
+        }
+        // Pragmas which return a row can not be run with execSQL
+        query(db, SQL_PRAGMA_WAL_AUTOCHECKPOINT +
+                mContext.getResources().getInteger(R.integer.database_wal_autocheckpoint));
+    }
+
+    /**
+     * Copy the pages in the WAL file back into the database if the application is configured
+     * to do it in background, without waiting for readers or writers. It can be called from
+     * any thread.
+     */
+    public void checkpointInBackground() {
+        if (mContext.getResources().getBoolean(R.bool.database_checkpoint_in_background)) {
+            query(getWritableDatabase(), SQL_PRAGMA_WAL_CHECKPOINT);
+        }
+    }
+
+    private static void query(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        cursor.moveToFirst();
+        cursor.close();
     }
 
     @Override
@@ -146,6 +338,10 @@ class DataOpenHelper extends SQLiteOpenHelper {
         db.execSQL(PROFILES_TABLE_CREATE);
         db.execSQL(TAGS_TABLE_CREATE);
         db.execSQL(FAVICONS_TABLE_CREATE);
+        addFaviconsPackColumns(db);
+        createTagsIndexes(db);
+        createTagsSearchTable(db);
+        createJournalTable(db);
     }
 
     @Override
@@ -159,5 +355,42 @@ class DataOpenHelper extends SQLiteOpenHelper {
         if (oldVersion <= DATABASE_VERSION_3) {
             db.execSQL(PROFILES_TABLE_ADD_COLOR_INDEX_COLUMN);
         }
+        if (oldVersion <= DATABASE_VERSION_4) {
+            createTagsIndexes(db);
+        }
+        if (oldVersion <= DATABASE_VERSION_5) {
+            createTagsSearchTable(db);
+            db.execSQL(TAGS_SEARCH_TABLE_POPULATE);
+        }
+        if (oldVersion <= DATABASE_VERSION_6) {
+            addFaviconsPackColumns(db);
+        }
+        if (oldVersion <= DATABASE_VERSION_7) {
+            createJournalTable(db);
+        }
+    }
+
+    private static void addFaviconsPackColumns(SQLiteDatabase db) {
+        db.execSQL(FAVICONS_TABLE_ADD_PACK_FILE_COLUMN);
+        db.execSQL(FAVICONS_TABLE_ADD_PACK_OFFSET_COLUMN);
+        db.execSQL(FAVICONS_TABLE_ADD_PACK_LENGTH_COLUMN);
+    }
+
+    private static void createTagsIndexes(SQLiteDatabase db) {
+        db.execSQL(TAGS_INDEX_HASH_COUNTER_CREATE);
+        db.execSQL(TAGS_INDEX_NAME_CREATE);
+        db.execSQL(TAGS_INDEX_SITE_CREATE);
+    }
+
+    private static void createTagsSearchTable(SQLiteDatabase db) {
+        db.execSQL(TAGS_SEARCH_TABLE_CREATE);
+        db.execSQL(TAGS_SEARCH_INSERT_TRIGGER_CREATE);
+        db.execSQL(TAGS_SEARCH_UPDATE_TRIGGER_CREATE);
+        db.execSQL(TAGS_SEARCH_DELETE_TRIGGER_CREATE);
+    }
+
+    private static void createJournalTable(SQLiteDatabase db) {
+        db.execSQL(JOURNAL_TABLE_CREATE);
+        db.execSQL(JOURNAL_TABLE_POPULATE);
     }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.data;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * Input stream which reads the chunks written by an
+ * {@link com.reddyetwo.hashmypass.app.data.EncryptedChunkOutputStream}. Each chunk is verified
+ * before its data is returned, and an {@link java.io.IOException} is thrown if a chunk fails
+ * authentication, which happens if the key is wrong or the stream has been modified, or if the
+ * stream ends before the last chunk.
+ */
+class EncryptedChunkInputStream extends InputStream {
+
+    private final DataInputStream mInput;
+    private final Cipher mCipher;
+    private final SecretKey mKey;
+    private final byte[] mNonce;
+    private final byte[] mEncryptedChunk =
+            new byte[EncryptedChunkOutputStream.CHUNK_SIZE + EncryptedChunkOutputStream.TAG_SIZE];
+    private final byte[] mChunk =
+            new byte[EncryptedChunkOutputStream.CHUNK_SIZE + EncryptedChunkOutputStream.TAG_SIZE];
+    private int mChunkLength;
+    private int mPosition;
+    private long mChunkIndex;
+    private boolean mLastChunkRead;
+
+    /**
+     * Constructor
+     *
+     * @param input the input stream of the encrypted chunks
+     * @param key   the AES key
+     * @param nonce the nonce of the stream
+     * @throws java.security.GeneralSecurityException if AES-GCM is not available
+     */
+    EncryptedChunkInputStream(InputStream input, SecretKey key, byte[] nonce)
+            throws GeneralSecurityException {
+        mInput = new DataInputStream(input);
+        mCipher = Cipher.getInstance(EncryptedChunkOutputStream.CIPHER_ALGORITHM);
+        mKey = key;
+        mNonce = nonce;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillChunk()) {
+            return -1;
+        }
+        return mChunk[mPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fillChunk()) {
+            return -1;
+        }
+        int count = Math.min(length, mChunkLength - mPosition);
+        System.arraycopy(mChunk, mPosition, buffer, offset, count);
+        mPosition += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return mChunkLength - mPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInput.close();
+    }
+
+    /**
+     * Read chunks until there is data to return
+     *
+     * @return false if the last chunk has been completely read
+     */
+    private boolean fillChunk() throws IOException {
+        while (mPosition == mChunkLength) {
+            if (mLastChunkRead) {
+                return false;
+            }
+            readChunk();
+        }
+        return true;
+    }
+
+    private void readChunk() throws IOException {
+        int flag = mInput.read();
+        if (flag < 0) {
+            throw new EOFException("Encrypted stream ends before its last chunk");
+        }
+        int length = mInput.readInt();
+        if (length < EncryptedChunkOutputStream.TAG_SIZE || length > mEncryptedChunk.length) {
+            throw new IOException("Invalid length of chunk " + mChunkIndex + ": " + length);
+        }
+        mInput.readFully(mEncryptedChunk, 0, length);
+
+        boolean last = flag == EncryptedChunkOutputStream.CHUNK_LAST;
+        try {
+            mCipher.init(Cipher.DECRYPT_MODE, mKey, EncryptedChunkOutputStream.getParameterSpec(
+                    EncryptedChunkOutputStream.getChunkNonce(mNonce, mChunkIndex, last)));
+            mChunkLength = mCipher.doFinal(mEncryptedChunk, 0, length, mChunk);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Authentication failed for chunk " + mChunkIndex, e);
+        }
+        mPosition = 0;
+        mChunkIndex++;
+        mLastChunkRead = last;
+    }
+}
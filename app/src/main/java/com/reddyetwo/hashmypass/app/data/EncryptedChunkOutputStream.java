@@ -0,0 +1,187 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.data;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+
+import com.reddyetwo.hashmypass.app.util.ApiUtils;
+
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * Output stream which encrypts and authenticates the data in chunks with AES-GCM, so that
+ * streams of any size are written in bounded memory and can be verified chunk by chunk by an
+ * {@link com.reddyetwo.hashmypass.app.data.EncryptedChunkInputStream}.
+ * <p/>
+ * Each chunk is written as a flag which marks the last chunk, the length of the encrypted
+ * chunk and the encrypted chunk. The nonce of a chunk is derived from the stream nonce, the
+ * chunk index and the flag, so reordered, truncated or extended streams fail authentication.
+ * The last chunk, which may be empty, is written when the stream is closed. The key must not
+ * be used for other streams.
+ */
+class EncryptedChunkOutputStream extends FilterOutputStream {
+
+    static final String CIPHER_ALGORITHM = "AES/GCM/NoPadding";
+    static final int CHUNK_SIZE = 64 * 1024;
+    static final int TAG_SIZE = 16;
+    static final int NONCE_SIZE = 12;
+    static final int CHUNK_MORE = 0;
+    static final int CHUNK_LAST = 1;
+
+    private static final int INDEX_BYTES = 8;
+    private static final int BITS_PER_BYTE = 8;
+
+    private final DataOutputStream mOutput;
+    private final Cipher mCipher;
+    private final SecretKey mKey;
+    private final byte[] mNonce;
+    private final byte[] mChunk = new byte[CHUNK_SIZE];
+    private final byte[] mEncryptedChunk = new byte[CHUNK_SIZE + TAG_SIZE];
+    private int mChunkLength;
+    private long mChunkIndex;
+    private boolean mClosed;
+
+    /**
+     * Constructor
+     *
+     * @param output the output stream of the encrypted chunks
+     * @param key    the AES key
+     * @param nonce  the random nonce of the stream, of {@link #NONCE_SIZE} bytes
+     * @throws java.security.GeneralSecurityException if AES-GCM is not available
+     */
+    EncryptedChunkOutputStream(OutputStream output, SecretKey key, byte[] nonce)
+            throws GeneralSecurityException {
+        super(output);
+        mOutput = new DataOutputStream(output);
+        mCipher = Cipher.getInstance(CIPHER_ALGORITHM);
+        mKey = key;
+        mNonce = nonce;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (mChunkLength == CHUNK_SIZE) {
+            writeChunk(false);
+        }
+        mChunk[mChunkLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (mChunkLength == CHUNK_SIZE) {
+                writeChunk(false);
+            }
+            int count = Math.min(length, CHUNK_SIZE - mChunkLength);
+            System.arraycopy(buffer, offset, mChunk, mChunkLength, count);
+            mChunkLength += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Flush the written chunks. Data which does not fill a chunk is kept until the chunk is
+     * full or the stream is closed.
+     */
+    @Override
+    public void flush() throws IOException {
+        mOutput.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            writeChunk(true);
+        } finally {
+            mOutput.close();
+        }
+    }
+
+    private void writeChunk(boolean last) throws IOException {
+        int length;
+        try {
+            mCipher.init(Cipher.ENCRYPT_MODE, mKey,
+                    getParameterSpec(getChunkNonce(mNonce, mChunkIndex, last)));
+            length = mCipher.doFinal(mChunk, 0, mChunkLength, mEncryptedChunk);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Error encrypting chunk " + mChunkIndex, e);
+        }
+        mOutput.writeByte(last ? CHUNK_LAST : CHUNK_MORE);
+        mOutput.writeInt(length);
+        mOutput.write(mEncryptedChunk, 0, length);
+        mChunkIndex++;
+        mChunkLength = 0;
+    }
+
+    /**
+     * Derive the nonce of a chunk, which is the stream nonce with the chunk index in its last
+     * bytes and the last chunk flag in its first byte
+     *
+     * @param nonce the stream nonce
+     * @param index the chunk index
+     * @param last  true if it is the last chunk
+     * @return the nonce of the chunk
+     */
+    static byte[] getChunkNonce(byte[] nonce, long index, boolean last) {
+        byte[] chunkNonce = nonce.clone();
+        for (int i = 0; i < INDEX_BYTES; i++) {
+            chunkNonce[NONCE_SIZE - 1 - i] ^= (byte) (index >>> (i * BITS_PER_BYTE));
+        }
+        if (last) {
+            chunkNonce[0] ^= CHUNK_LAST;
+        }
+        return chunkNonce;
+    }
+
+    /**
+     * Get the GCM parameters of a chunk. Older versions only accept the nonce, with a tag of
+     * {@link #TAG_SIZE} bytes.
+     *
+     * @param chunkNonce the nonce of the chunk
+     * @return the parameters
+     */
+    static AlgorithmParameterSpec getParameterSpec(byte[] chunkNonce) {
+        if (ApiUtils.hasKitKatApi()) {
+            return getGcmParameterSpec(chunkNonce);
+        }
+        return new IvParameterSpec(chunkNonce);
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static AlgorithmParameterSpec getGcmParameterSpec(byte[] chunkNonce) {
+        return new GCMParameterSpec(TAG_SIZE * BITS_PER_BYTE, chunkNonce);
+    }
+}
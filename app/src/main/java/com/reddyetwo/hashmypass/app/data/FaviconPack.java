@@ -0,0 +1,414 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import com.reddyetwo.hashmypass.app.TwikApplication;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+/**
+ * Packed file of favicon PNGs, used by
+ * {@link com.reddyetwo.hashmypass.app.data.FaviconSettings}.
+ * <p/>
+ * Favicons are appended to a single file, and their location in it is stored in the favicons
+ * table. The file is kept open and read through a memory mapping, which is extended when
+ * favicons are appended, so reading a favicon does not open any file. Deleted favicons leave
+ * unused bytes, which are reclaimed by compacting the live favicons into a new file of the next
+ * generation. The locations are switched to the new file in a single transaction, so the
+ * favicons table always refers to a complete file. Compaction also moves the favicons stored
+ * in their own file, before the packed file was used, into the packed file.
+ * <p/>
+ * Appended favicons are not synced, so favicons whose location refers to another generation
+ * or to the end of the file are treated as missing, and deleted by the next compaction.
+ */
+final class FaviconPack {
+
+    private static final String FILE_NAME = "favicons-%d.pack";
+    private static final String FILE_NAME_PREFIX = "favicons-";
+    private static final String FILE_NAME_SUFFIX = ".pack";
+    private static final String FILE_MODE = "rw";
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Compaction runs when the unused bytes exceed both this size and the size of the live
+     * favicons
+     */
+    private static final long MIN_COMPACTION_UNUSED_BYTES = 64 * 1024;
+
+    private static final String SQL_GET_GENERATION =
+            "SELECT MAX(" + DataOpenHelper.COLUMN_FAVICONS_PACK_FILE + ") FROM " +
+                    DataOpenHelper.FAVICONS_TABLE_NAME;
+    private static final String SQL_GET_USAGE = "SELECT SUM(CASE WHEN " +
+            DataOpenHelper.COLUMN_FAVICONS_PACK_FILE + " = ? THEN " +
+            DataOpenHelper.COLUMN_FAVICONS_PACK_LENGTH + " ELSE 0 END), SUM(" +
+            DataOpenHelper.COLUMN_FAVICONS_PACK_LENGTH + " IS NULL) FROM " +
+            DataOpenHelper.FAVICONS_TABLE_NAME;
+    private static final String SQL_UPDATE_LOCATION =
+            "UPDATE " + DataOpenHelper.FAVICONS_TABLE_NAME + " SET " +
+                    DataOpenHelper.COLUMN_FAVICONS_PACK_FILE + " = ?, " +
+                    DataOpenHelper.COLUMN_FAVICONS_PACK_OFFSET + " = ?, " +
+                    DataOpenHelper.COLUMN_FAVICONS_PACK_LENGTH + " = ? WHERE " +
+                    DataOpenHelper.COLUMN_ID + " = ?";
+    private static final String[] LOCATION_COLUMNS =
+            {DataOpenHelper.COLUMN_ID, DataOpenHelper.COLUMN_FAVICONS_PACK_FILE,
+                    DataOpenHelper.COLUMN_FAVICONS_PACK_OFFSET,
+                    DataOpenHelper.COLUMN_FAVICONS_PACK_LENGTH};
+
+    private static final Object mLock = new Object();
+
+    // Guarded by mLock
+    private static long mGeneration = -1;
+    private static RandomAccessFile mFile;
+    private static MappedByteBuffer mBuffer;
+    private static byte[] mCopyBuffer = new byte[BUFFER_SIZE];
+
+    private FaviconPack() {
+
+    }
+
+    /**
+     * Append a favicon to the packed file and put its location in the values of its row
+     *
+     * @param context the {@link android.content.Context} instance
+     * @param data    the array which contains the PNG
+     * @param length  the length of the PNG
+     * @param values  the values of the favicon row
+     * @throws java.io.IOException if the favicon could not be written
+     */
+    static void append(Context context, byte[] data, int length, ContentValues values)
+            throws IOException {
+        synchronized (mLock) {
+            open(context);
+            long offset = mFile.length();
+            mFile.seek(offset);
+            mFile.write(data, 0, length);
+            putLocation(values, offset, length);
+        }
+    }
+
+    /**
+     * Append a favicon read from a stream to the packed file and put its location in the
+     * values of its row
+     *
+     * @param context the {@link android.content.Context} instance
+     * @param input   the input stream, which is read until its end
+     * @param values  the values of the favicon row
+     * @throws java.io.IOException if the favicon could not be read or written
+     */
+    static void append(Context context, InputStream input, ContentValues values)
+            throws IOException {
+        synchronized (mLock) {
+            open(context);
+            long offset = mFile.length();
+            mFile.seek(offset);
+            int count;
+            while ((count = input.read(mCopyBuffer)) != -1) {
+                mFile.write(mCopyBuffer, 0, count);
+            }
+            putLocation(values, offset, (int) (mFile.length() - offset));
+        }
+    }
+
+    /**
+     * Decode a favicon of the packed file
+     *
+     * @param context    the {@link android.content.Context} instance
+     * @param generation the generation of the file which contains the favicon
+     * @param offset     the offset of the favicon
+     * @param length     the length of the favicon
+     * @return the favicon, or null if it could not be read
+     */
+    static Bitmap decode(Context context, long generation, long offset, int length) {
+        synchronized (mLock) {
+            ByteBuffer buffer = getBuffer(context, generation, offset, length);
+            if (buffer == null) {
+                return null;
+            }
+            // Small favicons are decoded from a reused array instead of a stream
+            if (mCopyBuffer.length < length) {
+                mCopyBuffer = new byte[length];
+            }
+            buffer.get(mCopyBuffer, 0, length);
+            return BitmapFactory.decodeByteArray(mCopyBuffer, 0, length);
+        }
+    }
+
+    /**
+     * Open a stream which reads a favicon of the packed file. The stream reads the memory
+     * mapping, which stays valid after the file is compacted.
+     *
+     * @param context    the {@link android.content.Context} instance
+     * @param generation the generation of the file which contains the favicon
+     * @param offset     the offset of the favicon
+     * @param length     the length of the favicon
+     * @return the stream, or null if the favicon could not be read
+     */
+    static InputStream open(Context context, long generation, long offset, int length) {
+        synchronized (mLock) {
+            ByteBuffer buffer = getBuffer(context, generation, offset, length);
+            return buffer == null ? null : new BufferInputStream(buffer);
+        }
+    }
+
+    /**
+     * Compact the packed file if there are too many unused bytes or favicons stored in their
+     * own file
+     *
+     * @param context the {@link android.content.Context} instance
+     */
+    static void compactIfNeeded(Context context) {
+        synchronized (mLock) {
+            try {
+                open(context);
+                SQLiteDatabase db = DataOpenHelper.getInstance(context).getReadableDatabase();
+                Cursor cursor =
+                        db.rawQuery(SQL_GET_USAGE, new String[]{Long.toString(mGeneration)});
+                long liveBytes = 0;
+                int unpackedCount = 0;
+                if (cursor.moveToFirst()) {
+                    liveBytes = cursor.getLong(0);
+                    unpackedCount = cursor.getInt(1);
+                }
+                cursor.close();
+
+                long unusedBytes = mFile.length() - liveBytes;
+                if (unpackedCount > 0 ||
+                        unusedBytes > Math.max(MIN_COMPACTION_UNUSED_BYTES, liveBytes)) {
+                    compact(context);
+                }
+            } catch (IOException e) {
+                Log.e(TwikApplication.LOG_TAG, "Error compacting favicons: " + e);
+            }
+        }
+    }
+
+    /**
+     * Copy the live favicons to the file of the next generation, and switch to it
+     */
+    private static void compact(Context context) throws IOException {
+        long generation = mGeneration + 1;
+        File file = context.getFileStreamPath(getFileName(generation));
+        RandomAccessFile packFile = new RandomAccessFile(file, FILE_MODE);
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getWritableDatabase();
+        SQLiteStatement updateStatement = db.compileStatement(SQL_UPDATE_LOCATION);
+        boolean compacted = false;
+        db.beginTransactionNonExclusive();
+        try {
+            // A previous compaction may have been interrupted
+            packFile.setLength(0);
+            Cursor cursor = db.query(DataOpenHelper.FAVICONS_TABLE_NAME, LOCATION_COLUMNS, null,
+                    null, null, null, DataOpenHelper.COLUMN_ID);
+            try {
+                while (cursor.moveToNext()) {
+                    long id = cursor.getLong(0);
+                    InputStream input;
+                    if (cursor.isNull(3)) {
+                        input = openUnpacked(context, id);
+                    } else {
+                        ByteBuffer buffer = getBuffer(context, cursor.getLong(1),
+                                cursor.getLong(2), cursor.getInt(3));
+                        input = buffer == null ? null : new BufferInputStream(buffer);
+                    }
+                    if (input == null) {
+                        continue;
+                    }
+
+                    long offset = packFile.length();
+                    try {
+                        int count;
+                        while ((count = input.read(mCopyBuffer)) != -1) {
+                            packFile.write(mCopyBuffer, 0, count);
+                        }
+                    } finally {
+                        input.close();
+                    }
+                    updateStatement.bindLong(1, generation);
+                    updateStatement.bindLong(2, offset);
+                    updateStatement.bindLong(3, packFile.length() - offset);
+                    updateStatement.bindLong(4, id);
+                    updateStatement.executeUpdateDelete();
+                }
+            } finally {
+                cursor.close();
+            }
+            // Missing favicons are deleted once the cursor is closed
+            db.delete(DataOpenHelper.FAVICONS_TABLE_NAME,
+                    DataOpenHelper.COLUMN_FAVICONS_PACK_FILE + " IS NOT " + generation, null);
+            // The file must be complete before the table refers to it
+            packFile.getFD().sync();
+            db.setTransactionSuccessful();
+            compacted = true;
+        } finally {
+            db.endTransaction();
+            updateStatement.close();
+            if (!compacted) {
+                packFile.close();
+                context.deleteFile(getFileName(generation));
+            }
+        }
+
+        mFile.close();
+        mFile = packFile;
+        mGeneration = generation;
+        mBuffer = null;
+        // Delete the previous files and the favicons stored in their own file
+        for (String fileName : context.fileList()) {
+            long fileGeneration = getGeneration(fileName);
+            if ((fileGeneration >= 0 && fileGeneration != generation) ||
+                    FaviconSettings.getFaviconId(fileName) >= 0) {
+                context.deleteFile(fileName);
+            }
+        }
+    }
+
+    /**
+     * Open the file of the current generation, which is the last one in the favicons table
+     */
+    private static void open(Context context) throws FileNotFoundException {
+        if (mFile != null) {
+            return;
+        }
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getReadableDatabase();
+        Cursor cursor = db.rawQuery(SQL_GET_GENERATION, null);
+        mGeneration = cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        cursor.close();
+        mFile = new RandomAccessFile(context.getFileStreamPath(getFileName(mGeneration)),
+                FILE_MODE);
+    }
+
+    /**
+     * Get a buffer positioned at a favicon of the packed file, mapping the file again if the
+     * favicon has been appended after the mapping
+     *
+     * @return the buffer, limited to the favicon, or null if the favicon is not in the file
+     */
+    private static ByteBuffer getBuffer(Context context, long generation, long offset,
+                                        int length) {
+        try {
+            open(context);
+            if (generation != mGeneration || offset < 0 || length < 0) {
+                return null;
+            }
+            if (mBuffer == null || offset + length > mBuffer.capacity()) {
+                FileChannel channel = mFile.getChannel();
+                mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        } catch (IOException e) {
+            Log.e(TwikApplication.LOG_TAG, "Error mapping favicons: " + e);
+            return null;
+        }
+        if (offset + length > mBuffer.capacity()) {
+            return null;
+        }
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position((int) offset);
+        buffer.limit((int) offset + length);
+        return buffer;
+    }
+
+    private static InputStream openUnpacked(Context context, long id) {
+        try {
+            return context.openFileInput(FaviconSettings.getFileName(id));
+        } catch (FileNotFoundException e) {
+            Log.d(TwikApplication.LOG_TAG, "Favicon file not found: " + e);
+            return null;
+        }
+    }
+
+    private static void putLocation(ContentValues values, long offset, int length) {
+        values.put(DataOpenHelper.COLUMN_FAVICONS_PACK_FILE, mGeneration);
+        values.put(DataOpenHelper.COLUMN_FAVICONS_PACK_OFFSET, offset);
+        values.put(DataOpenHelper.COLUMN_FAVICONS_PACK_LENGTH, length);
+    }
+
+    private static String getFileName(long generation) {
+        return String.format(Locale.US, FILE_NAME, generation);
+    }
+
+    /**
+     * Get the generation of a packed file
+     *
+     * @param fileName the file name
+     * @return the generation, or -1 if it is not a packed file
+     */
+    private static long getGeneration(String fileName) {
+        if (!fileName.startsWith(FILE_NAME_PREFIX) || !fileName.endsWith(FILE_NAME_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(fileName.substring(FILE_NAME_PREFIX.length(),
+                    fileName.length() - FILE_NAME_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Input stream which reads the remaining bytes of a buffer
+     */
+    private static class BufferInputStream extends InputStream {
+
+        private final ByteBuffer mBuffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, mBuffer.remaining());
+            mBuffer.get(buffer, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+    }
+}
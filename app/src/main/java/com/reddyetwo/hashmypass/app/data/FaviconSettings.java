@@ -29,17 +29,25 @@ import android.util.Log;
 
 import com.reddyetwo.hashmypass.app.TwikApplication;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Future;
 
 /**
- * Class to get/add/delete/update {@link com.reddyetwo.hashmypass.app.data.Favicon} from storage
+ * Class to get/add/delete/update {@link com.reddyetwo.hashmypass.app.data.Favicon} from storage.
+ * Favicons are stored as PNGs in a {@link com.reddyetwo.hashmypass.app.data.FaviconPack}.
  */
 public class FaviconSettings {
 
     private static final String FILE_NAME = "favicon-%d.png";
+    private static final String FILE_NAME_PREFIX = "favicon-";
+    private static final String FILE_NAME_SUFFIX = ".png";
     private static final int FAVICON_QUALITY = 100;
+    private static final String[] LOCATION_COLUMNS =
+            {DataOpenHelper.COLUMN_ID, DataOpenHelper.COLUMN_FAVICONS_PACK_FILE,
+                    DataOpenHelper.COLUMN_FAVICONS_PACK_OFFSET,
+                    DataOpenHelper.COLUMN_FAVICONS_PACK_LENGTH};
 
     private FaviconSettings() {
 
@@ -53,29 +61,38 @@ public class FaviconSettings {
      * @return the {@link com.reddyetwo.hashmypass.app.data.Favicon} instance
      */
     public static Favicon getFavicon(Context context, String site) {
-        DataOpenHelper helper = new DataOpenHelper(context);
-        SQLiteDatabase db = helper.getReadableDatabase();
-        Cursor cursor =
-                db.query(DataOpenHelper.FAVICONS_TABLE_NAME, new String[]{DataOpenHelper.COLUMN_ID},
-                        DataOpenHelper.COLUMN_FAVICONS_SITE + "= ?", new String[]{site}, null, null,
-                        null);
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getReadableDatabase();
+        Cursor cursor = db.query(DataOpenHelper.FAVICONS_TABLE_NAME, LOCATION_COLUMNS,
+                DataOpenHelper.COLUMN_FAVICONS_SITE + "= ?", new String[]{site}, null, null, null);
 
         Favicon favicon = null;
         if (cursor.moveToFirst()) {
             long id = cursor.getLong(cursor.getColumnIndex(DataOpenHelper.COLUMN_ID));
-            try {
-                String filename = String.format(FILE_NAME, id);
-                FileInputStream fis = context.openFileInput(filename);
-                Bitmap icon = BitmapFactory.decodeStream(fis);
+            int lengthIndex = cursor.getColumnIndex(DataOpenHelper.COLUMN_FAVICONS_PACK_LENGTH);
+            Bitmap icon = null;
+            if (cursor.isNull(lengthIndex)) {
+                // Stored in its own file until the packed file is compacted
+                try {
+                    FileInputStream fis = context.openFileInput(getFileName(id));
+                    icon = BitmapFactory.decodeStream(fis);
+                    fis.close();
+                } catch (IOException e) {
+                    // Favicon not found in storage
+                    Log.d(TwikApplication.LOG_TAG, "Favicon file not found: " + e);
+                }
+            } else {
+                icon = FaviconPack.decode(context, cursor.getLong(
+                                cursor.getColumnIndex(DataOpenHelper.COLUMN_FAVICONS_PACK_FILE)),
+                        cursor.getLong(cursor.getColumnIndex(
+                                DataOpenHelper.COLUMN_FAVICONS_PACK_OFFSET)),
+                        cursor.getInt(lengthIndex));
+            }
+            if (icon != null) {
                 favicon = new Favicon(id, site, icon);
-            } catch (FileNotFoundException e) {
-                // Favicon not found in storage
-                Log.d(TwikApplication.LOG_TAG, "Favicon file not found: " + e);
             }
         }
 
         cursor.close();
-        db.close();
         return favicon;
     }
 
@@ -87,31 +104,23 @@ public class FaviconSettings {
      * @return the ID of the inserted favicon, or -1 if an error occurred
      */
     public static long insertFavicon(Context context, Favicon favicon) {
-        DataOpenHelper helper = new DataOpenHelper(context);
-        SQLiteDatabase db = helper.getWritableDatabase();
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        if (!favicon.getIcon().compress(Bitmap.CompressFormat.PNG, FAVICON_QUALITY, png)) {
+            return -1;
+        }
+
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getWritableDatabase();
         long id = -1;
         ContentValues values = new ContentValues();
         values.put(DataOpenHelper.COLUMN_FAVICONS_SITE, favicon.getSite());
         try {
-            db.beginTransaction();
+            FaviconPack.append(context, png.toByteArray(), png.size(), values);
             id = db.insertOrThrow(DataOpenHelper.FAVICONS_TABLE_NAME, null, values);
-            String filename = String.format(FILE_NAME, id);
-            FileOutputStream fos = context.openFileOutput(filename, Context.MODE_PRIVATE);
-            boolean stored =
-                    favicon.getIcon().compress(Bitmap.CompressFormat.PNG, FAVICON_QUALITY, fos);
-            fos.close();
-            if (stored) {
-                db.setTransactionSuccessful();
-            } else {
-                id = -1;
-            }
         } catch (Exception e) {
             Log.d(TwikApplication.LOG_TAG, "Error saving favicon: " + e);
-        } finally {
-            db.endTransaction();
-            db.close();
         }
 
+        FaviconPack.compactIfNeeded(context);
         return id;
     }
 
@@ -123,26 +132,98 @@ public class FaviconSettings {
      * @return true in case of success, false if an error occurred
      */
     public static boolean deleteFavicon(Context context, Favicon favicon) {
-        DataOpenHelper helper = new DataOpenHelper(context);
-        SQLiteDatabase db = helper.getWritableDatabase();
-        boolean deleted = false;
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getWritableDatabase();
+        boolean deleted = db.delete(DataOpenHelper.FAVICONS_TABLE_NAME,
+                DataOpenHelper.COLUMN_ID + "=" + favicon.getId(), null) > 0;
 
-        // Start transaction
+        // Favicons stored in their own file are deleted by the compaction
+        FaviconPack.compactIfNeeded(context);
+        return deleted;
+    }
+
+    /**
+     * Get the name of the file which stored a favicon before the packed file was used
+     *
+     * @param id the favicon ID
+     * @return the file name
+     */
+    static String getFileName(long id) {
+        return String.format(FILE_NAME, id);
+    }
+
+    /**
+     * Get the ID of the favicon stored in a file
+     *
+     * @param fileName the file name
+     * @return the favicon ID, or -1 if it is not the file of a favicon
+     */
+    static long getFaviconId(String fileName) {
+        if (!fileName.startsWith(FILE_NAME_PREFIX) || !fileName.endsWith(FILE_NAME_SUFFIX)) {
+            return -1;
+        }
         try {
-            db.beginTransaction();
-            db.delete(DataOpenHelper.FAVICONS_TABLE_NAME,
-                    DataOpenHelper.COLUMN_ID + "=" + favicon.getId(), null);
-
-            // Delete file from storage
-            deleted = context.deleteFile(String.format(FILE_NAME, favicon.getId()));
-            if (deleted) {
-                db.setTransactionSuccessful();
-            }
-        } finally {
-            db.endTransaction();
-            db.close();
+            return Long.parseLong(fileName.substring(FILE_NAME_PREFIX.length(),
+                    fileName.length() - FILE_NAME_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
         }
+    }
 
-        return deleted;
+    /**
+     * Get the favicon of a site in the I/O thread, see
+     * {@link #getFavicon(android.content.Context, String)}
+     *
+     * @param context  the {@link android.content.Context} instance
+     * @param site     the site
+     * @param callback the callback which receives the favicon in the main thread, or null
+     * @return the {@link java.util.concurrent.Future} of the favicon
+     */
+    public static Future<Favicon> getFaviconAsync(Context context, final String site,
+                                                  DataCallback<Favicon> callback) {
+        return DataExecutor.submit(context, new DataExecutor.Method<Favicon>() {
+            @Override
+            public Favicon run(Context context) {
+                return getFavicon(context, site);
+            }
+        }, callback);
+    }
+
+    /**
+     * Insert a favicon in the storage in the I/O thread, see
+     * {@link #insertFavicon(android.content.Context, Favicon)}
+     *
+     * @param context  the {@link android.content.Context} instance
+     * @param favicon  the {@link com.reddyetwo.hashmypass.app.data.Favicon} instance
+     * @param callback the callback which receives the ID of the inserted favicon in the main
+     *                 thread, or null
+     * @return the {@link java.util.concurrent.Future} of the ID of the inserted favicon
+     */
+    public static Future<Long> insertFaviconAsync(Context context, final Favicon favicon,
+                                                  DataCallback<Long> callback) {
+        return DataExecutor.submit(context, new DataExecutor.Method<Long>() {
+            @Override
+            public Long run(Context context) {
+                return insertFavicon(context, favicon);
+            }
+        }, callback);
+    }
+
+    /**
+     * Delete a favicon in the I/O thread, see
+     * {@link #deleteFavicon(android.content.Context, Favicon)}
+     *
+     * @param context  the {@link android.content.Context} instance
+     * @param favicon  the {@link com.reddyetwo.hashmypass.app.data.Favicon} instance
+     * @param callback the callback which receives the result in the main thread, or null
+     * @return the {@link java.util.concurrent.Future} of the result
+     */
+    public static Future<Boolean> deleteFaviconAsync(Context context, final Favicon favicon,
+                                                     DataCallback<Boolean> callback) {
+        return DataExecutor.submit(context, new DataExecutor.Method<Boolean>() {
+            @Override
+            public Boolean run(Context context) {
+                return deleteFavicon(context, favicon);
+            }
+        }, callback);
     }
 }
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.data;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.reddyetwo.hashmypass.app.TwikApplication;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Write-behind journal of tag hash counter increments.
+ * <p/>
+ * Increments are accumulated in memory and appended to a small log file, which is not synced,
+ * so a tap costs a file write instead of a database transaction. They are written to the
+ * database in a single transaction some time after the first pending increment, or when
+ * {@link #flushInBackground(android.content.Context)} is called. The log is replayed after
+ * the process is killed.
+ * <p/>
+ * Each record of the log has a sequence number, and the sequence number of the last record
+ * written to the database is stored in the same transaction as the increments. The log is
+ * emptied after the commit, and records which were already committed are skipped when it is
+ * replayed, so a process killed at any point neither loses increments nor counts them twice.
+ * <p/>
+ * Writes which set the hash counter of a tag to an absolute value must flush the journal
+ * first, otherwise the pending increments would be counted twice.
+ */
+final class HashCounterJournal {
+
+    private static final String FILE_NAME = "hash_counters.log";
+    private static final long FLUSH_DELAY_MILLIS = 30000;
+    private static final int RECORD_SIZE = 20;
+    private static final String SQL_INCREASE_HASH_COUNTER =
+            "UPDATE " + DataOpenHelper.TAGS_TABLE_NAME + " SET " +
+                    DataOpenHelper.COLUMN_TAGS_HASH_COUNTER + " = " +
+                    DataOpenHelper.COLUMN_TAGS_HASH_COUNTER + " + ? WHERE " +
+                    DataOpenHelper.COLUMN_ID + " = ?";
+    private static final String SQL_UPDATE_SEQUENCE =
+            "UPDATE " + DataOpenHelper.JOURNAL_TABLE_NAME + " SET " +
+                    DataOpenHelper.COLUMN_JOURNAL_SEQUENCE + " = ?";
+    private static final String SQL_SELECT_SEQUENCE =
+            "SELECT " + DataOpenHelper.COLUMN_JOURNAL_SEQUENCE + " FROM " +
+                    DataOpenHelper.JOURNAL_TABLE_NAME;
+
+    private static final Object mLock = new Object();
+    private static final Handler mHandler = new Handler(Looper.getMainLooper());
+    private static final ByteBuffer mRecord = ByteBuffer.allocate(RECORD_SIZE);
+
+    private static final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Context context;
+            synchronized (mLock) {
+                mFlushScheduled = false;
+                context = mContext;
+            }
+            flushInBackground(context);
+        }
+    };
+
+    // Guarded by mLock
+    private static Map<Long, Integer> mIncrements;
+    private static FileOutputStream mLog;
+    // Sequence number of the last record appended to the log or written to the database
+    private static long mSequence;
+    private static Context mContext;
+    private static boolean mFlushScheduled;
+
+    private HashCounterJournal() {
+
+    }
+
+    /**
+     * Increase the hash counter of a tag by one
+     *
+     * @param context the {@link android.content.Context} instance
+     * @param tagId   the tag ID
+     */
+    static void increment(Context context, long tagId) {
+        synchronized (mLock) {
+            load(context);
+            Integer increment = mIncrements.get(tagId);
+            mIncrements.put(tagId, increment == null ? 1 : increment + 1);
+            append(tagId, 1);
+            if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                mHandler.postDelayed(mFlushRunnable, FLUSH_DELAY_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Get the increment of the hash counter of a tag which has not been written to the
+     * database yet
+     *
+     * @param context the {@link android.content.Context} instance
+     * @param tagId   the tag ID
+     * @return the pending increment
+     */
+    static int getPendingIncrement(Context context, long tagId) {
+        synchronized (mLock) {
+            load(context);
+            Integer increment = mIncrements.get(tagId);
+            return increment == null ? 0 : increment;
+        }
+    }
+
+    /**
+     * Write the pending increments to the database in the I/O thread of
+     * {@link com.reddyetwo.hashmypass.app.data.DataExecutor}, so that they are not written while
+     * a tag is being read there. Errors are logged.
+     *
+     * @param context the {@link android.content.Context} instance
+     */
+    static void flushInBackground(Context context) {
+        DataExecutor.submit(context, new DataExecutor.Method<Void>() {
+            @Override
+            public Void run(Context context) {
+                try {
+                    flush(context);
+                } catch (RuntimeException e) {
+                    // The increments are kept, and written by the next flush
+                    Log.e(TwikApplication.LOG_TAG, "Error writing hash counters: " + e);
+                }
+                return null;
+            }
+        }, null);
+    }
+
+    /**
+     * Write the pending increments to the database in a single transaction and empty the log
+     *
+     * @param context the {@link android.content.Context} instance
+     */
+    static void flush(Context context) {
+        synchronized (mLock) {
+            load(context);
+            if (mIncrements.isEmpty()) {
+                return;
+            }
+
+            // Nothing is committed if it throws, and the increments are kept
+            writeIncrements(context);
+            mIncrements.clear();
+
+            // The committed records are skipped if the log can not be emptied
+            closeLog();
+            try {
+                new FileOutputStream(getFile(context)).close();
+            } catch (IOException e) {
+                Log.e(TwikApplication.LOG_TAG, "Error emptying hash counter journal: " + e);
+            }
+        }
+    }
+
+    private static void writeIncrements(Context context) {
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getWritableDatabase();
+        SQLiteStatement statement = db.compileStatement(SQL_INCREASE_HASH_COUNTER);
+        SQLiteStatement sequenceStatement = db.compileStatement(SQL_UPDATE_SEQUENCE);
+        try {
+            db.beginTransactionNonExclusive();
+            for (Map.Entry<Long, Integer> entry : mIncrements.entrySet()) {
+                statement.bindLong(1, entry.getValue());
+                statement.bindLong(2, entry.getKey());
+                // Tags deleted since the increment are not updated
+                statement.executeUpdateDelete();
+            }
+            sequenceStatement.bindLong(1, mSequence);
+            sequenceStatement.executeUpdateDelete();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+            sequenceStatement.close();
+        }
+    }
+
+    /**
+     * Read the increments which were not written to the database before the process was killed
+     */
+    private static void load(Context context) {
+        if (mIncrements != null) {
+            return;
+        }
+        mContext = context.getApplicationContext();
+        mIncrements = new HashMap<>();
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getReadableDatabase();
+        long committedSequence = DatabaseUtils.longForQuery(db, SQL_SELECT_SEQUENCE, null);
+        mSequence = committedSequence;
+        File file = getFile(context);
+        if (!file.exists()) {
+            return;
+        }
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new FileInputStream(file));
+            while (true) {
+                long sequence = input.readLong();
+                long tagId = input.readLong();
+                int increment = input.readInt();
+                if (sequence <= committedSequence) {
+                    // Already written to the database, but the log was not emptied
+                    continue;
+                }
+                mSequence = sequence;
+                Integer previous = mIncrements.get(tagId);
+                mIncrements.put(tagId, previous == null ? increment : previous + increment);
+            }
+        } catch (EOFException e) {
+            // End of the log, or a record which was not completely written
+        } catch (IOException e) {
+            Log.e(TwikApplication.LOG_TAG, "Error reading hash counter journal: " + e);
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    Log.e(TwikApplication.LOG_TAG, "Error closing hash counter journal: " + e);
+                }
+            }
+        }
+    }
+
+    private static void append(long tagId, int increment) {
+        try {
+            if (mLog == null) {
+                mLog = new FileOutputStream(getFile(mContext), true);
+                // Drop a partial record left by a killed process, which was ignored by load()
+                long length = mLog.getChannel().size();
+                mLog.getChannel().truncate(length - length % RECORD_SIZE);
+            }
+            // One write per record, so that a killed process leaves at most one partial record
+            mRecord.clear();
+            mRecord.putLong(++mSequence).putLong(tagId).putInt(increment);
+            mLog.write(mRecord.array(), 0, RECORD_SIZE);
+        } catch (IOException e) {
+            // The increment is still written unless the process is killed
+            Log.e(TwikApplication.LOG_TAG, "Error writing hash counter journal: " + e);
+        }
+    }
+
+    private static void closeLog() {
+        if (mLog != null) {
+            try {
+                mLog.close();
+            } catch (IOException e) {
+                Log.e(TwikApplication.LOG_TAG, "Error closing hash counter journal: " + e);
+            }
+            mLog = null;
+        }
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+}
@@ -0,0 +1,457 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.data;
+
+import android.content.Context;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Ordered list of the tags of a profile which is read from the database in pages, for
+ * profiles too large to be loaded at once.
+ * <p/>
+ * Only a window of consecutive tags is kept in memory. Pages are read in the data thread
+ * (see {@link com.reddyetwo.hashmypass.app.data.DataExecutor}), after the hash counter
+ * increments submitted before them, so the main thread never reads the database. The page next
+ * to the window is prefetched when an item close to its edges is read, and the page after the
+ * window is found from its last tag (keyset pagination), using the ordering indexes. Items
+ * which are not loaded are read as null, and the
+ * {@link com.reddyetwo.hashmypass.app.data.PagedTagList.OnTagsLoadedListener} is notified once
+ * they have been loaded.
+ * <p/>
+ * The list mirrors the database: tags must be inserted, moved or removed after the change has
+ * been submitted to the database. Changes are made in the window, and the list is refreshed in
+ * background if the position of a tag is outside it. Once created, it must only be used from
+ * the main thread. Instances are returned by
+ * {@link TagSettings#getProfileTagListAsync(android.content.Context, long, int, DataCallback)}.
+ */
+public class PagedTagList extends AbstractList<Tag> implements RandomAccess {
+
+    private static final int PAGE_SIZE = 50;
+    private static final int MAX_LOADED_TAGS = 8 * PAGE_SIZE;
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 4;
+    private static final int NO_POSITION = -1;
+
+    private final Context mContext;
+    private final long mProfileId;
+    private final int mOrderBy;
+    private final Comparator<Tag> mComparator;
+
+    /**
+     * Loaded tags, which are the tags from position {@link #mWindowStart} on
+     */
+    private final List<Tag> mWindow = new ArrayList<>();
+    private int mWindowStart;
+    private int mSize;
+
+    /**
+     * Incremented when the positions change, so that pages read before are dropped
+     */
+    private int mGeneration;
+    private boolean mLoading;
+    private boolean mRefreshing;
+
+    /**
+     * Positions which have been read while not loaded, and must be notified once loaded
+     */
+    private int mFirstMissed = NO_POSITION;
+    private int mLastMissed = NO_POSITION;
+
+    private OnTagsLoadedListener mListener;
+
+    /**
+     * Constructor, which reads the number of tags and the first page. It must not be called
+     * from the main thread.
+     *
+     * @param context   the {@link android.content.Context} instance
+     * @param profileId the profile ID
+     * @param orderBy   the order criterion, {@link TagSettings#ORDER_BY_HASH_COUNTER} or
+     *                  {@link TagSettings#ORDER_BY_NAME}
+     */
+    PagedTagList(Context context, long profileId, int orderBy) {
+        mContext = context.getApplicationContext();
+        mProfileId = profileId;
+        mOrderBy = orderBy;
+        mComparator = TagSettings.getTagComparator(orderBy);
+        Page page = readPage(mContext, profileId, orderBy, null, 0, PAGE_SIZE, true);
+        mSize = page.mSize;
+        mWindow.addAll(page.mTags);
+    }
+
+    /**
+     * Set the listener which is notified when tags which were not loaded have been loaded
+     *
+     * @param listener the {@link com.reddyetwo.hashmypass.app.data.PagedTagList.OnTagsLoadedListener}
+     *                 listener, or null
+     */
+    public void setOnTagsLoadedListener(OnTagsLoadedListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Return a tag
+     *
+     * @param location the position of the tag
+     * @return the tag, or null if it has not been loaded yet
+     */
+    @Override
+    public Tag get(int location) {
+        if (location < 0 || location >= mSize) {
+            throw new IndexOutOfBoundsException("Invalid index " + location + ", size is " +
+                    mSize);
+        }
+        int index = location - mWindowStart;
+        if (index < 0 || index >= mWindow.size()) {
+            mFirstMissed = mFirstMissed == NO_POSITION ? location : Math.min(mFirstMissed,
+                    location);
+            mLastMissed = Math.max(mLastMissed, location);
+            load(location);
+            return null;
+        }
+
+        if (index >= mWindow.size() - PREFETCH_DISTANCE) {
+            load(mWindowStart + mWindow.size());
+        } else if (index < PREFETCH_DISTANCE) {
+            load(mWindowStart - 1);
+        }
+        return mWindow.get(index);
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public Tag set(int location, Tag tag) {
+        int index = location - mWindowStart;
+        return index >= 0 && index < mWindow.size() ? mWindow.set(index, tag) : null;
+    }
+
+    @Override
+    public void add(int location, Tag tag) {
+        int index = location - mWindowStart;
+        if (index < 0) {
+            // The window is moved along with its tags
+            mWindowStart++;
+        } else if (index <= mWindow.size()) {
+            mWindow.add(index, tag);
+        }
+        mSize++;
+        mGeneration++;
+    }
+
+    @Override
+    public Tag remove(int location) {
+        int index = location - mWindowStart;
+        Tag tag = null;
+        if (index < 0) {
+            mWindowStart--;
+        } else if (index < mWindow.size()) {
+            tag = mWindow.remove(index);
+        }
+        mSize--;
+        mGeneration++;
+        return tag;
+    }
+
+    /**
+     * Insert a tag at its position according to the order of the list
+     *
+     * @param tag the tag, which has been inserted in the database
+     * @return the position of the tag, or -1 if it is not in the window and the list is being
+     * refreshed
+     */
+    public int insert(Tag tag) {
+        int index = findIndex(tag);
+        if (index < 0) {
+            refresh();
+            return NO_POSITION;
+        }
+        add(mWindowStart + index, tag);
+        return mWindowStart + index;
+    }
+
+    /**
+     * Move a modified tag to its new position according to the order of the list
+     *
+     * @param oldPosition the position of the tag
+     * @param tag         the modified tag, which replaces the old one
+     * @return the new position of the tag, or -1 if the old or the new position are not in the
+     * window and the list is being refreshed
+     */
+    public int move(int oldPosition, Tag tag) {
+        if (oldPosition < mWindowStart || oldPosition >= mWindowStart + mWindow.size()) {
+            refresh();
+            return NO_POSITION;
+        }
+        Tag oldTag = mWindow.remove(oldPosition - mWindowStart);
+        int index = findIndex(tag);
+        if (index < 0) {
+            mWindow.add(oldPosition - mWindowStart, oldTag);
+            refresh();
+            return NO_POSITION;
+        }
+        mWindow.add(index, tag);
+        mGeneration++;
+        return mWindowStart + index;
+    }
+
+    /**
+     * Return the position of a tag instance. Only the loaded tags are searched.
+     *
+     * @param object the tag
+     * @return the position of the tag, or -1 if it is not loaded
+     */
+    @Override
+    public int indexOf(Object object) {
+        int index = mWindow.indexOf(object);
+        return index >= 0 ? mWindowStart + index : NO_POSITION;
+    }
+
+    /**
+     * Return the position of a tag by ID. Only the loaded tags are searched.
+     *
+     * @param tagId the tag ID
+     * @return the position of the tag, or -1 if it is not loaded
+     */
+    public int indexOfId(long tagId) {
+        for (int i = 0; i < mWindow.size(); i++) {
+            if (mWindow.get(i).getId() == tagId) {
+                return mWindowStart + i;
+            }
+        }
+        return NO_POSITION;
+    }
+
+    /**
+     * Read the number of tags and the tags around the window again in background, after
+     * changes whose positions are not known. The listener is notified when done.
+     */
+    public void refresh() {
+        mGeneration++;
+        if (mRefreshing) {
+            // Refreshed again when done, since the changes may have been submitted after it
+            return;
+        }
+        mRefreshing = true;
+        final int generation = mGeneration;
+        submitRead(null, mWindowStart, PAGE_SIZE, true, new DataCallback<Page>() {
+            @Override
+            public void onResult(Page page) {
+                mRefreshing = false;
+                if (generation != mGeneration) {
+                    refresh();
+                    return;
+                }
+                mGeneration++;
+                mSize = page.mSize;
+                mWindowStart = page.mOffset;
+                mWindow.clear();
+                mWindow.addAll(page.mTags);
+                mFirstMissed = NO_POSITION;
+                mLastMissed = NO_POSITION;
+                if (mListener != null) {
+                    mListener.onTagListRefreshed();
+                }
+            }
+        });
+    }
+
+    /**
+     * Find the index in the window where a tag must be inserted to keep the list sorted
+     *
+     * @param tag the tag, which is not in the list
+     * @return the index, or -1 if the position of the tag is outside the window
+     */
+    private int findIndex(Tag tag) {
+        if (mComparator == null || mRefreshing) {
+            return NO_POSITION;
+        }
+        // Tags are never equal to each other because their IDs are compared last
+        int index = Collections.binarySearch(mWindow, tag, mComparator);
+        index = index < 0 ? -index - 1 : index;
+        // The tag may be before or after the window if it is at its edges
+        if ((index == 0 && mWindowStart > 0) ||
+                (index == mWindow.size() && mWindowStart + mWindow.size() < mSize)) {
+            return NO_POSITION;
+        }
+        return index;
+    }
+
+    /**
+     * Read in background the page which contains a position, unless a page is being read
+     */
+    private void load(int location) {
+        if (location < 0 || location >= mSize || mLoading || mRefreshing) {
+            return;
+        }
+        int windowEnd = mWindowStart + mWindow.size();
+        Tag previous = null;
+        int offset;
+        int limit = PAGE_SIZE;
+        if (location == windowEnd && !mWindow.isEmpty()) {
+            // Next page, found from the last tag of the window
+            previous = mWindow.get(mWindow.size() - 1);
+            offset = windowEnd;
+        } else if (location == mWindowStart - 1) {
+            // Previous page
+            offset = Math.max(0, mWindowStart - PAGE_SIZE);
+            limit = mWindowStart - offset;
+        } else {
+            offset = location - location % PAGE_SIZE;
+        }
+
+        mLoading = true;
+        final int generation = mGeneration;
+        submitRead(previous, offset, limit, false, new DataCallback<Page>() {
+            @Override
+            public void onResult(Page page) {
+                mLoading = false;
+                if (generation == mGeneration) {
+                    putPage(page);
+                }
+                notifyMissed();
+            }
+        });
+    }
+
+    /**
+     * Add a page to the window, or replace the window with it if they are not consecutive
+     */
+    private void putPage(Page page) {
+        int windowEnd = mWindowStart + mWindow.size();
+        if (page.mOffset == windowEnd) {
+            mWindow.addAll(page.mTags);
+            int excess = mWindow.size() - MAX_LOADED_TAGS;
+            if (excess > 0) {
+                mWindow.subList(0, excess).clear();
+                mWindowStart += excess;
+            }
+        } else if (page.mOffset + page.mTags.size() == mWindowStart) {
+            mWindow.addAll(0, page.mTags);
+            mWindowStart = page.mOffset;
+            if (mWindow.size() > MAX_LOADED_TAGS) {
+                mWindow.subList(MAX_LOADED_TAGS, mWindow.size()).clear();
+            }
+        } else {
+            mWindow.clear();
+            mWindow.addAll(page.mTags);
+            mWindowStart = page.mOffset;
+        }
+
+        if (page.mTags.size() < Math.min(page.mLimit, mSize - page.mOffset)) {
+            // Tags have been deleted elsewhere, so the number of tags is not valid
+            refresh();
+        }
+    }
+
+    /**
+     * Notify the listener that the positions read while not loaded must be read again
+     */
+    private void notifyMissed() {
+        if (mFirstMissed == NO_POSITION) {
+            return;
+        }
+        int first = mFirstMissed;
+        int count = Math.min(mLastMissed, mSize - 1) - first + 1;
+        mFirstMissed = NO_POSITION;
+        mLastMissed = NO_POSITION;
+        if (count > 0 && mListener != null) {
+            mListener.onTagsLoaded(first, count);
+        }
+    }
+
+    private void submitRead(final Tag previous, final int offset, final int limit,
+                            final boolean count, DataCallback<Page> callback) {
+        final long profileId = mProfileId;
+        final int orderBy = mOrderBy;
+        DataExecutor.submit(mContext, new DataExecutor.Method<Page>() {
+            @Override
+            public Page run(Context context) {
+                return readPage(context, profileId, orderBy, previous, offset, limit, count);
+            }
+        }, callback);
+    }
+
+    /**
+     * Read a page of tags. It must not be called from the main thread.
+     *
+     * @param previous the tag before the page, or null to find the page by its offset
+     * @param count    true to read the number of tags too, in which case the offset is moved
+     *                 back if there are fewer tags
+     */
+    private static Page readPage(Context context, long profileId, int orderBy, Tag previous,
+                                 int offset, int limit, boolean count) {
+        // The pages are sorted by the stored hash counters, which must include the increments
+        HashCounterJournal.flush(context);
+        int size = NO_POSITION;
+        if (count) {
+            size = TagSettings.getProfileTagCount(context, profileId);
+            offset = Math.max(0, Math.min(offset, size - limit));
+        }
+        return new Page(offset, limit, size, TagSettings
+                .queryProfileTagsPage(context, profileId, orderBy, previous, offset, limit));
+    }
+
+    /**
+     * Interface which can be implemented to listen to the loading of the tags
+     */
+    public interface OnTagsLoadedListener {
+
+        /**
+         * Method called in the main thread when positions which were read while not loaded
+         * can be read again
+         *
+         * @param position the first position
+         * @param count    the number of positions
+         */
+        void onTagsLoaded(int position, int count);
+
+        /**
+         * Method called in the main thread when the list has been refreshed, after which any
+         * position may have changed
+         */
+        void onTagListRefreshed();
+    }
+
+    /**
+     * Page of tags read in background
+     */
+    private static class Page {
+
+        private final int mOffset;
+        private final int mLimit;
+        private final int mSize;
+        private final List<Tag> mTags;
+
+        public Page(int offset, int limit, int size, List<Tag> tags) {
+            mOffset = offset;
+            mLimit = limit;
+            mSize = size;
+            mTags = tags;
+        }
+    }
+}
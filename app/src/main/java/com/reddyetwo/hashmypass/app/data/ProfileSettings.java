@@ -24,9 +24,13 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import com.reddyetwo.hashmypass.app.hash.IntermediateHashCache;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * Class to get/add/delete/update {@link com.reddyetwo.hashmypass.app.data.Profile} from storage
@@ -34,27 +38,50 @@ import java.util.List;
 
 public class ProfileSettings {
 
+    // Parameterized queries, so that their compiled statements are reused
+    private static final String SQL_SELECT_PROFILE =
+            "SELECT " + DataOpenHelper.COLUMN_PROFILES_NAME + ", " +
+                    DataOpenHelper.COLUMN_PROFILES_PRIVATE_KEY + ", " +
+                    DataOpenHelper.COLUMN_PROFILES_PASSWORD_LENGTH + ", " +
+                    DataOpenHelper.COLUMN_PROFILES_PASSWORD_TYPE + ", " +
+                    DataOpenHelper.COLUMN_PROFILES_COLOR_INDEX + " FROM " +
+                    DataOpenHelper.PROFILES_TABLE_NAME + " WHERE " + DataOpenHelper.COLUMN_ID +
+                    " = ?";
+    private static final String SQL_SELECT_PRIVATE_KEY =
+            "SELECT " + DataOpenHelper.COLUMN_PROFILES_PRIVATE_KEY + " FROM " +
+                    DataOpenHelper.PROFILES_TABLE_NAME + " WHERE " + DataOpenHelper.COLUMN_ID +
+                    " = ?";
+    private static final String SQL_SELECT_PROFILE_ID =
+            "SELECT " + DataOpenHelper.COLUMN_ID + " FROM " + DataOpenHelper.PROFILES_TABLE_NAME +
+                    " WHERE " + DataOpenHelper.COLUMN_PROFILES_NAME + " = ?";
+
     private ProfileSettings() {
 
     }
 
     /**
-     * Get a profile from the database
+     * Get a profile
      *
      * @param context   the {@link android.content.Context} instance
      * @param profileId the profile ID
      * @return the {@link com.reddyetwo.hashmypass.app.data.Profile} instance
      */
     public static Profile getProfile(Context context, long profileId) {
-        DataOpenHelper helper = new DataOpenHelper(context);
-        SQLiteDatabase db = helper.getReadableDatabase();
-        Cursor cursor = db.query(DataOpenHelper.PROFILES_TABLE_NAME,
-                new String[]{DataOpenHelper.COLUMN_PROFILES_NAME,
-                        DataOpenHelper.COLUMN_PROFILES_PRIVATE_KEY,
-                        DataOpenHelper.COLUMN_PROFILES_PASSWORD_LENGTH,
-                        DataOpenHelper.COLUMN_PROFILES_PASSWORD_TYPE,
-                        DataOpenHelper.COLUMN_PROFILES_COLOR_INDEX},
-                DataOpenHelper.COLUMN_ID + "=" + profileId, null, null, null, null);
+        return TagRepository.getProfile(context, profileId);
+    }
+
+    /**
+     * Read a profile from the database
+     *
+     * @param context   the {@link android.content.Context} instance
+     * @param profileId the profile ID
+     * @return the {@link com.reddyetwo.hashmypass.app.data.Profile} instance, or null if not
+     * found
+     */
+    static Profile queryProfile(Context context, long profileId) {
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getReadableDatabase();
+        Cursor cursor =
+                db.rawQuery(SQL_SELECT_PROFILE, new String[]{Long.toString(profileId)});
 
         Profile profile = null;
         if (cursor.moveToFirst()) {
@@ -74,7 +101,6 @@ public class ProfileSettings {
         }
 
         cursor.close();
-        db.close();
 
         return profile;
     }
@@ -87,8 +113,7 @@ public class ProfileSettings {
      * @return the ID of the inserted row, or -1 if an error occurred
      */
     public static long insertProfile(Context context, Profile profile) {
-        DataOpenHelper helper = new DataOpenHelper(context);
-        SQLiteDatabase db = helper.getWritableDatabase();
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getWritableDatabase();
 
         ContentValues values = new ContentValues();
         values.put(DataOpenHelper.COLUMN_PROFILES_NAME, profile.getName());
@@ -100,7 +125,8 @@ public class ProfileSettings {
 
         long id = db.insertOrThrow(DataOpenHelper.PROFILES_TABLE_NAME, null, values);
 
-        db.close();
+        TagRepository.putProfile(new Profile(id, profile.getName(), profile.getPrivateKey(),
+                profile.getPasswordLength(), profile.getPasswordType(), profile.getColorIndex()));
         return id;
     }
 
@@ -112,8 +138,8 @@ public class ProfileSettings {
      * @return true in case of success, false if an error occurred
      */
     public static boolean updateProfile(Context context, Profile profile) {
-        DataOpenHelper helper = new DataOpenHelper(context);
-        SQLiteDatabase db = helper.getWritableDatabase();
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getWritableDatabase();
+        String oldPrivateKey = getPrivateKey(db, profile.getId());
 
         ContentValues values = new ContentValues();
         values.put(DataOpenHelper.COLUMN_PROFILES_NAME, profile.getName());
@@ -127,10 +153,27 @@ public class ProfileSettings {
                 DataOpenHelper.COLUMN_ID + " = ?", new String[]{Long.toString(profile.getId())}) >
                 0;
 
-        db.close();
+        if (updated) {
+            TagRepository.putProfile(profile);
+            if (!TextUtils.equals(oldPrivateKey, profile.getPrivateKey())) {
+                // Cached intermediate hashes were calculated with the old private key
+                IntermediateHashCache.invalidateProfile(profile.getId());
+            }
+        }
         return updated;
     }
 
+    private static String getPrivateKey(SQLiteDatabase db, long profileId) {
+        Cursor cursor =
+                db.rawQuery(SQL_SELECT_PRIVATE_KEY, new String[]{Long.toString(profileId)});
+        String privateKey = null;
+        if (cursor.moveToFirst()) {
+            privateKey = cursor.getString(0);
+        }
+        cursor.close();
+        return privateKey;
+    }
+
     /**
      * Delete a profile in the database
      *
@@ -139,21 +182,24 @@ public class ProfileSettings {
      * @return true in case of success, false if no profile was deleted
      */
     public static boolean deleteProfile(Context context, long profileId) {
-        DataOpenHelper helper = new DataOpenHelper(context);
-        SQLiteDatabase db = helper.getWritableDatabase();
+        // Pending increments must not be applied to new tags which reuse the IDs
+        HashCounterJournal.flush(context);
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getWritableDatabase();
         boolean deleted = false;
         try {
-            db.beginTransaction();
+            db.beginTransactionNonExclusive();
+            String[] args = new String[]{Long.toString(profileId)};
             deleted = db.delete(DataOpenHelper.PROFILES_TABLE_NAME,
-                    DataOpenHelper.COLUMN_ID + "=" + profileId, null) > 0;
+                    DataOpenHelper.COLUMN_ID + " = ?", args) > 0;
             db.delete(DataOpenHelper.TAGS_TABLE_NAME,
-                    DataOpenHelper.COLUMN_TAGS_PROFILE_ID + "=" + profileId, null);
+                    DataOpenHelper.COLUMN_TAGS_PROFILE_ID + " = ?", args);
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
         }
 
-        db.close();
+        TagRepository.removeProfile(profileId);
+        IntermediateHashCache.invalidateProfile(profileId);
         return deleted;
     }
 
@@ -165,21 +211,8 @@ public class ProfileSettings {
      * @return the profile ID
      */
     public static long getProfileId(Context context, String name) {
-        DataOpenHelper helper = new DataOpenHelper(context);
-        SQLiteDatabase db = helper.getReadableDatabase();
-        Cursor cursor =
-                db.query(DataOpenHelper.PROFILES_TABLE_NAME, new String[]{DataOpenHelper.COLUMN_ID},
-                        DataOpenHelper.COLUMN_PROFILES_NAME + " = ?", new String[]{name}, null,
-                        null, null);
-
-        long profileId = Profile.NO_ID;
-        if (cursor.moveToFirst()) {
-            profileId = cursor.getLong(cursor.getColumnIndex(DataOpenHelper.COLUMN_ID));
-        }
-        cursor.close();
-        db.close();
-
-        return profileId;
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getReadableDatabase();
+        return StatementCache.queryForLong(db, SQL_SELECT_PROFILE_ID, Profile.NO_ID, name);
     }
 
     /**
@@ -189,8 +222,7 @@ public class ProfileSettings {
      * @return the {@link java.util.List} of {@link com.reddyetwo.hashmypass.app.data.Profile}
      */
     public static List<Profile> getList(Context context) {
-        DataOpenHelper helper = new DataOpenHelper(context);
-        SQLiteDatabase db = helper.getReadableDatabase();
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getReadableDatabase();
         Cursor cursor = db.query(DataOpenHelper.PROFILES_TABLE_NAME,
                 new String[]{DataOpenHelper.COLUMN_ID, DataOpenHelper.COLUMN_PROFILES_NAME,
                         DataOpenHelper.COLUMN_PROFILES_PRIVATE_KEY,
@@ -220,8 +252,119 @@ public class ProfileSettings {
         }
 
         cursor.close();
-        db.close();
         return list;
     }
 
+    /**
+     * Get a profile in the I/O thread, see {@link #getProfile(android.content.Context, long)}
+     *
+     * @param context   the {@link android.content.Context} instance
+     * @param profileId the profile ID
+     * @param callback  the callback which receives the profile in the main thread, or null
+     * @return the {@link java.util.concurrent.Future} of the profile
+     */
+    public static Future<Profile> getProfileAsync(Context context, final long profileId,
+                                                  DataCallback<Profile> callback) {
+        return DataExecutor.submit(context, new DataExecutor.Method<Profile>() {
+            @Override
+            public Profile run(Context context) {
+                return getProfile(context, profileId);
+            }
+        }, callback);
+    }
+
+    /**
+     * Insert a profile in the database in the I/O thread, see
+     * {@link #insertProfile(android.content.Context, Profile)}
+     *
+     * @param context  the {@link android.content.Context} instance
+     * @param profile  the profile, which must not be modified until the insertion has finished
+     * @param callback the callback which receives the ID of the inserted row in the main
+     *                 thread, or null
+     * @return the {@link java.util.concurrent.Future} of the ID of the inserted row
+     */
+    public static Future<Long> insertProfileAsync(Context context, final Profile profile,
+                                                  DataCallback<Long> callback) {
+        return DataExecutor.submit(context, new DataExecutor.Method<Long>() {
+            @Override
+            public Long run(Context context) {
+                return insertProfile(context, profile);
+            }
+        }, callback);
+    }
+
+    /**
+     * Update a profile in the database in the I/O thread, see
+     * {@link #updateProfile(android.content.Context, Profile)}
+     *
+     * @param context  the {@link android.content.Context} instance
+     * @param profile  the profile, which must not be modified until the update has finished
+     * @param callback the callback which receives the result in the main thread, or null
+     * @return the {@link java.util.concurrent.Future} of the result
+     */
+    public static Future<Boolean> updateProfileAsync(Context context, final Profile profile,
+                                                     DataCallback<Boolean> callback) {
+        return DataExecutor.submit(context, new DataExecutor.Method<Boolean>() {
+            @Override
+            public Boolean run(Context context) {
+                return updateProfile(context, profile);
+            }
+        }, callback);
+    }
+
+    /**
+     * Delete a profile in the database in the I/O thread, see
+     * {@link #deleteProfile(android.content.Context, long)}
+     *
+     * @param context   the {@link android.content.Context} instance
+     * @param profileId the profile ID
+     * @param callback  the callback which receives the result in the main thread, or null
+     * @return the {@link java.util.concurrent.Future} of the result
+     */
+    public static Future<Boolean> deleteProfileAsync(Context context, final long profileId,
+                                                     DataCallback<Boolean> callback) {
+        return DataExecutor.submit(context, new DataExecutor.Method<Boolean>() {
+            @Override
+            public Boolean run(Context context) {
+                return deleteProfile(context, profileId);
+            }
+        }, callback);
+    }
+
+    /**
+     * Get the ID of a profile in the I/O thread, see
+     * {@link #getProfileId(android.content.Context, String)}
+     *
+     * @param context  the {@link android.content.Context} instance
+     * @param name     the profile name
+     * @param callback the callback which receives the profile ID in the main thread, or null
+     * @return the {@link java.util.concurrent.Future} of the profile ID
+     */
+    public static Future<Long> getProfileIdAsync(Context context, final String name,
+                                                 DataCallback<Long> callback) {
+        return DataExecutor.submit(context, new DataExecutor.Method<Long>() {
+            @Override
+            public Long run(Context context) {
+                return getProfileId(context, name);
+            }
+        }, callback);
+    }
+
+    /**
+     * Get the list of profiles stored in the database in the I/O thread, see
+     * {@link #getList(android.content.Context)}
+     *
+     * @param context  the {@link android.content.Context} instance
+     * @param callback the callback which receives the list in the main thread, or null
+     * @return the {@link java.util.concurrent.Future} of the list
+     */
+    public static Future<List<Profile>> getListAsync(Context context,
+                                                     DataCallback<List<Profile>> callback) {
+        return DataExecutor.submit(context, new DataExecutor.Method<List<Profile>>() {
+            @Override
+            public List<Profile> run(Context context) {
+                return getList(context);
+            }
+        }, callback);
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cache of compiled statements for the single-value lookups which are run on every keystroke.
+ * <p/>
+ * A {@link android.database.sqlite.SQLiteStatement} only keeps its SQL string and bound
+ * arguments. It is not bound to a connection: every execution borrows a connection from the
+ * pool of the database, which prepares the SQL again unless it is still in the prepared
+ * statement cache of that connection. Reusing the statements saves creating and validating
+ * a new statement on every lookup, and keeps the SQL strings constant so that they hit those
+ * caches. Statements must use parameters instead of inlined values for the same reason.
+ * Queries which return rows should also use constant SQL strings with
+ * {@link android.database.sqlite.SQLiteDatabase#rawQuery(String, String[])}.
+ */
+final class StatementCache {
+
+    private static final Map<String, SQLiteStatement> mStatements = new HashMap<>();
+    private static SQLiteDatabase mDatabase;
+
+    private StatementCache() {
+
+    }
+
+    /**
+     * Run a query which returns a single integer value
+     *
+     * @param db           the database
+     * @param sql          the SQL query, whose parameters are bound to args
+     * @param defaultValue the value returned if the query returns no rows
+     * @param args         the query arguments
+     * @return the value in the first column of the first row, or defaultValue if there are no
+     * rows
+     */
+    static synchronized long queryForLong(SQLiteDatabase db, String sql, long defaultValue,
+                                          String... args) {
+        SQLiteStatement statement = getStatement(db, sql);
+        statement.bindAllArgsAsStrings(args);
+        try {
+            return statement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return defaultValue;
+        } finally {
+            statement.clearBindings();
+        }
+    }
+
+    private static SQLiteStatement getStatement(SQLiteDatabase db, String sql) {
+        if (db != mDatabase) {
+            // Statements are bound to the database they were created for
+            for (SQLiteStatement statement : mStatements.values()) {
+                statement.close();
+            }
+            mStatements.clear();
+            mDatabase = db;
+        }
+        SQLiteStatement statement = mStatements.get(sql);
+        if (statement == null) {
+            statement = db.compileStatement(sql);
+            mStatements.put(sql, statement);
+        }
+        return statement;
+    }
+}
@@ -23,10 +23,12 @@ package com.reddyetwo.hashmypass.app.data;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import com.reddyetwo.hashmypass.app.hash.HashableTag;
+
 /**
  * POJO class for tags
  */
-public class Tag implements Parcelable {
+public class Tag implements Parcelable, HashableTag {
 
     public static final long NO_ID = -1;
     private long mId = NO_ID;
@@ -161,6 +163,7 @@ public class Tag implements Parcelable {
      *
      * @return the tag name
      */
+    @Override
     public String getName() {
         return mName;
     }
@@ -179,6 +182,7 @@ public class Tag implements Parcelable {
      *
      * @return the password length
      */
+    @Override
     public int getPasswordLength() {
         return mPasswordLength;
     }
@@ -197,6 +201,7 @@ public class Tag implements Parcelable {
      *
      * @return the password type
      */
+    @Override
     public PasswordType getPasswordType() {
         return mPasswordType;
     }
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.data;
+
+import com.reddyetwo.hashmypass.app.util.Constants;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Parser of the CSV or JSON lines read by {@link TagImporter}. The values of the last parsed line
+ * are kept until the next one is parsed, and missing values are null.
+ */
+final class TagImportParser {
+
+    // CSV columns, in order. Only the name is required.
+    private static final String COLUMN_NAME = "name";
+    private static final String COLUMN_SITE = "site";
+    private static final String COLUMN_PASSWORD_LENGTH = "password_length";
+    private static final String COLUMN_PASSWORD_TYPE = "password_type";
+    private static final String COLUMN_HASH_COUNTER = "hash_counter";
+    private static final int CSV_COLUMN_NAME = 0;
+    private static final int CSV_COLUMN_SITE = 1;
+    private static final int CSV_COLUMN_PASSWORD_LENGTH = 2;
+    private static final int CSV_COLUMN_PASSWORD_TYPE = 3;
+    private static final int CSV_COLUMN_HASH_COUNTER = 4;
+
+    private static final char CSV_SEPARATOR = ',';
+    private static final char CSV_QUOTE = '"';
+    private static final char JSON_OBJECT_START = '{';
+
+    private final List<String> mFields = new ArrayList<>();
+
+    private String mName;
+    private String mSite;
+    private Integer mPasswordLength;
+    private PasswordType mPasswordType;
+    private Integer mHashCounter;
+
+    /**
+     * Parse a CSV or JSON line
+     *
+     * @param line the line, which must not be blank
+     * @return true if the line is a valid tag, false otherwise. Password lengths out of the range
+     * allowed by the application are invalid, as passwords of that length can not be generated.
+     */
+    boolean parse(String line) {
+        boolean parsed = line.trim().charAt(0) == JSON_OBJECT_START ? parseJsonLine(line) :
+                parseCsvLine(line);
+        return parsed && mName != null && !mName.isEmpty() && (mPasswordLength == null ||
+                mPasswordLength >= Constants.MIN_PASSWORD_LENGTH &&
+                        mPasswordLength <= Constants.MAX_PASSWORD_LENGTH) &&
+                (mHashCounter == null || mHashCounter >= 0);
+    }
+
+    /**
+     * Check if a line is the header of a CSV file
+     *
+     * @param line the line, which must not be blank
+     * @return true if the line contains the column names
+     */
+    boolean isCsvHeader(String line) {
+        // The other columns are not checked, as they would not be valid values
+        return line.trim().charAt(0) != JSON_OBJECT_START && splitCsvLine(line) &&
+                COLUMN_NAME.equalsIgnoreCase(getField(CSV_COLUMN_NAME));
+    }
+
+    String getName() {
+        return mName;
+    }
+
+    String getSite() {
+        return mSite;
+    }
+
+    Integer getPasswordLength() {
+        return mPasswordLength;
+    }
+
+    PasswordType getPasswordType() {
+        return mPasswordType;
+    }
+
+    Integer getHashCounter() {
+        return mHashCounter;
+    }
+
+    /**
+     * Read the values of a JSON object in a single line, whose keys are the CSV column names
+     */
+    private boolean parseJsonLine(String line) {
+        try {
+            JSONObject object = new JSONObject(line);
+            mName = object.isNull(COLUMN_NAME) ? null : object.getString(COLUMN_NAME);
+            mSite = object.isNull(COLUMN_SITE) ? null : object.getString(COLUMN_SITE);
+            mPasswordLength = object.isNull(COLUMN_PASSWORD_LENGTH) ? null :
+                    object.getInt(COLUMN_PASSWORD_LENGTH);
+            mPasswordType = object.isNull(COLUMN_PASSWORD_TYPE) ? null :
+                    parsePasswordType(object.getString(COLUMN_PASSWORD_TYPE));
+            mHashCounter = object.isNull(COLUMN_HASH_COUNTER) ? null :
+                    object.getInt(COLUMN_HASH_COUNTER);
+            return true;
+        } catch (JSONException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Read the values of a CSV line
+     */
+    private boolean parseCsvLine(String line) {
+        if (!splitCsvLine(line)) {
+            return false;
+        }
+
+        try {
+            mName = getField(CSV_COLUMN_NAME);
+            mSite = getField(CSV_COLUMN_SITE);
+            String passwordLength = getField(CSV_COLUMN_PASSWORD_LENGTH);
+            mPasswordLength = passwordLength == null ? null : Integer.valueOf(passwordLength);
+            String passwordType = getField(CSV_COLUMN_PASSWORD_TYPE);
+            mPasswordType = passwordType == null ? null : parsePasswordType(passwordType);
+            String hashCounter = getField(CSV_COLUMN_HASH_COUNTER);
+            mHashCounter = hashCounter == null ? null : Integer.valueOf(hashCounter);
+            return true;
+        } catch (IllegalArgumentException e) {
+            // Also thrown for invalid numbers
+            return false;
+        }
+    }
+
+    /**
+     * Split a CSV line into its fields. Fields may be quoted, with quotes escaped by doubling
+     * them, but they can not contain line breaks.
+     *
+     * @return false if a quoted field is not closed
+     */
+    private boolean splitCsvLine(String line) {
+        mFields.clear();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != CSV_QUOTE) {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == CSV_QUOTE) {
+                    field.append(CSV_QUOTE);
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == CSV_QUOTE) {
+                quoted = true;
+            } else if (c == CSV_SEPARATOR) {
+                mFields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        mFields.add(field.toString().trim());
+        return !quoted;
+    }
+
+    /**
+     * Return a CSV field, or null if it is missing or empty
+     */
+    private String getField(int column) {
+        if (column >= mFields.size() || mFields.get(column).isEmpty()) {
+            return null;
+        }
+        return mFields.get(column);
+    }
+
+    /**
+     * Parse a password type from its name or its ordinal
+     *
+     * @throws IllegalArgumentException if it is not a valid password type
+     */
+    private static PasswordType parsePasswordType(String value) {
+        PasswordType[] types = PasswordType.values();
+        if (!value.isEmpty() && Character.isDigit(value.charAt(0))) {
+            int ordinal = Integer.parseInt(value);
+            if (ordinal >= types.length) {
+                throw new IllegalArgumentException("Invalid password type " + value);
+            }
+            return types[ordinal];
+        }
+        return PasswordType.valueOf(value.trim().toUpperCase(Locale.US));
+    }
+}
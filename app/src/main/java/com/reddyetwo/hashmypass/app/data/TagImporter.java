@@ -0,0 +1,224 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.reddyetwo.hashmypass.app.TwikApplication;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Importer of the tags of a profile from a stream of CSV or JSON lines, used by
+ * {@link TagSettings#importTags(android.content.Context, long, java.io.InputStream,
+ * TagSettings.ImportProgressListener)}.
+ * <p/>
+ * Tags are read line by line and written with two compiled statements in a single
+ * transaction. A tag whose name already exists in the profile is updated, keeping its ID, and
+ * any other tag is inserted: the SQLite version of older devices does not support upserts, and
+ * replacing the row would change the ID.
+ */
+final class TagImporter {
+
+    private static final String CHARSET = "UTF-8";
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+    private static final int PROGRESS_INTERVAL = 100;
+
+    // Missing values keep the stored ones, and hash counters never decrease
+    private static final String SQL_UPDATE_TAG = "UPDATE " + DataOpenHelper.TAGS_TABLE_NAME +
+            " SET " + DataOpenHelper.COLUMN_TAGS_SITE + " = COALESCE(?, " +
+            DataOpenHelper.COLUMN_TAGS_SITE + "), " + DataOpenHelper.COLUMN_TAGS_PASSWORD_LENGTH +
+            " = COALESCE(?, " + DataOpenHelper.COLUMN_TAGS_PASSWORD_LENGTH + "), " +
+            DataOpenHelper.COLUMN_TAGS_PASSWORD_TYPE + " = COALESCE(?, " +
+            DataOpenHelper.COLUMN_TAGS_PASSWORD_TYPE + "), " +
+            DataOpenHelper.COLUMN_TAGS_HASH_COUNTER + " = MAX(" +
+            DataOpenHelper.COLUMN_TAGS_HASH_COUNTER + ", ?) WHERE " +
+            DataOpenHelper.COLUMN_TAGS_PROFILE_ID + " = ? AND " + DataOpenHelper.COLUMN_TAGS_NAME +
+            " = ?";
+    private static final String SQL_INSERT_TAG = "INSERT INTO " +
+            DataOpenHelper.TAGS_TABLE_NAME + " (" + DataOpenHelper.COLUMN_TAGS_NAME + ", " +
+            DataOpenHelper.COLUMN_TAGS_PROFILE_ID + ", " + DataOpenHelper.COLUMN_TAGS_SITE +
+            ", " + DataOpenHelper.COLUMN_TAGS_PASSWORD_LENGTH + ", " +
+            DataOpenHelper.COLUMN_TAGS_PASSWORD_TYPE + ", " +
+            DataOpenHelper.COLUMN_TAGS_HASH_COUNTER + ") VALUES (?, ?, ?, ?, ?, ?)";
+
+    private final SQLiteStatement mUpdateStatement;
+    private final SQLiteStatement mInsertStatement;
+    private final long mProfileId;
+    private final Profile mProfile;
+    private final TagImportParser mParser = new TagImportParser();
+
+    private TagImporter(SQLiteDatabase db, Profile profile) {
+        mUpdateStatement = db.compileStatement(SQL_UPDATE_TAG);
+        mInsertStatement = db.compileStatement(SQL_INSERT_TAG);
+        mProfile = profile;
+        mProfileId = profile.getId();
+    }
+
+    /**
+     * Import tags in a profile, see
+     * {@link TagSettings#importTags(android.content.Context, long, java.io.InputStream,
+     * TagSettings.ImportProgressListener)}
+     */
+    static int importTags(Context context, long profileId, InputStream input,
+                          TagSettings.ImportProgressListener listener) throws IOException {
+        Profile profile = ProfileSettings.getProfile(context, profileId);
+        if (profile == null) {
+            throw new IllegalArgumentException("Profile " + profileId + " does not exist");
+        }
+
+        // Stored hash counters may be updated
+        HashCounterJournal.flush(context);
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getWritableDatabase();
+        TagImporter importer = new TagImporter(db, profile);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, CHARSET));
+        int importedCount = 0;
+        int skippedCount = 0;
+        boolean cancelled = false;
+        db.beginTransactionNonExclusive();
+        try {
+            String line = reader.readLine();
+            if (line != null && !line.isEmpty() && line.charAt(0) == BYTE_ORDER_MARK) {
+                line = line.substring(1);
+            }
+            boolean firstRecord = true;
+            for (; line != null; line = reader.readLine()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    cancelled = true;
+                    break;
+                }
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                if (firstRecord) {
+                    // CSV files may start with the column names
+                    firstRecord = false;
+                    if (importer.mParser.isCsvHeader(line)) {
+                        continue;
+                    }
+                }
+
+                if (importer.importLine(line)) {
+                    importedCount++;
+                    if (listener != null && importedCount % PROGRESS_INTERVAL == 0) {
+                        listener.onImportProgress(importedCount);
+                    }
+                } else {
+                    skippedCount++;
+                }
+            }
+            if (!cancelled) {
+                db.setTransactionSuccessful();
+            }
+        } finally {
+            db.endTransaction();
+            importer.close();
+            // Cached tags may have been updated
+            TagRepository.clear();
+        }
+
+        if (cancelled) {
+            return TagSettings.IMPORT_CANCELLED;
+        }
+        if (skippedCount > 0) {
+            Log.d(TwikApplication.LOG_TAG, "Skipped " + skippedCount + " invalid tags in import");
+        }
+        if (listener != null) {
+            listener.onImportProgress(importedCount);
+        }
+        return importedCount;
+    }
+
+    private void close() {
+        mUpdateStatement.close();
+        mInsertStatement.close();
+    }
+
+    /**
+     * Import a tag from a CSV or JSON line
+     *
+     * @return true if the tag has been imported, false if it is invalid
+     */
+    private boolean importLine(String line) {
+        if (!mParser.parse(line)) {
+            return false;
+        }
+
+        try {
+            if (!updateTag()) {
+                insertTag();
+            }
+            return true;
+        } catch (SQLiteConstraintException e) {
+            // The site is already used by another tag of the profile
+            return false;
+        }
+    }
+
+    private boolean updateTag() {
+        PasswordType passwordType = mParser.getPasswordType();
+        Integer hashCounter = mParser.getHashCounter();
+        bindStringOrNull(mUpdateStatement, 1, mParser.getSite());
+        bindLongOrNull(mUpdateStatement, 2, mParser.getPasswordLength());
+        bindLongOrNull(mUpdateStatement, 3, passwordType == null ? null : passwordType.ordinal());
+        mUpdateStatement.bindLong(4, hashCounter == null ? 0 : hashCounter);
+        mUpdateStatement.bindLong(5, mProfileId);
+        mUpdateStatement.bindString(6, mParser.getName());
+        return mUpdateStatement.executeUpdateDelete() > 0;
+    }
+
+    private void insertTag() {
+        Integer passwordLength = mParser.getPasswordLength();
+        PasswordType passwordType = mParser.getPasswordType();
+        Integer hashCounter = mParser.getHashCounter();
+        mInsertStatement.bindString(1, mParser.getName());
+        mInsertStatement.bindLong(2, mProfileId);
+        bindStringOrNull(mInsertStatement, 3, mParser.getSite());
+        mInsertStatement.bindLong(4, passwordLength == null ? mProfile.getPasswordLength() :
+                passwordLength);
+        mInsertStatement.bindLong(5, (passwordType == null ? mProfile.getPasswordType() :
+                passwordType).ordinal());
+        mInsertStatement.bindLong(6, hashCounter == null ? 0 : hashCounter);
+        mInsertStatement.executeInsert();
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private static void bindLongOrNull(SQLiteStatement statement, int index, Integer value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, value);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.data;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory copy of the profiles and their tags, loaded from the database the first time a
+ * profile is read.
+ * <p/>
+ * {@link com.reddyetwo.hashmypass.app.data.TagSettings} and
+ * {@link com.reddyetwo.hashmypass.app.data.ProfileSettings} serve reads from here and write
+ * through to it after each successful database write, so the repository never holds data
+ * which is not stored. The tags of a profile are indexed by ID, name and site. Stored
+ * instances are never handed out: reads return copies and writes store copies. It is
+ * thread-safe.
+ */
+final class TagRepository {
+
+    private static final Object mLock = new Object();
+    private static final Map<Long, ProfileEntry> mProfiles = new HashMap<>();
+
+    private TagRepository() {
+
+    }
+
+    /**
+     * Get a profile
+     *
+     * @param context   the {@link android.content.Context} instance
+     * @param profileId the profile ID
+     * @return a copy of the profile, or null if it does not exist
+     */
+    static Profile getProfile(Context context, long profileId) {
+        synchronized (mLock) {
+            ProfileEntry entry = getProfileEntry(context, profileId);
+            return entry == null ? null : copy(entry.mProfile);
+        }
+    }
+
+    /**
+     * Store a profile which has been inserted or updated in the database
+     *
+     * @param profile the profile
+     */
+    static void putProfile(Profile profile) {
+        synchronized (mLock) {
+            ProfileEntry entry = mProfiles.get(profile.getId());
+            if (entry == null) {
+                mProfiles.put(profile.getId(), new ProfileEntry(copy(profile)));
+            } else {
+                entry.mProfile = copy(profile);
+            }
+        }
+    }
+
+    /**
+     * Remove a profile and its tags which have been deleted from the database
+     *
+     * @param profileId the profile ID
+     */
+    static void removeProfile(long profileId) {
+        synchronized (mLock) {
+            mProfiles.remove(profileId);
+        }
+    }
+
+    /**
+     * Get the tags of a profile, in no particular order
+     *
+     * @param context   the {@link android.content.Context} instance
+     * @param profileId the profile ID
+     * @return copies of the tags, which are empty if the profile does not exist
+     */
+    static List<Tag> getTags(Context context, long profileId) {
+        synchronized (mLock) {
+            List<Tag> tags = new ArrayList<>();
+            ProfileEntry entry = getTagsEntry(context, profileId);
+            if (entry != null) {
+                for (Tag tag : entry.mTagsById.values()) {
+                    tags.add(new Tag(tag));
+                }
+            }
+            return tags;
+        }
+    }
+
+    /**
+     * Get a tag of a profile by name
+     *
+     * @param context   the {@link android.content.Context} instance
+     * @param profileId the profile ID
+     * @param name      the tag name
+     * @return a copy of the tag, a tag with NO_ID and the profile default settings if not
+     * found, or null if the profile does not exist
+     */
+    static Tag getTag(Context context, long profileId, String name) {
+        synchronized (mLock) {
+            ProfileEntry entry = getTagsEntry(context, profileId);
+            if (entry == null) {
+                return null;
+            }
+            Tag tag = entry.mTagsByName.get(name);
+            if (tag == null) {
+                return new Tag(Tag.NO_ID, profileId, 0, null, name,
+                        entry.mProfile.getPasswordLength(), entry.mProfile.getPasswordType());
+            }
+            return new Tag(tag);
+        }
+    }
+
+    /**
+     * Get a tag by ID
+     *
+     * @param context the {@link android.content.Context} instance
+     * @param tagId   the tag ID
+     * @return a copy of the tag, or null if not found
+     */
+    static Tag getTag(Context context, long tagId) {
+        synchronized (mLock) {
+            for (ProfileEntry entry : mProfiles.values()) {
+                if (entry.mTagsById != null && entry.mTagsById.containsKey(tagId)) {
+                    return new Tag(entry.mTagsById.get(tagId));
+                }
+            }
+            // The tag belongs to a profile whose tags have not been loaded
+            Tag tag = TagSettings.queryTag(context, tagId);
+            if (tag == null) {
+                return null;
+            }
+            ProfileEntry entry = getTagsEntry(context, tag.getProfileId());
+            return entry == null ? null : copy(entry.mTagsById.get(tagId));
+        }
+    }
+
+    /**
+     * Get the tag of a profile associated to a site
+     *
+     * @param context   the {@link android.content.Context} instance
+     * @param profileId the profile ID
+     * @param site      the site identifier
+     * @return a copy of the tag, or null if not found
+     */
+    static Tag getSiteTag(Context context, long profileId, String site) {
+        synchronized (mLock) {
+            ProfileEntry entry = getTagsEntry(context, profileId);
+            return entry == null ? null : copy(entry.mTagsBySite.get(site));
+        }
+    }
+
+    /**
+     * Store a tag which has been inserted or updated in the database
+     *
+     * @param tag the tag
+     */
+    static void putTag(Tag tag) {
+        synchronized (mLock) {
+            ProfileEntry entry = mProfiles.get(tag.getProfileId());
+            if (entry != null && entry.mTagsById != null) {
+                entry.remove(tag.getId());
+                entry.add(new Tag(tag));
+            }
+        }
+    }
+
+    /**
+     * Increase the hash counter of a tag by one
+     *
+     * @param tag the tag, with the increased hash counter
+     */
+    static void increaseHashCounter(Tag tag) {
+        synchronized (mLock) {
+            ProfileEntry entry = mProfiles.get(tag.getProfileId());
+            if (entry != null && entry.mTagsById != null) {
+                Tag storedTag = entry.mTagsById.get(tag.getId());
+                if (storedTag != null) {
+                    storedTag.setHashCounter(storedTag.getHashCounter() + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove a tag which has been deleted from the database
+     *
+     * @param tag the tag
+     */
+    static void removeTag(Tag tag) {
+        synchronized (mLock) {
+            ProfileEntry entry = mProfiles.get(tag.getProfileId());
+            if (entry != null && entry.mTagsById != null) {
+                entry.remove(tag.getId());
+            }
+        }
+    }
+
+    /**
+     * Drop everything, so that it is loaded again from the database
+     */
+    static void clear() {
+        synchronized (mLock) {
+            mProfiles.clear();
+        }
+    }
+
+    private static ProfileEntry getProfileEntry(Context context, long profileId) {
+        ProfileEntry entry = mProfiles.get(profileId);
+        if (entry == null) {
+            Profile profile = ProfileSettings.queryProfile(context, profileId);
+            if (profile != null) {
+                entry = new ProfileEntry(profile);
+                mProfiles.put(profileId, entry);
+            }
+        }
+        return entry;
+    }
+
+    private static ProfileEntry getTagsEntry(Context context, long profileId) {
+        ProfileEntry entry = getProfileEntry(context, profileId);
+        if (entry != null && entry.mTagsById == null) {
+            entry.load(TagSettings.queryProfileTags(context, profileId));
+        }
+        return entry;
+    }
+
+    private static Profile copy(Profile profile) {
+        return new Profile(profile.getId(), profile.getName(), profile.getPrivateKey(),
+                profile.getPasswordLength(), profile.getPasswordType(), profile.getColorIndex());
+    }
+
+    private static Tag copy(Tag tag) {
+        return tag == null ? null : new Tag(tag);
+    }
+
+    /**
+     * A profile and its tags, which are loaded the first time they are needed
+     */
+    private static class ProfileEntry {
+
+        private Profile mProfile;
+        private Map<Long, Tag> mTagsById;
+        private Map<String, Tag> mTagsByName;
+        private Map<String, Tag> mTagsBySite;
+
+        public ProfileEntry(Profile profile) {
+            mProfile = profile;
+        }
+
+        public void load(Collection<Tag> tags) {
+            mTagsById = new HashMap<>();
+            mTagsByName = new HashMap<>();
+            mTagsBySite = new HashMap<>();
+            for (Tag tag : tags) {
+                add(tag);
+            }
+        }
+
+        public void add(Tag tag) {
+            mTagsById.put(tag.getId(), tag);
+            mTagsByName.put(tag.getName(), tag);
+            if (tag.getSite() != null) {
+                mTagsBySite.put(tag.getSite(), tag);
+            }
+        }
+
+        public void remove(long tagId) {
+            Tag tag = mTagsById.remove(tagId);
+            if (tag == null) {
+                return;
+            }
+            // Only remove the index entries which still point to this tag
+            if (mTagsByName.get(tag.getName()) == tag) {
+                mTagsByName.remove(tag.getName());
+            }
+            if (tag.getSite() != null && mTagsBySite.get(tag.getSite()) == tag) {
+                mTagsBySite.remove(tag.getSite());
+            }
+        }
+    }
+}
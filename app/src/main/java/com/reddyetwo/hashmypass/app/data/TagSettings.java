@@ -23,9 +23,19 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 
+import com.reddyetwo.hashmypass.app.TwikApplication;
+
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * Class to get/add/delete/update {@link com.reddyetwo.hashmypass.app.data.Tag} from storage
@@ -37,12 +47,106 @@ public class TagSettings {
 
     public static final int LIMIT_UNBOUNDED = -1;
 
+    // Results of importTags which are not a number of tags
+    public static final int IMPORT_CANCELLED = -1;
+    public static final int IMPORT_FAILED = -2;
+
+    private static final int ASCII_CASE_OFFSET = 'a' - 'A';
+    private static final char ASCII_MAX = 0x7f;
+    // Offsets which move the surrogates after the chars from U+E000 to U+FFFF
+    private static final int SURROGATE_ORDER_OFFSET = 0x2000;
+    private static final int NON_SURROGATE_ORDER_OFFSET = -0x800;
+    // Number of tags above which the tag list of a profile is read in pages
+    private static final int PAGED_LIST_MIN_TAGS = 1000;
+
+    // Columns of a tag row, in the order returned by the tag queries
+    private static final String TAG_COLUMNS =
+            DataOpenHelper.COLUMN_ID + ", " + DataOpenHelper.COLUMN_TAGS_PROFILE_ID + ", " +
+                    DataOpenHelper.COLUMN_TAGS_HASH_COUNTER + ", " +
+                    DataOpenHelper.COLUMN_TAGS_SITE + ", " + DataOpenHelper.COLUMN_TAGS_NAME +
+                    ", " + DataOpenHelper.COLUMN_TAGS_PASSWORD_LENGTH + ", " +
+                    DataOpenHelper.COLUMN_TAGS_PASSWORD_TYPE;
+    private static final int TAG_COLUMN_ID = 0;
+    private static final int TAG_COLUMN_PROFILE_ID = 1;
+    private static final int TAG_COLUMN_HASH_COUNTER = 2;
+    private static final int TAG_COLUMN_SITE = 3;
+    private static final int TAG_COLUMN_NAME = 4;
+    private static final int TAG_COLUMN_PASSWORD_LENGTH = 5;
+    private static final int TAG_COLUMN_PASSWORD_TYPE = 6;
+
+    // Parameterized queries, so that their compiled statements are reused
+    private static final String SQL_SELECT_TAG_BY_ID =
+            "SELECT " + TAG_COLUMNS + " FROM " + DataOpenHelper.TAGS_TABLE_NAME + " WHERE " +
+                    DataOpenHelper.COLUMN_ID + " = ?";
+    private static final String SQL_SELECT_PROFILE_TAGS =
+            "SELECT " + TAG_COLUMNS + " FROM " + DataOpenHelper.TAGS_TABLE_NAME + " WHERE " +
+                    DataOpenHelper.COLUMN_TAGS_PROFILE_ID + " = ?";
+    private static final String SQL_COUNT_PROFILE_TAGS =
+            "SELECT COUNT(*) FROM " + DataOpenHelper.TAGS_TABLE_NAME + " WHERE " +
+                    DataOpenHelper.COLUMN_TAGS_PROFILE_ID + " = ?";
+    private static final String SQL_SITE_HAS_TAGS =
+            "SELECT EXISTS (SELECT 1 FROM " + DataOpenHelper.TAGS_TABLE_NAME + " WHERE " +
+                    DataOpenHelper.COLUMN_TAGS_SITE + " = ?)";
+
+    // Tags of a profile whose name or site match a full-text query, ranked by usage
+    private static final String SQL_SEARCH_PROFILE_TAGS =
+            SQL_SELECT_PROFILE_TAGS + " AND " + DataOpenHelper.COLUMN_ID + " IN (SELECT " +
+                    DataOpenHelper.COLUMN_TAGS_SEARCH_DOCID + " FROM " +
+                    DataOpenHelper.TAGS_SEARCH_TABLE_NAME + " WHERE " +
+                    DataOpenHelper.TAGS_SEARCH_TABLE_NAME + " MATCH ?)";
+
+    // Pages of the tags of a profile. The next page is found from the last tag of the
+    // previous one, which is a range search in the ordering indexes.
+    private static final String SQL_ORDER_BY_HASH_COUNTER =
+            " ORDER BY " + DataOpenHelper.COLUMN_TAGS_HASH_COUNTER + " DESC, " +
+                    DataOpenHelper.COLUMN_ID + " LIMIT ?";
+    private static final String SQL_ORDER_BY_NAME =
+            " ORDER BY " + DataOpenHelper.COLUMN_TAGS_NAME + " COLLATE NOCASE, " +
+                    DataOpenHelper.COLUMN_ID + " LIMIT ?";
+    private static final String SQL_SEARCH_PROFILE_TAGS_BY_HASH_COUNTER =
+            SQL_SEARCH_PROFILE_TAGS + SQL_ORDER_BY_HASH_COUNTER;
+    private static final String SQL_SELECT_PAGE_BY_HASH_COUNTER =
+            SQL_SELECT_PROFILE_TAGS + SQL_ORDER_BY_HASH_COUNTER + " OFFSET ?";
+    private static final String SQL_SELECT_PAGE_BY_NAME =
+            SQL_SELECT_PROFILE_TAGS + SQL_ORDER_BY_NAME + " OFFSET ?";
+    private static final String SQL_SELECT_NEXT_PAGE_BY_HASH_COUNTER =
+            SQL_SELECT_PROFILE_TAGS + " AND " + DataOpenHelper.COLUMN_TAGS_HASH_COUNTER +
+                    " <= ? AND (" + DataOpenHelper.COLUMN_TAGS_HASH_COUNTER + " < ? OR " +
+                    DataOpenHelper.COLUMN_ID + " > ?)" + SQL_ORDER_BY_HASH_COUNTER;
+    private static final String SQL_SELECT_NEXT_PAGE_BY_NAME =
+            SQL_SELECT_PROFILE_TAGS + " AND " + DataOpenHelper.COLUMN_TAGS_NAME +
+                    " >= ? COLLATE NOCASE AND (" + DataOpenHelper.COLUMN_TAGS_NAME +
+                    " > ? COLLATE NOCASE OR " + DataOpenHelper.COLUMN_ID + " > ?)" +
+                    SQL_ORDER_BY_NAME;
+
+    /**
+     * Comparator which sorts tags by usage, matching {@link #ORDER_BY_HASH_COUNTER}
+     */
+    private static final Comparator<Tag> HASH_COUNTER_COMPARATOR = new Comparator<Tag>() {
+        @Override
+        public int compare(Tag lhs, Tag rhs) {
+            int result = compareInts(rhs.getHashCounter(), lhs.getHashCounter());
+            return result != 0 ? result : compareLongs(lhs.getId(), rhs.getId());
+        }
+    };
+
+    /**
+     * Comparator which sorts tags by name, matching {@link #ORDER_BY_NAME}
+     */
+    private static final Comparator<Tag> NAME_COMPARATOR = new Comparator<Tag>() {
+        @Override
+        public int compare(Tag lhs, Tag rhs) {
+            int result = compareNoCase(lhs.getName(), rhs.getName());
+            return result != 0 ? result : compareLongs(lhs.getId(), rhs.getId());
+        }
+    };
+
     private TagSettings() {
 
     }
 
     /**
-     * Get tag settings from database
+     * Get tag settings
      *
      * @param context   The application context
      * @param profileID The profile ID
@@ -51,76 +155,18 @@ public class TagSettings {
      * settings if not found
      */
     public static Tag getTag(Context context, long profileID, String name) {
-        DataOpenHelper helper = new DataOpenHelper(context);
-        SQLiteDatabase db = helper.getReadableDatabase();
-        Cursor cursor = db.query(DataOpenHelper.TAGS_TABLE_NAME,
-                new String[]{DataOpenHelper.COLUMN_ID, DataOpenHelper.COLUMN_TAGS_SITE,
-                        DataOpenHelper.COLUMN_TAGS_HASH_COUNTER,
-                        DataOpenHelper.COLUMN_TAGS_PASSWORD_LENGTH,
-                        DataOpenHelper.COLUMN_TAGS_PASSWORD_TYPE},
-                DataOpenHelper.COLUMN_TAGS_PROFILE_ID + "=" +
-                        profileID + " AND " + DataOpenHelper.COLUMN_TAGS_NAME +
-                        " = ?", new String[]{name}, null, null, null);
-
-        Tag tag = null;
-        if (cursor.moveToFirst()) {
-            // Specific tag settings found
-            tag = new Tag(cursor.getLong(cursor.getColumnIndex(DataOpenHelper.COLUMN_ID)),
-                    profileID,
-                    cursor.getInt(cursor.getColumnIndex(DataOpenHelper.COLUMN_TAGS_HASH_COUNTER)),
-                    cursor.getString(cursor.getColumnIndex(DataOpenHelper.COLUMN_TAGS_SITE)), name,
-                    cursor.getInt(
-                            cursor.getColumnIndex(DataOpenHelper.COLUMN_TAGS_PASSWORD_LENGTH)),
-                    PasswordType.values()[cursor.getInt(cursor
-                            .getColumnIndex(DataOpenHelper.COLUMN_TAGS_PASSWORD_TYPE))]);
-        } else {
-            // Tag settings not found, use profile settings
-            Profile profile = ProfileSettings.getProfile(context, profileID);
-            if (profile != null) {
-                tag = new Tag(Tag.NO_ID, profileID, 0, null, name, profile.getPasswordLength(),
-                        profile.getPasswordType());
-            }
-        }
-
-        cursor.close();
-        db.close();
-        return tag;
+        return TagRepository.getTag(context, profileID, name);
     }
 
     /**
-     * Get tag settings from database
+     * Get tag settings
      *
      * @param context The application context
      * @param tagId   the tag ID
      * @return the tag settings, or null if not found
      */
     public static Tag getTag(Context context, long tagId) {
-        DataOpenHelper helper = new DataOpenHelper(context);
-        SQLiteDatabase db = helper.getReadableDatabase();
-        Cursor cursor = db.query(DataOpenHelper.TAGS_TABLE_NAME,
-                new String[]{DataOpenHelper.COLUMN_TAGS_PROFILE_ID, DataOpenHelper.COLUMN_TAGS_NAME,
-                        DataOpenHelper.COLUMN_TAGS_HASH_COUNTER, DataOpenHelper.COLUMN_TAGS_SITE,
-                        DataOpenHelper.COLUMN_TAGS_PASSWORD_LENGTH,
-                        DataOpenHelper.COLUMN_TAGS_PASSWORD_TYPE}, DataOpenHelper.COLUMN_ID + "=" +
-                        tagId, null, null, null, null);
-
-        Tag tag = null;
-        if (cursor.moveToFirst()) {
-            // Specific tag settings found
-            tag = new Tag(tagId,
-                    cursor.getLong(cursor.getColumnIndex(DataOpenHelper.COLUMN_TAGS_PROFILE_ID)),
-                    cursor.getInt(cursor.getColumnIndex(DataOpenHelper.COLUMN_TAGS_HASH_COUNTER)),
-                    cursor.getString(cursor.getColumnIndex(DataOpenHelper.COLUMN_TAGS_SITE)),
-                    cursor.getString(cursor.getColumnIndex(DataOpenHelper.COLUMN_TAGS_NAME)),
-                    cursor.getInt(
-                            cursor.getColumnIndex(DataOpenHelper.COLUMN_TAGS_PASSWORD_LENGTH)),
-                    PasswordType.values()[cursor.getInt(cursor
-                            .getColumnIndex(DataOpenHelper.COLUMN_TAGS_PASSWORD_TYPE))]);
-        }
-
-        cursor.close();
-        db.close();
-        return tag;
+        return TagRepository.getTag(context, tagId);
     }
 
     /**
@@ -131,8 +177,7 @@ public class TagSettings {
      * @return the ID of the new tag, or -1 if an error occurred
      */
     public static long insertTag(Context context, Tag tag) {
-        DataOpenHelper helper = new DataOpenHelper(context);
-        SQLiteDatabase db = helper.getWritableDatabase();
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getWritableDatabase();
 
         ContentValues values = new ContentValues();
         values.put(DataOpenHelper.COLUMN_TAGS_NAME, tag.getName());
@@ -144,7 +189,9 @@ public class TagSettings {
 
         long id = db.insertOrThrow(DataOpenHelper.TAGS_TABLE_NAME, null, values);
 
-        db.close();
+        Tag storedTag = new Tag(tag);
+        storedTag.setId(id);
+        TagRepository.putTag(storedTag);
         return id;
     }
 
@@ -156,8 +203,9 @@ public class TagSettings {
      * @return true if success, false in case of error
      */
     public static boolean updateTag(Context context, Tag tag) {
-        DataOpenHelper helper = new DataOpenHelper(context);
-        SQLiteDatabase db = helper.getWritableDatabase();
+        // The hash counter of the tag already includes the pending increments
+        HashCounterJournal.flush(context);
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getWritableDatabase();
 
         ContentValues values = new ContentValues();
         values.put(DataOpenHelper.COLUMN_TAGS_NAME, tag.getName());
@@ -170,7 +218,9 @@ public class TagSettings {
                 db.update(DataOpenHelper.TAGS_TABLE_NAME, values, DataOpenHelper.COLUMN_ID + " = ?",
                         new String[]{Long.toString(tag.getId())}) > 0;
 
-        db.close();
+        if (updated) {
+            TagRepository.putTag(tag);
+        }
         return updated;
     }
 
@@ -182,16 +232,42 @@ public class TagSettings {
      * @return true if success, false in case of error
      */
     public static boolean deleteTag(Context context, Tag tag) {
-        DataOpenHelper helper = new DataOpenHelper(context);
-        SQLiteDatabase db = helper.getWritableDatabase();
-        boolean deleted = db.delete(DataOpenHelper.TAGS_TABLE_NAME, "_id=" + tag.getId() + " AND " +
-                DataOpenHelper.COLUMN_TAGS_PROFILE_ID +
-                "=" + tag.getProfileId(), null) > 0;
-
-        db.close();
+        // Pending increments must not be applied to a new tag which reuses the ID
+        HashCounterJournal.flush(context);
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getWritableDatabase();
+        boolean deleted = db.delete(DataOpenHelper.TAGS_TABLE_NAME,
+                DataOpenHelper.COLUMN_ID + " = ? AND " + DataOpenHelper.COLUMN_TAGS_PROFILE_ID +
+                        " = ?", new String[]{Long.toString(tag.getId()),
+                        Long.toString(tag.getProfileId())}) > 0;
+
+        if (deleted) {
+            TagRepository.removeTag(tag);
+        }
         return deleted;
     }
 
+    /**
+     * Increase the hash counter of a stored tag by one. The database is updated later, in
+     * batches, unlike {@link #updateTag(android.content.Context, Tag)}.
+     *
+     * @param context the {@link android.content.Context} instance
+     * @param tag     the tag, whose hash counter is also increased
+     */
+    public static void increaseHashCounter(Context context, Tag tag) {
+        tag.setHashCounter(tag.getHashCounter() + 1);
+        HashCounterJournal.increment(context, tag.getId());
+        TagRepository.increaseHashCounter(tag);
+    }
+
+    /**
+     * Write the pending hash counter increments to the database in a background thread
+     *
+     * @param context the {@link android.content.Context} instance
+     */
+    public static void flushHashCounters(Context context) {
+        HashCounterJournal.flushInBackground(context);
+    }
+
     /**
      * Return an ordered list of tags of a profile
      *
@@ -204,58 +280,30 @@ public class TagSettings {
     @SuppressWarnings("SameParameterValue")
     public static List<Tag> getProfileTags(Context context, long profileId, int orderBy,
                                            int limit) {
-        DataOpenHelper helper = new DataOpenHelper(context);
-        SQLiteDatabase db = helper.getReadableDatabase();
-
-        String orderClause = "";
-        switch (orderBy) {
-            case ORDER_BY_HASH_COUNTER:
-                orderClause = DataOpenHelper.COLUMN_TAGS_HASH_COUNTER + " " +
-                        "DESC";
-                break;
-            case ORDER_BY_NAME:
-                orderClause = DataOpenHelper.COLUMN_TAGS_NAME + " COLLATE " +
-                        "NOCASE";
-                break;
-            default:
+        List<Tag> tagList = TagRepository.getTags(context, profileId);
+        Comparator<Tag> comparator = getTagComparator(orderBy);
+        if (comparator != null) {
+            Collections.sort(tagList, comparator);
         }
-        String limitClause = null;
-        if (limit != LIMIT_UNBOUNDED) {
-            limitClause = Integer.toString(limit);
+        if (limit != LIMIT_UNBOUNDED && limit < tagList.size()) {
+            tagList = new ArrayList<>(tagList.subList(0, limit));
         }
-
-        Cursor cursor = db.query(DataOpenHelper.TAGS_TABLE_NAME,
-                new String[]{DataOpenHelper.COLUMN_ID, DataOpenHelper.COLUMN_TAGS_HASH_COUNTER,
-                        DataOpenHelper.COLUMN_TAGS_SITE, DataOpenHelper.COLUMN_TAGS_NAME,
-                        DataOpenHelper.COLUMN_TAGS_PASSWORD_LENGTH,
-                        DataOpenHelper.COLUMN_PROFILES_PASSWORD_TYPE},
-                DataOpenHelper.COLUMN_TAGS_PROFILE_ID + "= ?",
-                new String[]{Long.toString(profileId)}, null, null, orderClause, limitClause);
-
-        List<Tag> tagList = new ArrayList<>();
-        if (cursor.moveToFirst()) {
-            do {
-                long tagId = cursor.getLong(cursor.getColumnIndex(DataOpenHelper.COLUMN_ID));
-                int hashCounter = cursor.getInt(
-                        cursor.getColumnIndex(DataOpenHelper.COLUMN_TAGS_HASH_COUNTER));
-                String site =
-                        cursor.getString(cursor.getColumnIndex(DataOpenHelper.COLUMN_TAGS_SITE));
-                String name =
-                        cursor.getString(cursor.getColumnIndex(DataOpenHelper.COLUMN_TAGS_NAME));
-                int passwordLength = cursor.getInt(
-                        cursor.getColumnIndex(DataOpenHelper.COLUMN_TAGS_PASSWORD_LENGTH));
-                PasswordType passwordType = PasswordType.values()[cursor
-                        .getInt(cursor.getColumnIndex(DataOpenHelper.COLUMN_TAGS_PASSWORD_TYPE))];
-                tagList.add(new Tag(tagId, profileId, hashCounter, site, name, passwordLength,
-                        passwordType));
-            } while (cursor.moveToNext());
-        }
-
-        cursor.close();
-        db.close();
         return tagList;
     }
 
+    /**
+     * Return the number of tags of a profile, which is read from the database
+     *
+     * @param context   the {@link android.content.Context} instance
+     * @param profileId the profile ID
+     * @return the number of tags
+     */
+    public static int getProfileTagCount(Context context, long profileId) {
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getReadableDatabase();
+        return (int) StatementCache
+                .queryForLong(db, SQL_COUNT_PROFILE_TAGS, 0, Long.toString(profileId));
+    }
+
     /**
      * Get the tag for a site
      *
@@ -265,26 +313,50 @@ public class TagSettings {
      * @return the tag
      */
     public static Tag getSiteTag(Context context, long profileId, String site) {
-        DataOpenHelper helper = new DataOpenHelper(context);
-        SQLiteDatabase db = helper.getReadableDatabase();
-        Cursor cursor = db.query(DataOpenHelper.TAGS_TABLE_NAME,
-                new String[]{DataOpenHelper.COLUMN_TAGS_NAME},
-                DataOpenHelper.COLUMN_TAGS_PROFILE_ID + "=" + profileId + " " +
-                        "AND " + DataOpenHelper.COLUMN_TAGS_SITE + " = ?", new String[]{site}, null,
-                null, null);
+        return TagRepository.getSiteTag(context, profileId, site);
+    }
+
+    /**
+     * Read a tag from the database
+     *
+     * @param context the {@link android.content.Context} instance
+     * @param tagId   the tag ID
+     * @return the tag, or null if not found
+     */
+    static Tag queryTag(Context context, long tagId) {
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getReadableDatabase();
+        Cursor cursor = db.rawQuery(SQL_SELECT_TAG_BY_ID, new String[]{Long.toString(tagId)});
 
         Tag tag = null;
         if (cursor.moveToFirst()) {
-            String tagName =
-                    cursor.getString(cursor.getColumnIndex(DataOpenHelper.COLUMN_TAGS_NAME));
-            tag = getTag(context, profileId, tagName);
+            tag = readTag(context, cursor);
         }
 
         cursor.close();
-        db.close();
         return tag;
     }
 
+    /**
+     * Read the tags of a profile from the database
+     *
+     * @param context   the {@link android.content.Context} instance
+     * @param profileId the profile ID
+     * @return the unordered list of tags
+     */
+    static List<Tag> queryProfileTags(Context context, long profileId) {
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getReadableDatabase();
+        Cursor cursor =
+                db.rawQuery(SQL_SELECT_PROFILE_TAGS, new String[]{Long.toString(profileId)});
+
+        List<Tag> tagList = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            tagList.add(readTag(context, cursor));
+        }
+
+        cursor.close();
+        return tagList;
+    }
+
     /**
      * Return true if a site has tags
      *
@@ -293,39 +365,538 @@ public class TagSettings {
      * @return true if a site has tags
      */
     public static boolean siteHasTags(Context context, String site) {
-        DataOpenHelper helper = new DataOpenHelper(context);
-        SQLiteDatabase db = helper.getReadableDatabase();
-        Cursor cursor =
-                db.query(DataOpenHelper.TAGS_TABLE_NAME, new String[]{DataOpenHelper.COLUMN_ID},
-                        DataOpenHelper.COLUMN_TAGS_SITE + " = ?", new String[]{site}, null, null,
-                        null);
-        boolean hasTags = cursor.getCount() > 0;
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getReadableDatabase();
+        return StatementCache.queryForLong(db, SQL_SITE_HAS_TAGS, 0, site) != 0;
+    }
+
+    /**
+     * Import tags in a profile from a stream of CSV or JSON lines, in a single transaction.
+     * Tags whose name already exists in the profile are updated, keeping their stored values
+     * where the imported ones are missing and their highest hash counter. Invalid tags are
+     * skipped. It must not be called from the main thread.
+     * <p/>
+     * CSV lines have the columns name, site, password_length, password_type and hash_counter,
+     * in this order and optionally preceded by a header line, and JSON lines are objects with
+     * these keys. Only the name is required, new tags get the profile settings for the
+     * missing values. The password type is either its name or its ordinal.
+     * <p/>
+     * The import is cancelled, and no tag is imported, if the thread is interrupted.
+     *
+     * @param context   the {@link android.content.Context} instance
+     * @param profileId the profile ID
+     * @param input     the UTF-8 input stream, which is not closed
+     * @param listener  the listener which is notified of the progress in this thread, or null
+     * @return the number of imported tags, or {@link #IMPORT_CANCELLED}
+     * @throws java.io.IOException if the stream can not be read, in which case no tag is
+     *                             imported
+     */
+    public static int importTags(Context context, long profileId, InputStream input,
+                                 ImportProgressListener listener) throws IOException {
+        return TagImporter.importTags(context, profileId, input, listener);
+    }
+
+    /**
+     * Search the tags of a profile whose name or site contain words starting with the words
+     * of a query, using the full-text search index. Words are made of ASCII letters, digits
+     * and non-ASCII characters, as split by the index.
+     *
+     * @param context   the {@link android.content.Context} instance
+     * @param profileId the profile ID
+     * @param query     the query, as typed by the user
+     * @param limit     the maximum number of results, or {@link #LIMIT_UNBOUNDED}
+     * @return the list of tags, sorted by usage
+     */
+    public static List<Tag> searchTags(Context context, long profileId, String query,
+                                       int limit) {
+        String match = getPrefixMatch(query);
+        if (match == null) {
+            return new ArrayList<>();
+        }
+
+        // The tags are ranked by the stored hash counters
+        HashCounterJournal.flush(context);
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getReadableDatabase();
+        Cursor cursor = db.rawQuery(SQL_SEARCH_PROFILE_TAGS_BY_HASH_COUNTER,
+                new String[]{Long.toString(profileId), match, Integer.toString(limit)});
+
+        List<Tag> tagList = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            tagList.add(readTag(context, cursor));
+        }
 
         cursor.close();
-        db.close();
-        return hasTags;
+        return tagList;
+    }
+
+    /**
+     * Read a page of the ordered list of tags of a profile from the database
+     *
+     * @param context   the {@link android.content.Context} instance
+     * @param profileId the profile ID
+     * @param orderBy   the order criterion, {@link #ORDER_BY_HASH_COUNTER} or
+     *                  {@link #ORDER_BY_NAME}
+     * @param previous  the last tag of the previous page, or null if not known
+     * @param offset    the position of the first tag of the page, used if previous is null
+     * @param limit     the maximum number of tags
+     * @return the page of tags
+     */
+    static List<Tag> queryProfileTagsPage(Context context, long profileId, int orderBy,
+                                          Tag previous, int offset, int limit) {
+        boolean byHashCounter = orderBy == ORDER_BY_HASH_COUNTER;
+        String sql;
+        String[] args;
+        if (previous == null) {
+            sql = byHashCounter ? SQL_SELECT_PAGE_BY_HASH_COUNTER : SQL_SELECT_PAGE_BY_NAME;
+            args = new String[]{Long.toString(profileId), Integer.toString(limit),
+                    Integer.toString(offset)};
+        } else {
+            sql = byHashCounter ? SQL_SELECT_NEXT_PAGE_BY_HASH_COUNTER :
+                    SQL_SELECT_NEXT_PAGE_BY_NAME;
+            // The hash counter of the tag may include increments which are not stored yet
+            String key = byHashCounter ? Integer.toString(previous.getHashCounter() -
+                    HashCounterJournal.getPendingIncrement(context, previous.getId())) :
+                    previous.getName();
+            args = new String[]{Long.toString(profileId), key, key,
+                    Long.toString(previous.getId()), Integer.toString(limit)};
+        }
+
+        SQLiteDatabase db = DataOpenHelper.getInstance(context).getReadableDatabase();
+        Cursor cursor = db.rawQuery(sql, args);
+        List<Tag> tagList = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            tagList.add(readTag(context, cursor));
+        }
+
+        cursor.close();
+        return tagList;
+    }
+
+    /**
+     * Get tag settings in the I/O thread, see
+     * {@link #getTag(android.content.Context, long, String)}
+     *
+     * @param context   the {@link android.content.Context} instance
+     * @param profileId the profile ID
+     * @param name      the tag name
+     * @param callback  the callback which receives the tag in the main thread, or null
+     * @return the {@link java.util.concurrent.Future} of the tag
+     */
+    public static Future<Tag> getTagAsync(Context context, final long profileId,
+                                          final String name, DataCallback<Tag> callback) {
+        return DataExecutor.submit(context, new DataExecutor.Method<Tag>() {
+            @Override
+            public Tag run(Context context) {
+                return getTag(context, profileId, name);
+            }
+        }, callback);
+    }
+
+    /**
+     * Get tag settings in the I/O thread, see {@link #getTag(android.content.Context, long)}
+     *
+     * @param context  the {@link android.content.Context} instance
+     * @param tagId    the tag ID
+     * @param callback the callback which receives the tag in the main thread, or null
+     * @return the {@link java.util.concurrent.Future} of the tag
+     */
+    public static Future<Tag> getTagAsync(Context context, final long tagId,
+                                          DataCallback<Tag> callback) {
+        return DataExecutor.submit(context, new DataExecutor.Method<Tag>() {
+            @Override
+            public Tag run(Context context) {
+                return getTag(context, tagId);
+            }
+        }, callback);
+    }
+
+    /**
+     * Insert a tag in the database in the I/O thread, see
+     * {@link #insertTag(android.content.Context, Tag)}
+     *
+     * @param context  the {@link android.content.Context} instance
+     * @param tag      the tag, which is copied
+     * @param callback the callback which receives the ID of the new tag in the main thread, or
+     *                 null
+     * @return the {@link java.util.concurrent.Future} of the ID of the new tag
+     */
+    public static Future<Long> insertTagAsync(Context context, Tag tag,
+                                              DataCallback<Long> callback) {
+        final Tag tagCopy = new Tag(tag);
+        return DataExecutor.submit(context, new DataExecutor.Method<Long>() {
+            @Override
+            public Long run(Context context) {
+                return insertTag(context, tagCopy);
+            }
+        }, callback);
+    }
+
+    /**
+     * Update a tag in the database in the I/O thread, see
+     * {@link #updateTag(android.content.Context, Tag)}
+     *
+     * @param context  the {@link android.content.Context} instance
+     * @param tag      the tag, which is copied
+     * @param callback the callback which receives the result in the main thread, or null
+     * @return the {@link java.util.concurrent.Future} of the result
+     */
+    public static Future<Boolean> updateTagAsync(Context context, Tag tag,
+                                                 DataCallback<Boolean> callback) {
+        final Tag tagCopy = new Tag(tag);
+        return DataExecutor.submit(context, new DataExecutor.Method<Boolean>() {
+            @Override
+            public Boolean run(Context context) {
+                return updateTag(context, tagCopy);
+            }
+        }, callback);
     }
 
     /**
-     * Return the position of a tag according to a sort criterion
+     * Delete a tag in the database in the I/O thread, see
+     * {@link #deleteTag(android.content.Context, Tag)}
+     *
+     * @param context  the {@link android.content.Context} instance
+     * @param tag      the tag, which is copied
+     * @param callback the callback which receives the result in the main thread, or null
+     * @return the {@link java.util.concurrent.Future} of the result
+     */
+    public static Future<Boolean> deleteTagAsync(Context context, Tag tag,
+                                                 DataCallback<Boolean> callback) {
+        final Tag tagCopy = new Tag(tag);
+        return DataExecutor.submit(context, new DataExecutor.Method<Boolean>() {
+            @Override
+            public Boolean run(Context context) {
+                return deleteTag(context, tagCopy);
+            }
+        }, callback);
+    }
+
+    /**
+     * Increase the hash counter of a stored tag by one, see
+     * {@link #increaseHashCounter(android.content.Context, Tag)}. The hash counter of the tag
+     * is increased immediately, and the journal is written in the I/O thread.
+     *
+     * @param context the {@link android.content.Context} instance
+     * @param tag     the tag, whose hash counter is also increased
+     * @return the {@link java.util.concurrent.Future} of the increment
+     */
+    public static Future<Void> increaseHashCounterAsync(Context context, Tag tag) {
+        tag.setHashCounter(tag.getHashCounter() + 1);
+        final Tag tagCopy = new Tag(tag);
+        return DataExecutor.submit(context, new DataExecutor.Method<Void>() {
+            @Override
+            public Void run(Context context) {
+                HashCounterJournal.increment(context, tagCopy.getId());
+                TagRepository.increaseHashCounter(tagCopy);
+                return null;
+            }
+        }, null);
+    }
+
+    /**
+     * Return an ordered list of tags of a profile in the I/O thread, see
+     * {@link #getProfileTags(android.content.Context, long, int, int)}
      *
      * @param context   the {@link android.content.Context} instance
-     * @param tagId     the tag ID
      * @param profileId the profile ID
      * @param orderBy   the order criterion
-     * @param limit     the The maximum number of results
-     * @return the position of the tag
+     * @param limit     the maximum number of results
+     * @param callback  the callback which receives the list in the main thread, or null
+     * @return the {@link java.util.concurrent.Future} of the list
      */
-    @SuppressWarnings("SameParameterValue")
-    public static int getTagPosition(Context context, long tagId, long profileId, int orderBy,
-                                     int limit) {
-        int position = 0;
-        List<Tag> tags = getProfileTags(context, profileId, orderBy, limit);
-        int size = tags.size();
-        while (position < size && tags.get(position).getId() != tagId) {
-            position++;
+    public static Future<List<Tag>> getProfileTagsAsync(Context context, final long profileId,
+                                                        final int orderBy, final int limit,
+                                                        DataCallback<List<Tag>> callback) {
+        return DataExecutor.submit(context, new DataExecutor.Method<List<Tag>>() {
+            @Override
+            public List<Tag> run(Context context) {
+                return getProfileTags(context, profileId, orderBy, limit);
+            }
+        }, callback);
+    }
+
+    /**
+     * Return the whole ordered list of tags of a profile in the I/O thread. Profiles with more
+     * than {@link #PAGED_LIST_MIN_TAGS} tags are returned as a
+     * {@link com.reddyetwo.hashmypass.app.data.PagedTagList}, whose first page has been read.
+     *
+     * @param context   the {@link android.content.Context} instance
+     * @param profileId the profile ID
+     * @param orderBy   the order criterion, {@link #ORDER_BY_HASH_COUNTER} or
+     *                  {@link #ORDER_BY_NAME}
+     * @param callback  the callback which receives the list in the main thread, or null
+     * @return the {@link java.util.concurrent.Future} of the list
+     */
+    public static Future<List<Tag>> getProfileTagListAsync(Context context, final long profileId,
+                                                           final int orderBy,
+                                                           DataCallback<List<Tag>> callback) {
+        return DataExecutor.submit(context, new DataExecutor.Method<List<Tag>>() {
+            @Override
+            public List<Tag> run(Context context) {
+                if (getProfileTagCount(context, profileId) > PAGED_LIST_MIN_TAGS) {
+                    return new PagedTagList(context, profileId, orderBy);
+                }
+                return getProfileTags(context, profileId, orderBy, LIMIT_UNBOUNDED);
+            }
+        }, callback);
+    }
+
+    /**
+     * Return the number of tags of a profile in the I/O thread, see
+     * {@link #getProfileTagCount(android.content.Context, long)}
+     *
+     * @param context   the {@link android.content.Context} instance
+     * @param profileId the profile ID
+     * @param callback  the callback which receives the number of tags in the main thread, or
+     *                  null
+     * @return the {@link java.util.concurrent.Future} of the number of tags
+     */
+    public static Future<Integer> getProfileTagCountAsync(Context context, final long profileId,
+                                                          DataCallback<Integer> callback) {
+        return DataExecutor.submit(context, new DataExecutor.Method<Integer>() {
+            @Override
+            public Integer run(Context context) {
+                return getProfileTagCount(context, profileId);
+            }
+        }, callback);
+    }
+
+    /**
+     * Get the tag for a site in the I/O thread, see
+     * {@link #getSiteTag(android.content.Context, long, String)}
+     *
+     * @param context   the {@link android.content.Context} instance
+     * @param profileId the profile ID
+     * @param site      the site identifier
+     * @param callback  the callback which receives the tag in the main thread, or null
+     * @return the {@link java.util.concurrent.Future} of the tag
+     */
+    public static Future<Tag> getSiteTagAsync(Context context, final long profileId,
+                                              final String site, DataCallback<Tag> callback) {
+        return DataExecutor.submit(context, new DataExecutor.Method<Tag>() {
+            @Override
+            public Tag run(Context context) {
+                return getSiteTag(context, profileId, site);
+            }
+        }, callback);
+    }
+
+    /**
+     * Check whether a site has tags in the I/O thread, see
+     * {@link #siteHasTags(android.content.Context, String)}
+     *
+     * @param context  the {@link android.content.Context} instance
+     * @param site     the site identifier
+     * @param callback the callback which receives the result in the main thread, or null
+     * @return the {@link java.util.concurrent.Future} of the result
+     */
+    public static Future<Boolean> siteHasTagsAsync(Context context, final String site,
+                                                   DataCallback<Boolean> callback) {
+        return DataExecutor.submit(context, new DataExecutor.Method<Boolean>() {
+            @Override
+            public Boolean run(Context context) {
+                return siteHasTags(context, site);
+            }
+        }, callback);
+    }
+
+    /**
+     * Search the tags of a profile in the I/O thread, see
+     * {@link #searchTags(android.content.Context, long, String, int)}
+     *
+     * @param context   the {@link android.content.Context} instance
+     * @param profileId the profile ID
+     * @param query     the query, as typed by the user
+     * @param limit     the maximum number of results, or {@link #LIMIT_UNBOUNDED}
+     * @param callback  the callback which receives the list in the main thread, or null
+     * @return the {@link java.util.concurrent.Future} of the list
+     */
+    public static Future<List<Tag>> searchTagsAsync(Context context, final long profileId,
+                                                    final String query, final int limit,
+                                                    DataCallback<List<Tag>> callback) {
+        return DataExecutor.submit(context, new DataExecutor.Method<List<Tag>>() {
+            @Override
+            public List<Tag> run(Context context) {
+                return searchTags(context, profileId, query, limit);
+            }
+        }, callback);
+    }
+
+    /**
+     * Import tags in a profile in the I/O thread, see
+     * {@link #importTags(android.content.Context, long, java.io.InputStream,
+     * ImportProgressListener)}. Cancelling the returned {@link java.util.concurrent.Future}
+     * with interruption cancels the import.
+     *
+     * @param context   the {@link android.content.Context} instance
+     * @param profileId the profile ID
+     * @param input     the UTF-8 input stream, which is closed when the import finishes
+     * @param listener  the listener which is notified of the progress in the main thread, or
+     *                  null
+     * @param callback  the callback which receives the number of imported tags, or
+     *                  {@link #IMPORT_FAILED} if the stream could not be read, in the main
+     *                  thread, or null
+     * @return the {@link java.util.concurrent.Future} of the number of imported tags
+     */
+    public static Future<Integer> importTagsAsync(Context context, final long profileId,
+                                                  final InputStream input,
+                                                  final ImportProgressListener listener,
+                                                  DataCallback<Integer> callback) {
+        final Handler handler = new Handler(Looper.getMainLooper());
+        return DataExecutor.submit(context, new DataExecutor.Method<Integer>() {
+            @Override
+            public Integer run(Context context) {
+                ImportProgressListener mainThreadListener = null;
+                if (listener != null) {
+                    mainThreadListener = new ImportProgressListener() {
+                        @Override
+                        public void onImportProgress(final int tagCount) {
+                            handler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    listener.onImportProgress(tagCount);
+                                }
+                            });
+                        }
+                    };
+                }
+                try {
+                    return importTags(context, profileId, input, mainThreadListener);
+                } catch (IOException e) {
+                    Log.e(TwikApplication.LOG_TAG, "Error importing tags: " + e);
+                    return IMPORT_FAILED;
+                } finally {
+                    try {
+                        input.close();
+                    } catch (IOException e) {
+                        Log.e(TwikApplication.LOG_TAG, "Error closing imported tags: " + e);
+                    }
+                }
+            }
+        }, callback);
+    }
+
+    /**
+     * Get a {@link java.util.Comparator} which sorts tags in the same order as
+     * {@link #getProfileTags(android.content.Context, long, int, int)}
+     *
+     * @param orderBy the order criterion
+     * @return the comparator, or null if the order criterion is not known
+     */
+    public static Comparator<Tag> getTagComparator(int orderBy) {
+        switch (orderBy) {
+            case ORDER_BY_HASH_COUNTER:
+                return HASH_COUNTER_COMPARATOR;
+            case ORDER_BY_NAME:
+                return NAME_COMPARATOR;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Read a tag from a cursor positioned on a row with {@link #TAG_COLUMNS}, including the
+     * hash counter increments which have not been stored yet
+     */
+    private static Tag readTag(Context context, Cursor cursor) {
+        long tagId = cursor.getLong(TAG_COLUMN_ID);
+        return new Tag(tagId, cursor.getLong(TAG_COLUMN_PROFILE_ID),
+                cursor.getInt(TAG_COLUMN_HASH_COUNTER) +
+                        HashCounterJournal.getPendingIncrement(context, tagId),
+                cursor.getString(TAG_COLUMN_SITE),
+                cursor.getString(TAG_COLUMN_NAME), cursor.getInt(TAG_COLUMN_PASSWORD_LENGTH),
+                PasswordType.values()[cursor.getInt(TAG_COLUMN_PASSWORD_TYPE)]);
+    }
+
+    /**
+     * Build a full-text query which matches the words starting with each word of a user query.
+     * Words are split and folded like the default tokenizer of the index does, so the user
+     * query can not contain operators.
+     *
+     * @return the full-text query, or null if the user query has no words
+     */
+    private static String getPrefixMatch(String query) {
+        StringBuilder match = new StringBuilder();
+        int length = query.length();
+        int i = 0;
+        while (i < length) {
+            if (!isTokenChar(query.charAt(i))) {
+                i++;
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            while (i < length && isTokenChar(query.charAt(i))) {
+                match.append(foldCase(query.charAt(i)));
+                i++;
+            }
+            match.append('*');
         }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
+    /**
+     * Return true if a character is part of a word for the default full-text tokenizer, which
+     * considers any non-ASCII character a word character
+     */
+    private static boolean isTokenChar(char c) {
+        return c > ASCII_MAX || Character.isLetterOrDigit(c);
+    }
 
-        return position;
+    /**
+     * Compare two strings ignoring the case of ASCII letters, like SQLite NOCASE collation.
+     * SQLite compares the UTF-8 bytes, which sorts by code point, so surrogates are sorted after
+     * the other chars.
+     */
+    private static int compareNoCase(String lhs, String rhs) {
+        int length = Math.min(lhs.length(), rhs.length());
+        for (int i = 0; i < length; i++) {
+            char lhsChar = foldCase(lhs.charAt(i));
+            char rhsChar = foldCase(rhs.charAt(i));
+            if (lhsChar != rhsChar) {
+                return getCodePointOrder(lhsChar) - getCodePointOrder(rhsChar);
+            }
+        }
+        return lhs.length() - rhs.length();
+    }
+
+    private static char foldCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ASCII_CASE_OFFSET) : c;
+    }
+
+    /**
+     * Map the first different chars of two strings to values in code point order. Surrogates
+     * are moved after the chars from U+E000 to U+FFFF, since they encode the code points from
+     * U+10000.
+     */
+    private static int getCodePointOrder(char c) {
+        if (c < Character.MIN_SURROGATE) {
+            return c;
+        } else if (c <= Character.MAX_SURROGATE) {
+            return c + SURROGATE_ORDER_OFFSET;
+        } else {
+            return c + NON_SURROGATE_ORDER_OFFSET;
+        }
+    }
+
+    private static int compareInts(int lhs, int rhs) {
+        return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+    }
+
+    private static int compareLongs(long lhs, long rhs) {
+        return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+    }
+
+    /**
+     * Interface which can be implemented to follow the progress of a tag import
+     */
+    public interface ImportProgressListener {
+
+        /**
+         * Method called periodically while tags are imported, and when the import has finished
+         *
+         * @param tagCount the number of tags imported so far
+         */
+        void onImportProgress(int tagCount);
     }
-}
\ No newline at end of file
+}
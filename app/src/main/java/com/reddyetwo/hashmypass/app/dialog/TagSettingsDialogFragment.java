@@ -30,6 +30,7 @@ import android.view.View;
 import android.widget.Spinner;
 
 import com.reddyetwo.hashmypass.app.R;
+import com.reddyetwo.hashmypass.app.data.DataCallback;
 import com.reddyetwo.hashmypass.app.data.PasswordType;
 import com.reddyetwo.hashmypass.app.data.Tag;
 import com.reddyetwo.hashmypass.app.data.TagSettings;
@@ -41,10 +42,9 @@ import com.reddyetwo.hashmypass.app.util.ProfileFormInflater;
 public class TagSettingsDialogFragment extends DialogFragment {
 
     private static final String KEY_PROFILE_ID = "profile_id";
-    private static final String KEY_TAG_ID = "tag_id";
+    private static final String KEY_TAG = "tag";
     private static final String KEY_PASSWORD_LENGTH = "password_length";
     private static final String KEY_PASSWORD_TYPE = "password_type";
-    private static final String KEY_TAG_NAME = "tag_name";
 
     // Dialog state
     private long mProfileId;
@@ -92,20 +92,13 @@ public class TagSettingsDialogFragment extends DialogFragment {
 
         if (savedInstanceState != null) {
             // Restore the state (e.g. when the screen is rotated)
+            // The tag is restored from the state instead of the database, which is not read in
+            // the main thread
             mProfileId = savedInstanceState.getLong(KEY_PROFILE_ID);
-            long tagId = savedInstanceState.getLong(KEY_TAG_ID);
-            PasswordType passwordType =
-                    PasswordType.values()[savedInstanceState.getInt(KEY_PASSWORD_TYPE)];
-            int passwordLength = savedInstanceState.getInt(KEY_PASSWORD_LENGTH);
-            String tagName = savedInstanceState.getString(KEY_TAG_NAME);
-            if (tagId != Tag.NO_ID) {
-                mTag = TagSettings.getTag(getActivity(), tagId);
-                mTag.setPasswordType(passwordType);
-                mTag.setPasswordLength(passwordLength);
-            } else {
-                mTag = new Tag(Tag.NO_ID, mProfileId, 0, null, tagName, passwordLength,
-                        passwordType);
-            }
+            mTag = savedInstanceState.getParcelable(KEY_TAG);
+            mTag.setPasswordType(
+                    PasswordType.values()[savedInstanceState.getInt(KEY_PASSWORD_TYPE)]);
+            mTag.setPasswordLength(savedInstanceState.getInt(KEY_PASSWORD_LENGTH));
         }
 
         mPasswordLengthSpinner = (Spinner) view.findViewById(R.id.tag_settings_password_length);
@@ -151,7 +144,7 @@ public class TagSettingsDialogFragment extends DialogFragment {
     public void onSaveInstanceState(@NonNull Bundle outState) {
         super.onSaveInstanceState(outState);
         outState.putLong(KEY_PROFILE_ID, mProfileId);
-        outState.putLong(KEY_TAG_ID, mTag.getId());
+        outState.putParcelable(KEY_TAG, mTag);
         outState.putInt(KEY_PASSWORD_LENGTH,
                 Integer.parseInt((String) mPasswordLengthSpinner.getSelectedItem()));
         outState.putInt(KEY_PASSWORD_TYPE, mPasswordTypeSpinner.getSelectedItemPosition());
@@ -184,14 +177,24 @@ public class TagSettingsDialogFragment extends DialogFragment {
         mTag.setPasswordType(passwordType);
 
         if (mTag.getId() == Tag.NO_ID) {
-            // New tag
-            mTag.setId(TagSettings.insertTag(getActivity(), mTag));
+            // New tag. The listener is notified once it has an ID, maybe after the dialog has
+            // been dismissed.
+            final Tag tag = mTag;
+            final OnTagSettingsSavedListener listener = mListener;
+            TagSettings.insertTagAsync(getActivity(), tag, new DataCallback<Long>() {
+                @Override
+                public void onResult(Long tagId) {
+                    tag.setId(tagId);
+                    if (listener != null) {
+                        listener.onTagSettingsSaved(tag);
+                    }
+                }
+            });
         } else {
-            TagSettings.updateTag(getActivity(), mTag);
-        }
-
-        if (mListener != null) {
-            mListener.onTagSettingsSaved(mTag);
+            TagSettings.updateTagAsync(getActivity(), mTag, null);
+            if (mListener != null) {
+                mListener.onTagSettingsSaved(mTag);
+            }
         }
     }
 
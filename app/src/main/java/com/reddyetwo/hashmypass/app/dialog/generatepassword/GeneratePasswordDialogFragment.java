@@ -22,10 +22,10 @@ package com.reddyetwo.hashmypass.app.dialog.generatepassword;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.DialogFragment;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.graphics.Bitmap;
 import android.graphics.Typeface;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.view.View;
@@ -35,47 +35,64 @@ import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.reddyetwo.hashmypass.app.IdenticonGenerationTask;
+import com.reddyetwo.hashmypass.app.PasswordGenerationScheduler;
 import com.reddyetwo.hashmypass.app.R;
 import com.reddyetwo.hashmypass.app.TwikApplication;
+import com.reddyetwo.hashmypass.app.data.DataCallback;
+import com.reddyetwo.hashmypass.app.data.DataExecutor;
 import com.reddyetwo.hashmypass.app.data.Preferences;
-import com.reddyetwo.hashmypass.app.data.Profile;
-import com.reddyetwo.hashmypass.app.data.ProfileSettings;
 import com.reddyetwo.hashmypass.app.data.Tag;
 import com.reddyetwo.hashmypass.app.data.TagSettings;
 import com.reddyetwo.hashmypass.app.dialog.TagSettingsDialogFragment;
-import com.reddyetwo.hashmypass.app.hash.PasswordHasher;
 import com.reddyetwo.hashmypass.app.util.ClipboardHelper;
 import com.reddyetwo.hashmypass.app.util.Constants;
 import com.reddyetwo.hashmypass.app.util.FaviconLoader;
 import com.reddyetwo.hashmypass.app.util.KeyboardManager;
 import com.reddyetwo.hashmypass.app.util.SecurePassword;
+import com.reddyetwo.hashmypass.app.util.TagTrigramIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * Dialog fragment which is used to generate and configure the password of a tag
  */
 public class GeneratePasswordDialogFragment extends DialogFragment
         implements TagSettingsDialogFragment.OnTagSettingsSavedListener,
-        IdenticonGenerationTask.OnIconGeneratedListener {
+        PasswordGenerationScheduler.OnPasswordGeneratedListener {
 
     private static final String STATE_PROFILE_ID = "profileId";
     private static final String STATE_TAG = "tag";
     private static final String DIALOG_TAG_SETTINGS = "tagSettings";
+    private static final int MAX_SUGGESTIONS = 1;
 
     private long mProfileId;
     private Tag mTag;
-    private IdenticonGenerationTask mTask;
+    private PasswordGenerationScheduler mGenerationScheduler;
     private GeneratePasswordDialogListener mListener;
     private GeneratePasswordDialogWatcher mGeneratePasswordDialogWatcher;
+    private TagTrigramIndex mTagIndex;
+    private Future<TagTrigramIndex> mTagIndexFuture;
+    private boolean mTagValid = true;
+    private boolean mPasswordPending;
+    private Bitmap mIdenticon;
 
     private AlertDialog mAlertDialog;
     private TextView mFaviconTextView;
     private EditText mTagEditText;
+    private TextView mSuggestionTextView;
     private EditText mMasterKeyEditText;
     private TextView mPasswordTextView;
     private ImageButton mTagSettingsImageButton;
     private ImageView mIdenticonImageView;
 
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mGenerationScheduler = new PasswordGenerationScheduler(getActivity(), this);
+    }
+
     @Override
     public Dialog onCreateDialog(Bundle savedInstanceState) {
         // Inflate the layout
@@ -85,6 +102,7 @@ public class GeneratePasswordDialogFragment extends DialogFragment
                 View.inflate(getActivity(), R.layout.dialog_generate_password, null));
 
         initializeSettings(savedInstanceState);
+        loadTagIndex();
 
         mAlertDialog = builder.create();
         mAlertDialog.setCanceledOnTouchOutside(false);
@@ -116,6 +134,17 @@ public class GeneratePasswordDialogFragment extends DialogFragment
     public void onPause() {
         super.onPause();
         removeTextChangedListeners();
+        TwikApplication.getInstance().clearIdenticonsIfNotRemembered();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mGenerationScheduler.quit();
+        TwikApplication.getInstance().clearIdenticonsIfNotRemembered();
+        if (mTagIndexFuture != null) {
+            mTagIndexFuture.cancel(false);
+        }
     }
 
     @Override
@@ -137,26 +166,26 @@ public class GeneratePasswordDialogFragment extends DialogFragment
     }
 
     private void updateGeneratedPassword() {
-        if (mTagEditText.length() > 0 && mMasterKeyEditText.length() > 0) {
-            Profile profile = ProfileSettings.getProfile(getActivity(), mProfileId);
-            String password = PasswordHasher.hashTagWithKeys(mTag.getName(),
-                    SecurePassword.getPassword(mMasterKeyEditText.getText()),
-                    profile.getPrivateKey(), mTag.getPasswordLength(), mTag.getPasswordType());
-            mPasswordTextView.setText(password);
-        } else {
-            mPasswordTextView.setText("");
-        }
+        // The password and the identicon are generated in background, and the displayed password
+        // must not be used until it has been generated again
+        mPasswordPending = true;
+        updateOkButton();
+        mGenerationScheduler.schedule(mProfileId, mTagEditText.length() > 0 ? mTag : null,
+                SecurePassword.getPassword(mMasterKeyEditText.getText()));
     }
 
     @Override
-    public void onIconGenerated(Bitmap bitmap) {
-        if (bitmap != null) {
-            mIdenticonImageView.setImageBitmap(bitmap);
+    public void onPasswordGenerated(String password, Bitmap identicon) {
+        mPasswordPending = false;
+        updateOkButton();
+        mPasswordTextView.setText(password);
+        mIdenticon = identicon;
+        if (identicon != null) {
+            mIdenticonImageView.setImageBitmap(identicon);
             mIdenticonImageView.setVisibility(View.VISIBLE);
         } else {
             mIdenticonImageView.setVisibility(View.INVISIBLE);
         }
-        mTask = null;
     }
 
     /**
@@ -202,6 +231,7 @@ public class GeneratePasswordDialogFragment extends DialogFragment
         FaviconLoader.setAsBackground(getActivity(), mFaviconTextView, mTag);
 
         mTagEditText = (EditText) view.findViewById(R.id.tag_text);
+        mSuggestionTextView = (TextView) view.findViewById(R.id.tag_suggestion);
         mMasterKeyEditText = (EditText) view.findViewById(R.id.master_key_text);
 
         mPasswordTextView = (TextView) view.findViewById(R.id.website_password);
@@ -214,6 +244,33 @@ public class GeneratePasswordDialogFragment extends DialogFragment
         addDialogButtonClickedListener(builder);
         addPasswordClickedListener();
         addTagSettingsClickedListener();
+        addSuggestionClickedListener();
+    }
+
+    /**
+     * Index the tag names of the profile in background, to suggest them when a new tag name
+     * is mistyped
+     */
+    private void loadTagIndex() {
+        final long profileId = mProfileId;
+        mTagIndexFuture = DataExecutor.submit(getActivity(),
+                new DataExecutor.Method<TagTrigramIndex>() {
+                    @Override
+                    public TagTrigramIndex run(Context context) {
+                        List<Tag> tags = TagSettings.getProfileTags(context, profileId,
+                                TagSettings.ORDER_BY_HASH_COUNTER, TagSettings.LIMIT_UNBOUNDED);
+                        List<String> names = new ArrayList<>(tags.size());
+                        for (Tag tag : tags) {
+                            names.add(tag.getName());
+                        }
+                        return new TagTrigramIndex(names);
+                    }
+                }, new DataCallback<TagTrigramIndex>() {
+                    @Override
+                    public void onResult(TagTrigramIndex index) {
+                        mTagIndex = index;
+                    }
+                });
     }
 
     private void populateView() {
@@ -232,7 +289,8 @@ public class GeneratePasswordDialogFragment extends DialogFragment
     private void updateViewState() {
         // Disable OK button when adding a new tag
         if (mTag.getId() == Tag.NO_ID) {
-            ((AlertDialog) getDialog()).getButton(DialogInterface.BUTTON_POSITIVE).setEnabled(false);
+            mTagValid = false;
+            updateOkButton();
         }
 
         // Manage focus
@@ -274,6 +332,35 @@ public class GeneratePasswordDialogFragment extends DialogFragment
         });
     }
 
+    private void addSuggestionClickedListener() {
+        mSuggestionTextView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                useSuggestedTag((String) mSuggestionTextView.getTag());
+            }
+        });
+    }
+
+    /**
+     * Replace the new tag with an existing one whose name has been suggested
+     *
+     * @param name the name of the existing tag
+     */
+    private void useSuggestedTag(String name) {
+        TagSettings.getTagAsync(getActivity(), mProfileId, name, new DataCallback<Tag>() {
+            @Override
+            public void onResult(Tag storedTag) {
+                if (isAdded() && storedTag.getId() != Tag.NO_ID) {
+                    mTag = storedTag;
+                    FaviconLoader.setAsBackground(getActivity(), mFaviconTextView, mTag);
+                    // The text watcher updates the tag status and the password
+                    mTagEditText.setText(mTag.getName());
+                    mTagEditText.setSelection(mTagEditText.length());
+                }
+            }
+        });
+    }
+
     private void addTextChangedListeners() {
         mGeneratePasswordDialogWatcher = new GeneratePasswordDialogWatcher(buildDialogChangedListener());
         mTagEditText.addTextChangedListener(mGeneratePasswordDialogWatcher);
@@ -290,48 +377,90 @@ public class GeneratePasswordDialogFragment extends DialogFragment
     }
 
     private void updateDialog() {
-        updateOkButtonStatus();
-        updateTagSettingsButtonStatus();
-        updateTagErrorStatus();
+        updateTagStatus();
         updateTagName();
         updateFavicon();
-        updateIdenticon();
         updateGeneratedPassword();
         cacheMasterKey();
     }
 
-    private void updateOkButtonStatus() {
-        getOkButton().setEnabled(tagIsValid());
+    /**
+     * Check in background whether the tag name is already used by another tag, and update the
+     * OK button, the tag settings button and the tag error accordingly
+     */
+    private void updateTagStatus() {
+        final String tagName = getTagName();
+        if (tagName.isEmpty()) {
+            setTagStatus(false, false);
+            showSuggestion(null);
+            return;
+        }
+        // The tag cannot be saved until the name has been checked
+        mTagValid = false;
+        updateOkButton();
+        TagSettings.getTagAsync(getActivity(), mProfileId, tagName, new DataCallback<Tag>() {
+            @Override
+            public void onResult(Tag storedTag) {
+                // Skip the result if the tag name has changed since
+                if (isAdded() && tagName.equals(getTagName())) {
+                    boolean tagNameExists = storedTag != null &&
+                            storedTag.getId() != Tag.NO_ID && storedTag.getId() != mTag.getId();
+                    setTagStatus(!tagNameExists, tagNameExists);
+                    updateSuggestion(tagName, storedTag);
+                }
+            }
+        });
     }
 
-    private Button getOkButton() {
-        return mAlertDialog.getButton(DialogInterface.BUTTON_POSITIVE);
+    private void setTagStatus(boolean tagIsValid, boolean tagNameExists) {
+        mTagValid = tagIsValid;
+        updateOkButton();
+        if (tagIsValid) {
+            enableTagSettingsButton();
+        } else {
+            disableTagSettingsButton();
+        }
+        mTagEditText.setError(tagNameExists ? getString(R.string.error_tag_exists) : null);
     }
 
-    private boolean tagIsValid() {
-        String tagName = getTagName();
-        return !tagName.isEmpty() && !tagNameExists(tagName);
+    /**
+     * Suggest the most similar existing tag name when a new tag has a name which is not used
+     */
+    private void updateSuggestion(String tagName, Tag storedTag) {
+        String suggestion = null;
+        if (mTagIndex != null && mTag.getId() == Tag.NO_ID &&
+                (storedTag == null || storedTag.getId() == Tag.NO_ID)) {
+            List<String> similarNames = mTagIndex.findSimilar(tagName, MAX_SUGGESTIONS);
+            if (!similarNames.isEmpty()) {
+                suggestion = similarNames.get(0);
+            }
+        }
+        showSuggestion(suggestion);
     }
 
-    private String getTagName() {
-        return mTagEditText.getText().toString();
+    private void showSuggestion(String name) {
+        if (name != null) {
+            mSuggestionTextView.setText(getString(R.string.did_you_mean, name));
+            mSuggestionTextView.setTag(name);
+            mSuggestionTextView.setVisibility(View.VISIBLE);
+        } else {
+            mSuggestionTextView.setVisibility(View.GONE);
+        }
     }
 
-    private boolean tagNameExists(String tagName) {
-        Tag storedTag = getTag(tagName);
-        return storedTag.getId() != Tag.NO_ID && storedTag.getId() != mTag.getId();
+    private Button getOkButton() {
+        return mAlertDialog.getButton(DialogInterface.BUTTON_POSITIVE);
     }
 
-    private Tag getTag(String tagName) {
-        return TagSettings.getTag(getActivity(), mProfileId, tagName);
+    /**
+     * Enable the OK button only if the tag name is valid and the displayed password is up to date
+     */
+    private void updateOkButton() {
+        getOkButton().setEnabled(mTagValid && !mPasswordPending);
     }
 
-    private void updateTagSettingsButtonStatus() {
-        if (tagIsValid()) {
-            enableTagSettingsButton();
-        } else {
-            disableTagSettingsButton();
-        }
+    private String getTagName() {
+        return mTagEditText.getText().toString();
     }
 
     private void enableTagSettingsButton() {
@@ -344,14 +473,6 @@ public class GeneratePasswordDialogFragment extends DialogFragment
         mTagSettingsImageButton.setEnabled(false);
     }
 
-    private void updateTagErrorStatus() {
-        String error = null;
-        if (tagNameExists(getTagName())) {
-            error = getString(R.string.error_tag_exists);
-        }
-        mTagEditText.setError(error);
-    }
-
     private void cacheMasterKey() {
         TwikApplication.getInstance()
                 .cacheMasterKey(SecurePassword.getPassword(mMasterKeyEditText.getText()));
@@ -367,15 +488,6 @@ public class GeneratePasswordDialogFragment extends DialogFragment
         }
     }
 
-    private void updateIdenticon() {
-        if (mTask != null && mTask.getStatus() == AsyncTask.Status.RUNNING) {
-            mTask.cancel(true);
-        }
-
-        mTask = new IdenticonGenerationTask(getActivity(), this);
-        mTask.execute(SecurePassword.getPassword(mMasterKeyEditText.getText()));
-    }
-
     private void removeTextChangedListeners() {
         mTagEditText.removeTextChangedListener(mGeneratePasswordDialogWatcher);
         mMasterKeyEditText.removeTextChangedListener(mGeneratePasswordDialogWatcher);
@@ -399,6 +511,8 @@ public class GeneratePasswordDialogFragment extends DialogFragment
         @Override
         public void onClick(android.content.DialogInterface dialog, int which) {
             copyPasswordToClipboardIfEnabled();
+            TwikApplication.getInstance().cacheIdenticon(
+                    SecurePassword.getPassword(mMasterKeyEditText.getText()), mIdenticon);
             KeyboardManager.hide(getActivity(), mTagEditText);
             mListener.onDialogDismiss(mTag);
         }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.hash;
+
+import android.util.LruCache;
+
+import com.reddyetwo.hashmypass.app.data.PasswordType;
+
+import java.util.Arrays;
+
+/**
+ * Bounded cache of the intermediate hashes of the tags of profiles with a private key. The
+ * intermediate hash only depends on the tag and the private key, so it can be reused while the
+ * master key is being typed. Entries are keyed by a digest of the private key as well, so an
+ * intermediate hash calculated with an old private key never matches the new one.
+ */
+public class IntermediateHashCache {
+
+    private static final int MAX_ENTRIES = 256;
+    private static final char KEY_SEPARATOR = ':';
+
+    private static final LruCache<String, char[]> CACHE =
+            new LruCache<String, char[]>(MAX_ENTRIES) {
+
+                @Override
+                protected void entryRemoved(boolean evicted, String key, char[] oldValue,
+                                            char[] newValue) {
+                    if (oldValue != newValue) {
+                        Arrays.fill(oldValue, ' ');
+                    }
+                }
+            };
+
+    private IntermediateHashCache() {
+
+    }
+
+    /**
+     * Generate the password of a tag, reusing the cached intermediate hash of the tag if the
+     * profile has a private key
+     *
+     * @param session      the {@link com.reddyetwo.hashmypass.app.hash.HasherSession} of the
+     *                     master key and the profile private key
+     * @param profileId    the profile ID
+     * @param tag          the tag name
+     * @param length       the password length
+     * @param passwordType the password type
+     * @return the hashed password, or null if an error occurred
+     */
+    public static String hashTag(HasherSession session, long profileId, String tag, int length,
+                                 PasswordType passwordType) {
+        String privateKeyDigest = session.getPrivateKeyDigest();
+        if (privateKeyDigest == null) {
+            return session.hashTag(tag, length, passwordType);
+        }
+
+        String key = getKey(profileId, privateKeyDigest, tag);
+        synchronized (CACHE) {
+            char[] intermediate = CACHE.get(key);
+            if (intermediate == null) {
+                intermediate = session.hashPrivateKey(tag);
+                if (intermediate == null) {
+                    return null;
+                }
+                CACHE.put(key, intermediate);
+            }
+            return session.hashIntermediate(intermediate, length, passwordType);
+        }
+    }
+
+    /**
+     * Remove and wipe the cached intermediate hashes of a profile. It should be called when the
+     * profile private key changes or the profile is deleted, so that the hashes calculated with
+     * the old private key are not kept in memory.
+     *
+     * @param profileId the profile ID
+     */
+    public static void invalidateProfile(long profileId) {
+        String prefix = Long.toString(profileId) + KEY_SEPARATOR;
+        synchronized (CACHE) {
+            for (String key : CACHE.snapshot().keySet()) {
+                if (key.startsWith(prefix)) {
+                    CACHE.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove and wipe all the cached intermediate hashes
+     */
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.evictAll();
+        }
+    }
+
+    private static String getKey(long profileId, String privateKeyDigest, String tag) {
+        return Long.toString(profileId) + KEY_SEPARATOR + privateKeyDigest + KEY_SEPARATOR + tag;
+    }
+}
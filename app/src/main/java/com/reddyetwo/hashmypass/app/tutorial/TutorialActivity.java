@@ -150,7 +150,8 @@ public class TutorialActivity extends FragmentActivity
                                     mPrivateKey, Constants.DEFAULT_PASSWORD_LENGTH,
                                     PasswordType.ALPHANUMERIC_AND_SPECIAL_CHARS,
                                     DEFAULT_PROFILE_COLOR);
-                    ProfileSettings.insertProfile(TutorialActivity.this, profile);
+                    // The main activity reads the profiles after the profile has been inserted
+                    ProfileSettings.insertProfileAsync(TutorialActivity.this, profile, null);
                     TwikApplication.getInstance().setTutorialDismissed(false);
                     finish();
                 } else {
@@ -42,6 +42,15 @@ public class ApiUtils {
         return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
     }
 
+    /**
+     * Check if API is equal or higher than KITKAT
+     *
+     * @return true if API is equal or higher than KITKAT, false otherwise
+     */
+    public static boolean hasKitKatApi() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
     /**
      * Check if API is equal or higher than JELLY BEAN
      *
@@ -37,6 +37,7 @@ import android.widget.TextView;
 
 import com.reddyetwo.hashmypass.app.TwikApplication;
 import com.reddyetwo.hashmypass.app.R;
+import com.reddyetwo.hashmypass.app.data.DataCallback;
 import com.reddyetwo.hashmypass.app.data.Favicon;
 import com.reddyetwo.hashmypass.app.data.FaviconSettings;
 import com.reddyetwo.hashmypass.app.data.Tag;
@@ -72,41 +73,45 @@ public class FaviconLoader {
     }
 
     /**
-     * Set a {@link com.reddyetwo.hashmypass.app.data.Tag} favicon as the background of a {@link android.widget.TextView}
+     * Set a {@link com.reddyetwo.hashmypass.app.data.Tag} favicon as the background of a {@link android.widget.TextView}.
+     * The first letter of the tag is shown until the stored favicon has been read in
+     * background.
      *
      * @param context  the {@link android.content.Context} instance
      * @param textView the text view
      * @param tag      the tag
      */
-    public static void setAsBackground(Context context, TextView textView, Tag tag) {
+    public static void setAsBackground(final Context context, final TextView textView,
+                                       Tag tag) {
+        // The text view may be reused for another tag before the favicon has been read
+        final String site = tag == null ? null : tag.getSite();
+        textView.setTag(site);
+
         if (tag == null || tag.getName().length() == 0) {
             setTextViewBackground(textView, null);
             return;
         }
 
-        Drawable faviconDrawable = null;
-        if (tag.getSite() != null) {
-            Favicon favicon = FaviconSettings.getFavicon(context, tag.getSite());
-            if (favicon != null) {
-                faviconDrawable = new BitmapDrawable(context.getResources(), favicon.getIcon());
-            }
-        }
-
-        boolean writeFirstLetter = faviconDrawable == null;
-        if (faviconDrawable == null) {
-            faviconDrawable = context.getResources().getDrawable(R.drawable.favicon_background);
-            if (faviconDrawable != null) {
-                ((GradientDrawable) faviconDrawable)
-                        .setColor(getBackgroundColor(context, tag.getName().toCharArray()));
-            }
-        }
-
+        Drawable faviconDrawable =
+                context.getResources().getDrawable(R.drawable.favicon_background);
         if (faviconDrawable != null) {
+            ((GradientDrawable) faviconDrawable)
+                    .setColor(getBackgroundColor(context, tag.getName().toCharArray()));
             setTextViewBackground(textView, faviconDrawable);
+            textView.setText(tag.getName().substring(0, 1));
+        }
 
-            if (writeFirstLetter) {
-                textView.setText(tag.getName().substring(0, 1));
-            }
+        if (site != null) {
+            FaviconSettings.getFaviconAsync(context, site, new DataCallback<Favicon>() {
+                @Override
+                public void onResult(Favicon favicon) {
+                    if (favicon != null && site.equals(textView.getTag())) {
+                        setTextViewBackground(textView,
+                                new BitmapDrawable(context.getResources(), favicon.getIcon()));
+                        textView.setText("");
+                    }
+                }
+            });
         }
     }
 
@@ -26,10 +26,14 @@ import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.LruCache;
 import android.util.TypedValue;
 
 import com.reddyetwo.hashmypass.app.hash.PasswordHasher;
 
+import java.nio.ByteBuffer;
+
 /**
  * Identicons generator
  */
@@ -40,67 +44,99 @@ public class IdenticonGenerator {
     private static final int IDENTICON_MARGIN = 1;
     private static final int MASK_UNSIGNED = 255;
     private static final int ALPHA_OPAQUE = 255;
-    private static final String COLOR_BACKGROUND = "#00f0f0f0";
     private static final int BYTE_RED = 0;
     private static final int BYTE_GREEN = 1;
     private static final int BYTE_BLUE = 2;
     private static final int HALF_RATIO = 2;
     private static final int NUMBER_OF_SIDES_WIDTH_MARGIN = 2;
+    private static final int CACHE_SIZE = 1;
+
+    /**
+     * Identicon of the submitted master key, keyed by the digest of the master key. The
+     * identicons of the master keys being typed are never cached, since the digests of their
+     * prefixes would reveal the master key.
+     */
+    private static final LruCache<ByteBuffer, Bitmap> CACHE = new LruCache<>(CACHE_SIZE);
 
     private IdenticonGenerator() {
 
     }
 
     /**
-     * Generator the identicon of an input string
+     * Generator the identicon of an input string. The cached identicon is returned if the input
+     * is the cached master key, but new identicons are not cached.
      *
      * @param context the {@link android.content.Context}
      * @param input   the input
-     * @return the identicon {@link android.graphics.Bitmap}
+     * @return the identicon {@link android.graphics.Bitmap}. It may be shared with other
+     * callers, so it must not be modified.
      */
     public static Bitmap generate(Context context, char[] input) {
 
         byte[] hash = PasswordHasher.calculateDigest(input);
+        Bitmap identicon = CACHE.get(ByteBuffer.wrap(hash));
+        if (identicon == null) {
+            identicon = render(context, hash);
+        }
+        return identicon;
+    }
 
-        Bitmap identicon = Bitmap.createBitmap(IDENTICON_WIDTH, IDENTICON_HEIGHT, Config.ARGB_8888);
+    /**
+     * Cache the identicon of a submitted master key, replacing the cached one
+     *
+     * @param masterKey the master key
+     * @param identicon the identicon {@link android.graphics.Bitmap} of the master key
+     */
+    public static void cache(char[] masterKey, Bitmap identicon) {
+        CACHE.put(ByteBuffer.wrap(PasswordHasher.calculateDigest(masterKey)), identicon);
+    }
+
+    /**
+     * Remove all the cached identicons. It must be called when the master key is wiped.
+     */
+    public static void clearCache() {
+        CACHE.evictAll();
+    }
 
+    /**
+     * Paint the identicon cells as rects straight into a bitmap of the final size
+     *
+     * @param context the {@link android.content.Context}
+     * @param hash    the digest of the input
+     * @return the identicon {@link android.graphics.Bitmap}
+     */
+    private static Bitmap render(Context context, byte[] hash) {
         // Get color byte values as unsigned integers
         int r = hash[BYTE_RED] & MASK_UNSIGNED;
         int g = hash[BYTE_GREEN] & MASK_UNSIGNED;
         int b = hash[BYTE_BLUE] & MASK_UNSIGNED;
 
-        int background = Color.parseColor(COLOR_BACKGROUND);
-        int foreground = Color.argb(ALPHA_OPAQUE, r, g, b);
+        Paint foreground = new Paint();
+        foreground.setColor(Color.argb(ALPHA_OPAQUE, r, g, b));
         int imageCenter = (int) Math.ceil(IDENTICON_WIDTH / HALF_RATIO);
 
+        // The background is transparent, as a new bitmap
+        Resources res = context.getResources();
+        int size = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, IDENTICON_DIP_SIZE,
+                res.getDisplayMetrics());
+        int cellsSize = size - IDENTICON_MARGIN * NUMBER_OF_SIDES_WIDTH_MARGIN;
+        Bitmap identicon = Bitmap.createBitmap(size, size, Config.ARGB_8888);
+        Canvas canvas = new Canvas(identicon);
+
         for (int x = 0; x < IDENTICON_WIDTH; x++) {
             //make identicon horizontally symmetrical
             int i = x < imageCenter ? x : IDENTICON_WIDTH - 1 - x;
-            int pixelColor;
+            int left = IDENTICON_MARGIN + x * cellsSize / IDENTICON_WIDTH;
+            int right = IDENTICON_MARGIN + (x + 1) * cellsSize / IDENTICON_WIDTH;
             for (int y = 0; y < IDENTICON_HEIGHT; y++) {
-
                 if ((hash[i] >> y & 1) == 1) {
-                    pixelColor = foreground;
-                } else {
-                    pixelColor = background;
+                    int top = IDENTICON_MARGIN + y * cellsSize / IDENTICON_HEIGHT;
+                    int bottom = IDENTICON_MARGIN + (y + 1) * cellsSize / IDENTICON_HEIGHT;
+                    canvas.drawRect(left, top, right, bottom, foreground);
                 }
-
-                identicon.setPixel(x, y, pixelColor);
             }
         }
 
-        // scale image by 2 to add border
-        Resources res = context.getResources();
-        int size = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, IDENTICON_DIP_SIZE,
-                res.getDisplayMetrics());
-        Bitmap bmpWithBorder = Bitmap.createBitmap(size, size, identicon.getConfig());
-        Canvas canvas = new Canvas(bmpWithBorder);
-        canvas.drawColor(background);
-        identicon = Bitmap.createScaledBitmap(identicon,
-                size - IDENTICON_MARGIN * NUMBER_OF_SIDES_WIDTH_MARGIN,
-                size - IDENTICON_MARGIN * NUMBER_OF_SIDES_WIDTH_MARGIN, false);
-        canvas.drawBitmap(identicon, IDENTICON_MARGIN, IDENTICON_MARGIN, null);
-
-        return bmpWithBorder;
+        return identicon;
     }
-}
\ No newline at end of file
+}
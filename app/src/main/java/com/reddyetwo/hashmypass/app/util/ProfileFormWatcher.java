@@ -27,6 +27,7 @@ import android.widget.Button;
 import android.widget.EditText;
 
 import com.reddyetwo.hashmypass.app.R;
+import com.reddyetwo.hashmypass.app.data.DataCallback;
 import com.reddyetwo.hashmypass.app.data.Profile;
 import com.reddyetwo.hashmypass.app.data.ProfileSettings;
 
@@ -81,15 +82,29 @@ public class ProfileFormWatcher implements TextWatcher {
         if (!nameSet || !privateKeySet) {
             mSaveButton.setEnabled(false);
         } else {
-            long storedProfileId =
-                    ProfileSettings.getProfileId(mContext, mNameEditText.getText().toString());
-            boolean repeated = storedProfileId != Profile.NO_ID && storedProfileId != mProfileId;
-            mSaveButton.setEnabled(!repeated);
-            if (repeated) {
-                mNameEditText.setError(mContext.getString(R.string.error_profile_exists));
-            } else {
-                mNameEditText.setError(null);
-            }
+            // The profile cannot be saved until the name has been checked
+            mSaveButton.setEnabled(false);
+            final String name = mNameEditText.getText().toString();
+            ProfileSettings.getProfileIdAsync(mContext, name, new DataCallback<Long>() {
+                @Override
+                public void onResult(Long storedProfileId) {
+                    // Skip the result if the name has changed since
+                    if (name.equals(mNameEditText.getText().toString())) {
+                        setNameRepeated(storedProfileId != Profile.NO_ID &&
+                                storedProfileId != mProfileId);
+                    }
+                }
+            });
+        }
+    }
+
+    private void setNameRepeated(boolean repeated) {
+        mSaveButton.setEnabled(!repeated &&
+                mPrivateKeyEditText.getText().toString().length() > 0);
+        if (repeated) {
+            mNameEditText.setError(mContext.getString(R.string.error_profile_exists));
+        } else {
+            mNameEditText.setError(null);
         }
     }
 
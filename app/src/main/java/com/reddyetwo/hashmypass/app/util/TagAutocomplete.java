@@ -21,9 +21,11 @@
 package com.reddyetwo.hashmypass.app.util;
 
 import android.content.Context;
-import android.widget.ArrayAdapter;
 import android.widget.AutoCompleteTextView;
 
+import com.reddyetwo.hashmypass.app.adapter.TagNameAdapter;
+import com.reddyetwo.hashmypass.app.data.DataCallback;
+import com.reddyetwo.hashmypass.app.data.DataExecutor;
 import com.reddyetwo.hashmypass.app.data.Tag;
 import com.reddyetwo.hashmypass.app.data.TagSettings;
 
@@ -35,31 +37,39 @@ import java.util.List;
  */
 public class TagAutocomplete {
 
+    private static final int MAX_SUGGESTIONS = 20;
+
     private TagAutocomplete() {
 
     }
 
     /**
-     * Populate an {@link android.widget.AutoCompleteTextView} with tag names
+     * Populate an {@link android.widget.AutoCompleteTextView} with tag names, once they have
+     * been read and indexed in background
      *
      * @param context     the {@link android.content.Context} instance
      * @param profileId   the profile ID
      * @param tagTextView the {@link android.widget.AutoCompleteTextView} instance
      */
-    public static void populateTagAutocompleteTextView(Context context, long profileId,
-                                                       AutoCompleteTextView tagTextView) {
-
-        List<Tag> tags = TagSettings
-                .getProfileTags(context, profileId, TagSettings.ORDER_BY_HASH_COUNTER,
-                        TagSettings.LIMIT_UNBOUNDED);
-        List<String> names = new ArrayList<>();
-        for (Tag tag : tags) {
-            names.add(tag.getName());
-        }
-
-        ArrayAdapter<String> adapter =
-                new ArrayAdapter<>(context, android.R.layout.simple_list_item_1, names);
-
-        tagTextView.setAdapter(adapter);
+    public static void populateTagAutocompleteTextView(final Context context,
+                                                       final long profileId,
+                                                       final AutoCompleteTextView tagTextView) {
+        DataExecutor.submit(context, new DataExecutor.Method<TagNameIndex>() {
+            @Override
+            public TagNameIndex run(Context context) {
+                List<Tag> tags = TagSettings.getProfileTags(context, profileId,
+                        TagSettings.ORDER_BY_HASH_COUNTER, TagSettings.LIMIT_UNBOUNDED);
+                List<String> names = new ArrayList<>(tags.size());
+                for (Tag tag : tags) {
+                    names.add(tag.getName());
+                }
+                return new TagNameIndex(names, MAX_SUGGESTIONS);
+            }
+        }, new DataCallback<TagNameIndex>() {
+            @Override
+            public void onResult(TagNameIndex index) {
+                tagTextView.setAdapter(new TagNameAdapter(context, index));
+            }
+        });
     }
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable prefix tree of tag names, which returns the best ranked names starting with a
+ * prefix, ignoring case.
+ * <p/>
+ * Each node of the tree is a prefix, and keeps the positions of its best ranked names, so a
+ * lookup only walks the characters of the prefix and does not allocate memory. Nodes are
+ * stored in parallel arrays, and their suggestions in a single array where each node uses at
+ * most one entry per name below it, so the index takes memory proportional to the total
+ * length of the names. It can be read from several threads.
+ */
+public class TagNameIndex {
+
+    /**
+     * Node returned when no name starts with a prefix
+     */
+    public static final int NO_NODE = -1;
+
+    private static final int ROOT = 0;
+
+    /**
+     * Names, from the best to the worst ranked
+     */
+    private final String[] mNames;
+
+    // Nodes. Children are linked lists of siblings, and the root is node 0.
+    private final char[] mLabels;
+    private final int[] mFirstChild;
+    private final int[] mNextSibling;
+
+    /**
+     * Suggestions of each node, from mSuggestions[mSuggestionStart[node]] to
+     * mSuggestions[mSuggestionStart[node + 1]] excluded
+     */
+    private final int[] mSuggestionStart;
+    private final int[] mSuggestions;
+
+    /**
+     * Constructor
+     *
+     * @param names          the names, from the best to the worst ranked
+     * @param maxSuggestions the maximum number of suggestions of a prefix
+     */
+    public TagNameIndex(List<String> names, int maxSuggestions) {
+        mNames = names.toArray(new String[names.size()]);
+
+        // A node per character is an upper bound of the number of nodes
+        int maxNodes = 1;
+        for (String name : mNames) {
+            maxNodes += name.length();
+        }
+        char[] labels = new char[maxNodes];
+        int[] firstChild = new int[maxNodes];
+        int[] nextSibling = new int[maxNodes];
+        int[] suggestionCount = new int[maxNodes];
+        Arrays.fill(firstChild, NO_NODE);
+        Arrays.fill(nextSibling, NO_NODE);
+
+        // Build the tree and count the suggestions of each node. Names are inserted from the
+        // best ranked, so the suggestions of a node are its first names.
+        int nodeCount = 1;
+        for (String name : mNames) {
+            int node = ROOT;
+            for (int i = 0; i < name.length(); i++) {
+                char label = Character.toLowerCase(name.charAt(i));
+                int child = findChild(labels, firstChild, nextSibling, node, label);
+                if (child == NO_NODE) {
+                    child = nodeCount++;
+                    labels[child] = label;
+                    nextSibling[child] = firstChild[node];
+                    firstChild[node] = child;
+                }
+                node = child;
+                if (suggestionCount[node] < maxSuggestions) {
+                    suggestionCount[node]++;
+                }
+            }
+        }
+
+        mLabels = Arrays.copyOf(labels, nodeCount);
+        mFirstChild = Arrays.copyOf(firstChild, nodeCount);
+        mNextSibling = Arrays.copyOf(nextSibling, nodeCount);
+        mSuggestionStart = new int[nodeCount + 1];
+        for (int node = 0; node < nodeCount; node++) {
+            mSuggestionStart[node + 1] = mSuggestionStart[node] + suggestionCount[node];
+        }
+
+        // Fill the suggestions, walking the names again in the same order
+        mSuggestions = new int[mSuggestionStart[nodeCount]];
+        int[] filled = new int[nodeCount];
+        for (int position = 0; position < mNames.length; position++) {
+            String name = mNames[position];
+            int node = ROOT;
+            for (int i = 0; i < name.length(); i++) {
+                node = findChild(mLabels, mFirstChild, mNextSibling, node,
+                        Character.toLowerCase(name.charAt(i)));
+                if (filled[node] < suggestionCount[node]) {
+                    mSuggestions[mSuggestionStart[node] + filled[node]++] = position;
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the node of a prefix
+     *
+     * @param prefix the prefix
+     * @return the node, or {@link #NO_NODE} if the prefix is empty or no name starts with it
+     */
+    public int findNode(CharSequence prefix) {
+        if (prefix == null || prefix.length() == 0) {
+            return NO_NODE;
+        }
+        int node = ROOT;
+        for (int i = 0; i < prefix.length() && node != NO_NODE; i++) {
+            node = findChild(mLabels, mFirstChild, mNextSibling, node,
+                    Character.toLowerCase(prefix.charAt(i)));
+        }
+        return node;
+    }
+
+    /**
+     * Return the number of suggestions of a node
+     *
+     * @param node the node, or {@link #NO_NODE}
+     * @return the number of suggestions
+     */
+    public int getSuggestionCount(int node) {
+        return node == NO_NODE ? 0 : mSuggestionStart[node + 1] - mSuggestionStart[node];
+    }
+
+    /**
+     * Return a suggestion of a node
+     *
+     * @param node     the node
+     * @param position the position of the suggestion, from the best ranked
+     * @return the tag name
+     */
+    public String getSuggestion(int node, int position) {
+        return mNames[mSuggestions[mSuggestionStart[node] + position]];
+    }
+
+    private static int findChild(char[] labels, int[] firstChild, int[] nextSibling, int node,
+                                 char label) {
+        int child = firstChild[node];
+        while (child != NO_NODE && labels[child] != label) {
+            child = nextSibling[child];
+        }
+        return child;
+    }
+}
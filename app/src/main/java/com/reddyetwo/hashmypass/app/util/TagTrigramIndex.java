@@ -0,0 +1,300 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable trigram index of tag names, which finds the names within a small edit distance of
+ * a misspelled name, ignoring case.
+ * <p/>
+ * Names are padded at both ends and split in their distinct trigrams, whose postings list the
+ * names containing them. Each edit operation changes at most three trigrams, so a name within
+ * distance {@link #MAX_DISTANCE} shares at least as many trigrams as it has, minus three per
+ * edit. Only the names which pass this count filter are compared with a bounded Levenshtein
+ * distance. Names with too few trigrams for the filter to apply are always compared.
+ * <p/>
+ * Queries reuse the index scratch arrays, so they are synchronized.
+ */
+public class TagTrigramIndex {
+
+    /**
+     * Maximum edit distance of the similar names
+     */
+    public static final int MAX_DISTANCE = 2;
+
+    private static final int TRIGRAM_LENGTH = 3;
+    private static final int MAX_CHANGED_TRIGRAMS = TRIGRAM_LENGTH * MAX_DISTANCE;
+    private static final char PADDING = '\0';
+    private static final int CHAR_BITS = 16;
+    private static final int DISTANCE_SHIFT = 32;
+    private static final long POSITION_MASK = 0xffffffffL;
+
+    /**
+     * Names, from the best to the worst ranked
+     */
+    private final String[] mNames;
+
+    /**
+     * Number of distinct trigrams of each name
+     */
+    private final int[] mTrigramCounts;
+
+    /**
+     * Names which can be similar to a query without sharing any trigram with it
+     */
+    private final int[] mShortNames;
+
+    // Postings of the trigrams, sorted by key. The postings of mKeys[i] are mPostings[j] with
+    // mPostingStart[i] <= j < mPostingStart[i + 1], sorted by name position.
+    private final long[] mKeys;
+    private final int[] mPostingStart;
+    private final int[] mPostings;
+
+    // Query scratch arrays
+    private final int[] mCommonCounts;
+    private final int[] mCandidates;
+    private final long[] mMatches;
+    private int[] mPreviousRow;
+    private int[] mCurrentRow;
+
+    /**
+     * Constructor
+     *
+     * @param names the names, from the best to the worst ranked
+     */
+    public TagTrigramIndex(List<String> names) {
+        mNames = names.toArray(new String[names.size()]);
+        int nameCount = mNames.length;
+        mTrigramCounts = new int[nameCount];
+
+        // Distinct trigrams of every name, in name order
+        long[][] nameKeys = new long[nameCount][];
+        int keyCount = 0;
+        int shortNameCount = 0;
+        int maxLength = 0;
+        for (int position = 0; position < nameCount; position++) {
+            nameKeys[position] = getTrigrams(mNames[position]);
+            mTrigramCounts[position] = nameKeys[position].length;
+            keyCount += nameKeys[position].length;
+            if (nameKeys[position].length <= MAX_CHANGED_TRIGRAMS) {
+                shortNameCount++;
+            }
+            maxLength = Math.max(maxLength, mNames[position].length());
+        }
+
+        mShortNames = new int[shortNameCount];
+        long[] allKeys = new long[keyCount];
+        int shortName = 0;
+        int key = 0;
+        for (int position = 0; position < nameCount; position++) {
+            if (nameKeys[position].length <= MAX_CHANGED_TRIGRAMS) {
+                mShortNames[shortName++] = position;
+            }
+            System.arraycopy(nameKeys[position], 0, allKeys, key, nameKeys[position].length);
+            key += nameKeys[position].length;
+        }
+
+        // Distinct keys, and the number of postings of each one
+        Arrays.sort(allKeys);
+        int distinctCount = 0;
+        for (int i = 0; i < keyCount; i++) {
+            if (i == 0 || allKeys[i] != allKeys[i - 1]) {
+                allKeys[distinctCount++] = allKeys[i];
+            }
+        }
+        mKeys = Arrays.copyOf(allKeys, distinctCount);
+        int[] postingCounts = new int[distinctCount];
+        for (long[] keys : nameKeys) {
+            for (long trigram : keys) {
+                postingCounts[Arrays.binarySearch(mKeys, trigram)]++;
+            }
+        }
+        mPostingStart = new int[distinctCount + 1];
+        for (int i = 0; i < distinctCount; i++) {
+            mPostingStart[i + 1] = mPostingStart[i] + postingCounts[i];
+        }
+
+        // Fill the postings in name order, so that they are sorted
+        mPostings = new int[keyCount];
+        int[] filled = new int[distinctCount];
+        for (int position = 0; position < nameCount; position++) {
+            for (long trigram : nameKeys[position]) {
+                int index = Arrays.binarySearch(mKeys, trigram);
+                mPostings[mPostingStart[index] + filled[index]++] = position;
+            }
+        }
+
+        mCommonCounts = new int[nameCount];
+        mCandidates = new int[nameCount];
+        mMatches = new long[nameCount];
+        // The distance rows have a column per character of the name
+        mPreviousRow = new int[maxLength + 1];
+        mCurrentRow = new int[maxLength + 1];
+    }
+
+    /**
+     * Find the names within {@link #MAX_DISTANCE} edits of a query, ignoring case. Names
+     * which only differ in case are returned first.
+     *
+     * @param query      the query
+     * @param maxResults the maximum number of names
+     * @return the names, from the closest and then the best ranked, not including the query
+     * itself
+     */
+    public synchronized List<String> findSimilar(String query, int maxResults) {
+        long[] queryKeys = getTrigrams(query);
+
+        // Count the trigrams shared with the query, keeping the names which share any
+        int candidateCount = 0;
+        for (long trigram : queryKeys) {
+            int index = Arrays.binarySearch(mKeys, trigram);
+            if (index < 0) {
+                continue;
+            }
+            for (int i = mPostingStart[index]; i < mPostingStart[index + 1]; i++) {
+                int position = mPostings[i];
+                if (mCommonCounts[position]++ == 0) {
+                    mCandidates[candidateCount++] = position;
+                }
+            }
+        }
+
+        // Verify the names which pass the count filter, sorting them by distance and rank
+        int matchCount = 0;
+        for (int i = 0; i < candidateCount; i++) {
+            int position = mCandidates[i];
+            int minCommon =
+                    Math.max(queryKeys.length, mTrigramCounts[position]) - MAX_CHANGED_TRIGRAMS;
+            if (mCommonCounts[position] >= minCommon) {
+                matchCount = addMatch(query, position, matchCount);
+            }
+            mCommonCounts[position] = 0;
+        }
+        if (queryKeys.length <= MAX_CHANGED_TRIGRAMS) {
+            for (int position : mShortNames) {
+                // Names sharing trigrams have already been compared
+                if (!hasTrigram(position, queryKeys)) {
+                    matchCount = addMatch(query, position, matchCount);
+                }
+            }
+        }
+        Arrays.sort(mMatches, 0, matchCount);
+
+        List<String> similarNames = new ArrayList<>(Math.min(matchCount, maxResults));
+        for (int i = 0; i < matchCount && similarNames.size() < maxResults; i++) {
+            similarNames.add(mNames[(int) (mMatches[i] & POSITION_MASK)]);
+        }
+        return similarNames;
+    }
+
+    /**
+     * Compare a name with the query and add it to the matches if it is similar
+     *
+     * @return the new number of matches
+     */
+    private int addMatch(String query, int position, int matchCount) {
+        String name = mNames[position];
+        if (name.equals(query)) {
+            return matchCount;
+        }
+        int distance = getDistance(query, name);
+        if (distance <= MAX_DISTANCE) {
+            mMatches[matchCount++] = ((long) distance << DISTANCE_SHIFT) | position;
+        }
+        return matchCount;
+    }
+
+    private boolean hasTrigram(int position, long[] keys) {
+        for (long trigram : keys) {
+            int index = Arrays.binarySearch(mKeys, trigram);
+            if (index >= 0 && Arrays.binarySearch(mPostings, mPostingStart[index],
+                    mPostingStart[index + 1], position) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the Levenshtein distance between two strings ignoring case, or
+     * {@link #MAX_DISTANCE} + 1 if it is larger
+     */
+    private int getDistance(String a, String b) {
+        int aLength = a.length();
+        int bLength = b.length();
+        if (Math.abs(aLength - bLength) > MAX_DISTANCE) {
+            return MAX_DISTANCE + 1;
+        }
+        for (int j = 0; j <= bLength; j++) {
+            mPreviousRow[j] = j;
+        }
+        for (int i = 1; i <= aLength; i++) {
+            char aChar = Character.toLowerCase(a.charAt(i - 1));
+            mCurrentRow[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= bLength; j++) {
+                int cost = aChar == Character.toLowerCase(b.charAt(j - 1)) ? 0 : 1;
+                int distance = Math.min(mPreviousRow[j - 1] + cost,
+                        Math.min(mPreviousRow[j], mCurrentRow[j - 1]) + 1);
+                mCurrentRow[j] = distance;
+                rowMin = Math.min(rowMin, distance);
+            }
+            if (rowMin > MAX_DISTANCE) {
+                return MAX_DISTANCE + 1;
+            }
+            int[] row = mPreviousRow;
+            mPreviousRow = mCurrentRow;
+            mCurrentRow = row;
+        }
+        return Math.min(mPreviousRow[bLength], MAX_DISTANCE + 1);
+    }
+
+    /**
+     * Return the sorted distinct trigram keys of a padded name, ignoring case
+     */
+    private static long[] getTrigrams(String name) {
+        int length = name.length();
+        if (length == 0) {
+            return new long[0];
+        }
+        // Two padding characters at each end, so that each character starts a trigram
+        int count = length + TRIGRAM_LENGTH - 1;
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            long key = 0;
+            for (int j = i - TRIGRAM_LENGTH + 1; j <= i; j++) {
+                char c = j >= 0 && j < length ? Character.toLowerCase(name.charAt(j)) : PADDING;
+                key = (key << CHAR_BITS) | c;
+            }
+            keys[i] = key;
+        }
+        Arrays.sort(keys);
+        int distinctCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || keys[i] != keys[i - 1]) {
+                keys[distinctCount++] = keys[i];
+            }
+        }
+        return distinctCount == count ? keys : Arrays.copyOf(keys, distinctCount);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.data;
+
+import com.reddyetwo.hashmypass.app.util.Constants;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TagImportParserTest {
+
+    @Test
+    public void testCsvLine() {
+        TagImportParser parser = new TagImportParser();
+
+        assertTrue(parser.parse("\"face, \"\"book\"\"\",facebook.com,12,numeric,3"));
+        assertEquals("face, \"book\"", parser.getName());
+        assertEquals("facebook.com", parser.getSite());
+        assertEquals(Integer.valueOf(12), parser.getPasswordLength());
+        assertEquals(PasswordType.NUMERIC, parser.getPasswordType());
+        assertEquals(Integer.valueOf(3), parser.getHashCounter());
+
+        assertTrue(parser.parse("github,,,2"));
+        assertEquals("github", parser.getName());
+        assertNull(parser.getSite());
+        assertNull(parser.getPasswordLength());
+        assertEquals(PasswordType.values()[2], parser.getPasswordType());
+        assertNull(parser.getHashCounter());
+    }
+
+    @Test
+    public void testJsonLine() {
+        TagImportParser parser = new TagImportParser();
+
+        assertTrue(parser.parse("{\"name\": \"twitter\", \"password_length\": 8, " +
+                "\"password_type\": \"alphanumeric\", \"hash_counter\": null}"));
+        assertEquals("twitter", parser.getName());
+        assertNull(parser.getSite());
+        assertEquals(Integer.valueOf(8), parser.getPasswordLength());
+        assertEquals(PasswordType.ALPHANUMERIC, parser.getPasswordType());
+        assertNull(parser.getHashCounter());
+
+        assertFalse(parser.parse("{\"site\": \"twitter.com\"}"));
+        assertFalse(parser.parse("{\"name\": \"twitter\""));
+    }
+
+    @Test
+    public void testInvalidLines() {
+        TagImportParser parser = new TagImportParser();
+
+        assertFalse(parser.parse(",facebook.com"));
+        assertFalse(parser.parse("facebook,,twelve"));
+        assertFalse(parser.parse("facebook,,,unknown"));
+        assertFalse(parser.parse("facebook,,,9"));
+        assertFalse(parser.parse("facebook,,,,-1"));
+        assertFalse(parser.parse("\"facebook,facebook.com"));
+    }
+
+    @Test
+    public void testPasswordLengthRange() {
+        TagImportParser parser = new TagImportParser();
+
+        assertTrue(parser.parse("facebook,," + Constants.MIN_PASSWORD_LENGTH));
+        assertTrue(parser.parse("facebook,," + Constants.MAX_PASSWORD_LENGTH));
+        assertFalse(parser.parse("facebook,," + (Constants.MIN_PASSWORD_LENGTH - 1)));
+        assertFalse(parser.parse("facebook,," + (Constants.MAX_PASSWORD_LENGTH + 1)));
+        assertFalse(parser.parse("facebook,,0"));
+        assertFalse(parser.parse("{\"name\": \"facebook\", \"password_length\": 30}"));
+    }
+
+    @Test
+    public void testCsvHeader() {
+        TagImportParser parser = new TagImportParser();
+
+        assertTrue(parser.isCsvHeader("Name,Site,Password_Length,Password_Type,Hash_Counter"));
+        assertFalse(parser.isCsvHeader("facebook,facebook.com"));
+        assertFalse(parser.isCsvHeader("{\"name\": \"name\"}"));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TagNameIndexTest {
+
+    private static final int MAX_SUGGESTIONS = 3;
+
+    @Test
+    public void testSuggestionsAreRankedAndLimited() {
+        TagNameIndex index = new TagNameIndex(
+                Arrays.asList("google", "github", "gmail", "gitlab", "amazon"), MAX_SUGGESTIONS);
+
+        assertEquals(Arrays.asList("google", "github", "gmail"), getSuggestions(index, "g"));
+        assertEquals(Arrays.asList("github", "gitlab"), getSuggestions(index, "gi"));
+        assertEquals(Collections.singletonList("amazon"), getSuggestions(index, "amazon"));
+    }
+
+    @Test
+    public void testCaseIsIgnored() {
+        TagNameIndex index = new TagNameIndex(Arrays.asList("GitHub", "gitlab"), MAX_SUGGESTIONS);
+
+        assertEquals(Arrays.asList("GitHub", "gitlab"), getSuggestions(index, "GIT"));
+        assertEquals(Collections.singletonList("GitHub"), getSuggestions(index, "gith"));
+    }
+
+    @Test
+    public void testNoSuggestions() {
+        TagNameIndex index = new TagNameIndex(Arrays.asList("google", "github"), MAX_SUGGESTIONS);
+
+        assertEquals(TagNameIndex.NO_NODE, index.findNode(""));
+        assertEquals(TagNameIndex.NO_NODE, index.findNode(null));
+        assertEquals(TagNameIndex.NO_NODE, index.findNode("googles"));
+        assertEquals(TagNameIndex.NO_NODE, index.findNode("x"));
+        assertEquals(0, index.getSuggestionCount(TagNameIndex.NO_NODE));
+        assertEquals(0, getSuggestions(new TagNameIndex(new ArrayList<String>(),
+                MAX_SUGGESTIONS), "g").size());
+    }
+
+    @Test
+    public void testMatchesLinearSearch() {
+        Random random = new Random(0);
+        String alphabet = "abcABC\u00e9\u00c9";
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            names.add(getRandomString(random, alphabet, 1 + random.nextInt(6)));
+        }
+        TagNameIndex index = new TagNameIndex(names, MAX_SUGGESTIONS);
+
+        for (int i = 0; i < 2000; i++) {
+            String prefix = getRandomString(random, alphabet, 1 + random.nextInt(4));
+            List<String> expected = new ArrayList<>();
+            for (String name : names) {
+                if (expected.size() < MAX_SUGGESTIONS &&
+                        toLowerCase(name).startsWith(toLowerCase(prefix))) {
+                    expected.add(name);
+                }
+            }
+            assertEquals(prefix, expected, getSuggestions(index, prefix));
+        }
+    }
+
+    private static List<String> getSuggestions(TagNameIndex index, String prefix) {
+        int node = index.findNode(prefix);
+        List<String> suggestions = new ArrayList<>();
+        for (int i = 0; i < index.getSuggestionCount(node); i++) {
+            suggestions.add(index.getSuggestion(node, i));
+        }
+        return suggestions;
+    }
+
+    private static String getRandomString(Random random, String alphabet, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Lower case each char separately, like the index does
+     */
+    private static String toLowerCase(String s) {
+        StringBuilder builder = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            builder.append(Character.toLowerCase(s.charAt(i)));
+        }
+        return builder.toString();
+    }
+}
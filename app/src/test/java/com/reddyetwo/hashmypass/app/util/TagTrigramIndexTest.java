@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TagTrigramIndexTest {
+
+    @Test
+    public void testMisspelledNames() {
+        TagTrigramIndex index = new TagTrigramIndex(
+                Arrays.asList("facebook", "twitter", "github", "gitlab", "google"));
+
+        assertEquals(Collections.singletonList("facebook"), index.findSimilar("facebok", 3));
+        assertEquals(Collections.singletonList("twitter"), index.findSimilar("twiter", 3));
+        assertEquals(Arrays.asList("github", "gitlab"), index.findSimilar("githab", 3));
+        assertTrue(index.findSimilar("amazon", 3).isEmpty());
+    }
+
+    @Test
+    public void testResultsAreSortedByDistanceAndRank() {
+        TagTrigramIndex index = new TagTrigramIndex(Arrays.asList("abcd", "abxd", "Abce", "abc"));
+
+        // Case differences are not edits, and the query itself is not returned
+        assertEquals(Arrays.asList("Abce", "abcd", "abc"), index.findSimilar("abce", 3));
+        assertEquals(Arrays.asList("abcd", "Abce"), index.findSimilar("abc", 2));
+        assertTrue(index.findSimilar("abce", 0).isEmpty());
+    }
+
+    @Test
+    public void testShortNames() {
+        TagTrigramIndex index = new TagTrigramIndex(Arrays.asList("ab", "x", "xyz", "", "mail"));
+
+        // Short names may be similar without sharing any trigram
+        assertEquals(Arrays.asList("x", "", "ab", "xyz"), index.findSimilar("y", 5));
+        assertEquals(Arrays.asList("x", "ab"), index.findSimilar("", 5));
+    }
+
+    @Test
+    public void testMatchesLinearSearch() {
+        Random random = new Random(0);
+        Set<String> nameSet = new LinkedHashSet<>();
+        while (nameSet.size() < 2000) {
+            nameSet.add(getRandomString(random, 1, 9));
+        }
+        List<String> names = new ArrayList<>(nameSet);
+        TagTrigramIndex index = new TagTrigramIndex(names);
+
+        for (int i = 0; i < 2000; i++) {
+            String query = getRandomString(random, 0, 10);
+            assertEquals(query, findSimilar(names, query),
+                    index.findSimilar(query, Integer.MAX_VALUE));
+        }
+    }
+
+    /**
+     * Find the similar names comparing the query with every name
+     */
+    private static List<String> findSimilar(final List<String> names, String query) {
+        final List<Integer> distances = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        for (int position = 0; position < names.size(); position++) {
+            int distance = getDistance(query, names.get(position));
+            distances.add(distance);
+            if (distance <= TagTrigramIndex.MAX_DISTANCE && !names.get(position).equals(query)) {
+                positions.add(position);
+            }
+        }
+        Collections.sort(positions, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                int result = distances.get(lhs) - distances.get(rhs);
+                return result != 0 ? result : lhs - rhs;
+            }
+        });
+        List<String> similarNames = new ArrayList<>();
+        for (int position : positions) {
+            similarNames.add(names.get(position));
+        }
+        return similarNames;
+    }
+
+    /**
+     * Return the Levenshtein distance between two strings, ignoring case
+     */
+    private static int getDistance(String a, String b) {
+        int[][] distances = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            distances[i][0] = i;
+        }
+        for (int j = 0; j <= b.length(); j++) {
+            distances[0][j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = Character.toLowerCase(a.charAt(i - 1)) ==
+                        Character.toLowerCase(b.charAt(j - 1)) ? 0 : 1;
+                distances[i][j] = Math.min(distances[i - 1][j - 1] + cost,
+                        Math.min(distances[i - 1][j], distances[i][j - 1]) + 1);
+            }
+        }
+        return distances[a.length()][b.length()];
+    }
+
+    /**
+     * Return a random string from a small alphabet, so that many strings are similar
+     */
+    private static String getRandomString(Random random, int minLength, int maxLength) {
+        int length = minLength + random.nextInt(maxLength - minLength + 1);
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ((random.nextInt(5) == 0 ? 'A' : 'a') + random.nextInt(5)));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.bench;
+
+import com.reddyetwo.hashmypass.app.data.PasswordType;
+import com.reddyetwo.hashmypass.app.hash.BaselinePasswordHasher;
+import com.reddyetwo.hashmypass.app.hash.HasherSession;
+import com.reddyetwo.hashmypass.app.hash.PasswordHasher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the generation of the password of a tag
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HashTagBenchmark {
+
+    private static final String TAG = "example.com";
+    private static final String MASTER_KEY = "correct horse battery staple";
+    private static final String PRIVATE_KEY = "ABCDEFGH-IJKL-MNOP-QRST-UVWXYZ012345";
+
+    @Param({"false", "true"})
+    public boolean usePrivateKey;
+
+    @Param({"ALPHANUMERIC_AND_SPECIAL_CHARS", "ALPHANUMERIC", "NUMERIC"})
+    public PasswordType passwordType;
+
+    @Param({"4", "8", "16", "26"})
+    public int length;
+
+    private char[] mMasterKey;
+    private String mPrivateKey;
+    private HasherSession mSession;
+    private char[] mPassword;
+
+    @Setup
+    public void setUp() {
+        mMasterKey = MASTER_KEY.toCharArray();
+        mPrivateKey = usePrivateKey ? PRIVATE_KEY : null;
+        mSession = new HasherSession(mMasterKey, mPrivateKey);
+        mPassword = new char[length];
+    }
+
+    /**
+     * Original String-based implementation. The master key is copied on each call because
+     * hashing wipes it.
+     */
+    @Benchmark
+    public String baseline() {
+        return BaselinePasswordHasher
+                .hashTagWithKeys(TAG, mMasterKey.clone(), mPrivateKey, length, passwordType);
+    }
+
+    @Benchmark
+    public String hashTagWithKeys() {
+        return PasswordHasher
+                .hashTagWithKeys(TAG, mMasterKey.clone(), mPrivateKey, length, passwordType);
+    }
+
+    @Benchmark
+    public String sessionHashTag() {
+        return mSession.hashTag(TAG, length, passwordType);
+    }
+
+    @Benchmark
+    public char[] sessionHashTagIntoBuffer() {
+        mSession.hashTag(TAG, length, passwordType, mPassword);
+        return mPassword;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.bench;
+
+import com.reddyetwo.hashmypass.app.data.PasswordType;
+import com.reddyetwo.hashmypass.app.hash.HashableTag;
+import com.reddyetwo.hashmypass.app.hash.ParallelHasher;
+import com.reddyetwo.hashmypass.app.hash.PasswordHasher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the generation of the passwords of a large tag list, sequentially and with
+ * {@link com.reddyetwo.hashmypass.app.hash.ParallelHasher} using an increasing number of
+ * worker threads
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParallelHashBenchmark {
+
+    private static final String MASTER_KEY = "correct horse battery staple";
+    private static final String PRIVATE_KEY = "ABCDEFGH-IJKL-MNOP-QRST-UVWXYZ012345";
+
+    @Param({"10000"})
+    public int tagCount;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private List<Tag> mTags;
+    private ParallelHasher mHasher;
+
+    @Setup
+    public void setUp() {
+        mTags = new ArrayList<>(tagCount);
+        PasswordType[] types = PasswordType.values();
+        for (int i = 0; i < tagCount; i++) {
+            mTags.add(new Tag("tag" + i + ".example.com", 8 + i % 12, types[i % types.length]));
+        }
+        mHasher = new ParallelHasher(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mHasher.shutdown();
+    }
+
+    /**
+     * Reference for the parallel hashing, which does not depend on the number of threads
+     */
+    @Benchmark
+    public List<String> sequential() {
+        return PasswordHasher.hashTagsWithKeys(mTags, MASTER_KEY.toCharArray(), PRIVATE_KEY);
+    }
+
+    @Benchmark
+    public void parallel(final Blackhole blackhole) throws InterruptedException {
+        mHasher.hashTagsWithKeys(mTags, MASTER_KEY.toCharArray(), PRIVATE_KEY, null,
+                new ParallelHasher.OnTagHashedListener<Tag>() {
+                    @Override
+                    public void onTagHashed(Tag tag, String password) {
+                        blackhole.consume(password);
+                    }
+                });
+    }
+
+    private static class Tag implements HashableTag {
+
+        private final String mName;
+        private final int mPasswordLength;
+        private final PasswordType mPasswordType;
+
+        Tag(String name, int passwordLength, PasswordType passwordType) {
+            mName = name;
+            mPasswordLength = passwordLength;
+            mPasswordType = passwordType;
+        }
+
+        @Override
+        public String getName() {
+            return mName;
+        }
+
+        @Override
+        public int getPasswordLength() {
+            return mPasswordLength;
+        }
+
+        @Override
+        public PasswordType getPasswordType() {
+            return mPasswordType;
+        }
+    }
+}
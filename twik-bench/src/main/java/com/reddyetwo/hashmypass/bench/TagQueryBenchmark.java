@@ -0,0 +1,280 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the tag queries on a large database, without indexes, with the indexes added
+ * in version 5 of the schema, which only hold the sort and filter keys, and with covering
+ * indexes, which also hold every selected column. The schema and the queries mirror those of
+ * DataOpenHelper, TagSettings and HashCounterJournal.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TagQueryBenchmark {
+
+    private static final long PROFILE_ID = 1;
+    private static final int PAGE_SIZE = 50;
+    private static final int SITES = 1000;
+    private static final int HASH_COUNTER_UPDATES = 100;
+
+    private static final String INDEXES_NONE = "none";
+    private static final String INDEXES_KEYS = "keys";
+    private static final String INDEXES_COVERING = "covering";
+
+    private static final String TAGS_TABLE_CREATE = "CREATE TABLE tags (" +
+            "_id INTEGER PRIMARY KEY, name TEXT, profile_id INTEGER, " +
+            "hash_counter INTEGER NOT NULL DEFAULT 0, site TEXT, password_length INTEGER, " +
+            "password_type INTEGER, FOREIGN KEY (profile_id) REFERENCES profiles(id)" +
+            "UNIQUE (name, profile_id),UNIQUE (profile_id, site));";
+    private static final String[] TAGS_INDEXES_CREATE = {
+            "CREATE INDEX tags_profile_id_hash_counter ON tags (profile_id, hash_counter DESC);",
+            "CREATE INDEX tags_profile_id_name ON tags (profile_id, name COLLATE NOCASE);",
+            "CREATE INDEX tags_site ON tags (site);"};
+    private static final String[] TAGS_COVERING_INDEXES_CREATE = {
+            "CREATE INDEX tags_profile_id_hash_counter ON tags (profile_id, hash_counter DESC, " +
+                    "_id, name, site, password_length, password_type);",
+            "CREATE INDEX tags_profile_id_name ON tags (profile_id, name COLLATE NOCASE, _id, " +
+                    "hash_counter, site, password_length, password_type);",
+            "CREATE INDEX tags_site ON tags (site);"};
+    private static final String TAGS_INSERT = "INSERT INTO tags (name, profile_id, " +
+            "hash_counter, site, password_length, password_type) VALUES (?, ?, ?, ?, 8, 1)";
+
+    private static final String SQL_SELECT_PROFILE_TAGS =
+            "SELECT _id, profile_id, hash_counter, site, name, password_length, password_type " +
+                    "FROM tags WHERE profile_id = ? ";
+    private static final String SQL_ORDER_BY_HASH_COUNTER =
+            SQL_SELECT_PROFILE_TAGS + "ORDER BY hash_counter DESC, _id";
+    private static final String SQL_ORDER_BY_NAME =
+            SQL_SELECT_PROFILE_TAGS + "ORDER BY name COLLATE NOCASE, _id";
+    private static final String SQL_PAGE_BY_HASH_COUNTER =
+            SQL_ORDER_BY_HASH_COUNTER + " LIMIT " + PAGE_SIZE;
+    private static final String SQL_PAGE_BY_NAME = SQL_ORDER_BY_NAME + " LIMIT " + PAGE_SIZE;
+    private static final String SQL_NEXT_PAGE_BY_NAME = SQL_SELECT_PROFILE_TAGS +
+            "AND name >= ? COLLATE NOCASE AND (name > ? COLLATE NOCASE OR _id > ?) " +
+            "ORDER BY name COLLATE NOCASE, _id LIMIT " + PAGE_SIZE;
+    private static final String SQL_INCREASE_HASH_COUNTER =
+            "UPDATE tags SET hash_counter = hash_counter + ? WHERE _id = ?";
+    private static final String SQL_SITE_HAS_TAGS =
+            "SELECT EXISTS (SELECT 1 FROM tags WHERE site = ?)";
+
+    @Param({"50000"})
+    public int tagCount;
+
+    @Param({INDEXES_NONE, INDEXES_KEYS, INDEXES_COVERING})
+    public String indexes;
+
+    private File mFile;
+    private Connection mConnection;
+    private PreparedStatement mOrderByHashCounter;
+    private PreparedStatement mOrderByName;
+    private PreparedStatement mPageByHashCounter;
+    private PreparedStatement mPageByName;
+    private PreparedStatement mNextPageByName;
+    private PreparedStatement mIncreaseHashCounter;
+    private String mMiddleName;
+    private long mMiddleId;
+    private PreparedStatement mSiteHasTags;
+    private int mSite;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        mFile = File.createTempFile("tags", ".db");
+        mConnection = DriverManager.getConnection("jdbc:sqlite:" + mFile.getPath());
+        try (Statement statement = mConnection.createStatement()) {
+            statement.execute(TAGS_TABLE_CREATE);
+            if (INDEXES_KEYS.equals(indexes)) {
+                for (String sql : TAGS_INDEXES_CREATE) {
+                    statement.execute(sql);
+                }
+            } else if (INDEXES_COVERING.equals(indexes)) {
+                for (String sql : TAGS_COVERING_INDEXES_CREATE) {
+                    statement.execute(sql);
+                }
+            }
+        }
+
+        // A single profile holds all the tags. Some of them are associated to a site. As in the
+        // application, ANALYZE is never run, so the query planner has no statistics.
+        Random random = new Random(0);
+        mConnection.setAutoCommit(false);
+        try (PreparedStatement insert = mConnection.prepareStatement(TAGS_INSERT)) {
+            for (int i = 0; i < tagCount; i++) {
+                insert.setString(1, Integer.toString(random.nextInt(), Character.MAX_RADIX) + i);
+                insert.setLong(2, PROFILE_ID);
+                insert.setInt(3, random.nextInt(100));
+                insert.setString(4, i < SITES ? site(i) : null);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+        mConnection.commit();
+        mConnection.setAutoCommit(true);
+
+        mOrderByHashCounter = mConnection.prepareStatement(SQL_ORDER_BY_HASH_COUNTER);
+        mOrderByName = mConnection.prepareStatement(SQL_ORDER_BY_NAME);
+        mPageByHashCounter = mConnection.prepareStatement(SQL_PAGE_BY_HASH_COUNTER);
+        mPageByName = mConnection.prepareStatement(SQL_PAGE_BY_NAME);
+        mNextPageByName = mConnection.prepareStatement(SQL_NEXT_PAGE_BY_NAME);
+        mIncreaseHashCounter = mConnection.prepareStatement(SQL_INCREASE_HASH_COUNTER);
+
+        // The next page is read after the tag in the middle of the list sorted by name
+        try (Statement statement = mConnection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT name, _id FROM tags " +
+                     "ORDER BY name COLLATE NOCASE, _id LIMIT 1 OFFSET " + tagCount / 2)) {
+            resultSet.next();
+            mMiddleName = resultSet.getString(1);
+            mMiddleId = resultSet.getLong(2);
+        }
+        mSiteHasTags = mConnection.prepareStatement(SQL_SITE_HAS_TAGS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        mConnection.close();
+        if (!mFile.delete()) {
+            mFile.deleteOnExit();
+        }
+    }
+
+    /**
+     * Load the whole tag list sorted by usage
+     */
+    @Benchmark
+    public void loadOrderedByHashCounter(Blackhole blackhole) throws SQLException {
+        readTags(mOrderByHashCounter, blackhole);
+    }
+
+    /**
+     * Load the whole tag list sorted by name
+     */
+    @Benchmark
+    public void loadOrderedByName(Blackhole blackhole) throws SQLException {
+        readTags(mOrderByName, blackhole);
+    }
+
+    /**
+     * Load the first screen of the tag list sorted by usage
+     */
+    @Benchmark
+    public void loadFirstPageOrderedByHashCounter(Blackhole blackhole) throws SQLException {
+        readTags(mPageByHashCounter, blackhole);
+    }
+
+    /**
+     * Load the first screen of the tag list sorted by name
+     */
+    @Benchmark
+    public void loadFirstPageOrderedByName(Blackhole blackhole) throws SQLException {
+        readTags(mPageByName, blackhole);
+    }
+
+    /**
+     * Load the screen of the tag list sorted by name which follows the middle tag
+     */
+    @Benchmark
+    public void loadNextPageOrderedByName(Blackhole blackhole) throws SQLException {
+        mNextPageByName.setString(2, mMiddleName);
+        mNextPageByName.setString(3, mMiddleName);
+        mNextPageByName.setLong(4, mMiddleId);
+        readTags(mNextPageByName, blackhole);
+    }
+
+    /**
+     * Write the hash counter increments of some tags in a transaction, as the hash counter
+     * journal does. Increments update the indexes which hold the hash counter.
+     */
+    @Benchmark
+    public int[] increaseHashCounters() throws SQLException {
+        mConnection.setAutoCommit(false);
+        try {
+            for (int i = 0; i < HASH_COUNTER_UPDATES; i++) {
+                mIncreaseHashCounter.setInt(1, 1);
+                mIncreaseHashCounter.setLong(2, 1 + (long) i * tagCount / HASH_COUNTER_UPDATES);
+                mIncreaseHashCounter.addBatch();
+            }
+            int[] counts = mIncreaseHashCounter.executeBatch();
+            mConnection.commit();
+            return counts;
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Check whether a site has tags, half of the time for a site without tags
+     */
+    @Benchmark
+    public boolean siteHasTags() throws SQLException {
+        mSite = (mSite + 1) % (2 * SITES);
+        mSiteHasTags.setString(1, site(mSite));
+        try (ResultSet resultSet = mSiteHasTags.executeQuery()) {
+            return resultSet.next() && resultSet.getInt(1) != 0;
+        }
+    }
+
+    private static void readTags(PreparedStatement statement, Blackhole blackhole)
+            throws SQLException {
+        statement.setLong(1, PROFILE_ID);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                blackhole.consume(resultSet.getLong(1));
+                blackhole.consume(resultSet.getInt(3));
+                blackhole.consume(resultSet.getString(4));
+                blackhole.consume(resultSet.getString(5));
+                blackhole.consume(resultSet.getInt(6));
+                blackhole.consume(resultSet.getInt(7));
+            }
+        }
+    }
+
+    private static String site(int i) {
+        return "site" + i + ".example.com";
+    }
+}
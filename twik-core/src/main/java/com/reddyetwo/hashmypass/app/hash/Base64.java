@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.hash;
+
+/**
+ * Pure Java Base64 encoder, compatible with the encoding methods and flags of
+ * {@code android.util.Base64}
+ */
+public class Base64 {
+
+    /**
+     * Default values for encoder flags: padding and line wrapping
+     */
+    public static final int DEFAULT = 0;
+
+    /**
+     * Encoder flag bit to omit the padding '=' characters at the end of the output
+     */
+    public static final int NO_PADDING = 1;
+
+    /**
+     * Encoder flag bit to omit all line terminators (i.e., the output will be on one long line)
+     */
+    public static final int NO_WRAP = 2;
+
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final char PADDING = '=';
+    private static final char NEW_LINE = '\n';
+    private static final int LINE_LENGTH = 76;
+    private static final int GROUP_BYTES = 3;
+    private static final int GROUP_CHARS = 4;
+    private static final int SEXTET_MASK = 63;
+    private static final int BYTE_MASK = 255;
+
+    private Base64() {
+
+    }
+
+    /**
+     * Base64-encode the given data and return a newly allocated String with the result
+     *
+     * @param input the data to encode
+     * @param flags controls certain features of the encoded output
+     * @return the encoded string
+     */
+    public static String encodeToString(byte[] input, int flags) {
+        int groups = (input.length + GROUP_BYTES - 1) / GROUP_BYTES;
+        char[] output = new char[groups * GROUP_CHARS];
+        int length = encode(input, input.length, output, (flags & NO_PADDING) == 0);
+        if ((flags & NO_WRAP) != 0 || length == 0) {
+            return new String(output, 0, length);
+        }
+
+        // Wrap lines, with a line terminator at the end of the output
+        StringBuilder wrapped = new StringBuilder(length + length / LINE_LENGTH + 1);
+        for (int start = 0; start < length; start += LINE_LENGTH) {
+            wrapped.append(output, start, Math.min(LINE_LENGTH, length - start)).append(NEW_LINE);
+        }
+        return wrapped.toString();
+    }
+
+    /**
+     * Base64-encode data into a caller-supplied buffer, without padding and line terminators
+     *
+     * @param input       the data to encode
+     * @param inputLength the number of bytes to encode
+     * @param output      the output buffer
+     * @return the number of encoded chars
+     */
+    public static int encode(byte[] input, int inputLength, char[] output) {
+        return encode(input, inputLength, output, false);
+    }
+
+    private static int encode(byte[] input, int inputLength, char[] output, boolean padding) {
+        int o = 0;
+        int i = 0;
+        while (i < inputLength) {
+            int remaining = Math.min(inputLength - i, GROUP_BYTES);
+            int group = (input[i] & BYTE_MASK) << 16;
+            if (remaining > 1) {
+                group |= (input[i + 1] & BYTE_MASK) << 8;
+            }
+            if (remaining > 2) {
+                group |= input[i + 2] & BYTE_MASK;
+            }
+            output[o++] = ALPHABET[(group >> 18) & SEXTET_MASK];
+            output[o++] = ALPHABET[(group >> 12) & SEXTET_MASK];
+            if (remaining > 1) {
+                output[o++] = ALPHABET[(group >> 6) & SEXTET_MASK];
+            } else if (padding) {
+                output[o++] = PADDING;
+            }
+            if (remaining > 2) {
+                output[o++] = ALPHABET[group & SEXTET_MASK];
+            } else if (padding) {
+                output[o++] = PADDING;
+            }
+            i += remaining;
+        }
+        return o;
+    }
+}
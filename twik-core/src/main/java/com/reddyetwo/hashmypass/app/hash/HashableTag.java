@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.hash;
+
+import com.reddyetwo.hashmypass.app.data.PasswordType;
+
+/**
+ * Tag settings needed to generate its password
+ */
+public interface HashableTag {
+
+    /**
+     * Get the tag name
+     *
+     * @return the tag name
+     */
+    String getName();
+
+    /**
+     * Get the password length
+     *
+     * @return the password length
+     */
+    int getPasswordLength();
+
+    /**
+     * Get the password type
+     *
+     * @return the password type
+     */
+    PasswordType getPasswordType();
+}
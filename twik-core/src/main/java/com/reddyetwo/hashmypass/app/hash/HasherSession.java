@@ -0,0 +1,367 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.hash;
+
+import com.reddyetwo.hashmypass.app.data.PasswordType;
+import com.reddyetwo.hashmypass.app.util.SecurePassword;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Password generator bound to a master key and a private key.
+ * <p/>
+ * The master key HMAC is keyed once per thread and reused for every tag hashed with the session.
+ * It is a {@link com.reddyetwo.hashmypass.app.hash.HmacSha1} with precomputed key midstates,
+ * so each password only costs the compression of the message blocks and the outer block.
+ * Hashes are encoded and post-processed in per-thread scratch buffers, so generating passwords
+ * in batches creates almost no garbage. Sessions are thread-safe.
+ * <p/>
+ * {@link #wipe()} wipes the state of every thread, and the session fails to generate
+ * passwords afterwards.
+ */
+public class HasherSession {
+
+    private static final Logger LOGGER = Logger.getLogger(HasherSession.class.getName());
+    private static final String DIGEST_SHA256 = "SHA-256";
+
+    private final char[] mMasterKey;
+    private final String mPrivateKey;
+    private final byte[] mPrivateKeyBytes;
+    private final String mPrivateKeyDigest;
+    private final byte[] mMasterKeyBytes;
+
+    /**
+     * Hashing states of all the threads, so that they can be wiped. Guarded by itself.
+     */
+    private final List<Worker> mWorkers = new ArrayList<>();
+
+    /**
+     * Hashing state, one per thread
+     */
+    private final ThreadLocal<Worker> mWorker = new ThreadLocal<Worker>() {
+        @Override
+        protected Worker initialValue() {
+            synchronized (mWorkers) {
+                HmacSha1 masterKeyHmac = HmacSha1.create();
+                HmacSha1 tagHmac = HmacSha1.create();
+                if (mWiped || masterKeyHmac == null || tagHmac == null) {
+                    return null;
+                }
+                masterKeyHmac.init(mMasterKeyBytes, mMasterKeyBytes.length);
+                Worker worker = new Worker(masterKeyHmac, tagHmac);
+                mWorkers.add(worker);
+                return worker;
+            }
+        }
+    };
+
+    private volatile boolean mWiped;
+
+    /**
+     * Constructor
+     *
+     * @param masterKey  the master key
+     * @param privateKey the private key, or null if not used
+     */
+    public HasherSession(char[] masterKey, String privateKey) {
+        mMasterKey = Arrays.copyOf(masterKey, masterKey.length);
+        mPrivateKey = privateKey;
+        mPrivateKeyBytes = privateKey == null ? null : privateKey.getBytes();
+        mPrivateKeyDigest = mPrivateKeyBytes == null ? null : calculateDigest(mPrivateKeyBytes);
+        mMasterKeyBytes = SecurePassword.toBytes(Arrays.copyOf(masterKey, masterKey.length));
+    }
+
+    /**
+     * Check whether this session was created for a master key and a private key
+     *
+     * @param masterKey  the master key
+     * @param privateKey the private key, or null if not used
+     * @return true if the session uses the same keys, false otherwise
+     */
+    public boolean matches(char[] masterKey, String privateKey) {
+        return !mWiped && Arrays.equals(mMasterKey, masterKey) &&
+                (mPrivateKey == null ? privateKey == null : mPrivateKey.equals(privateKey));
+    }
+
+    /**
+     * Generate a hashed password for a tag
+     *
+     * @param tag          the tag name
+     * @param length       the password length
+     * @param passwordType the password type
+     * @return the hashed password, or null if an error occurred or the session has been wiped
+     */
+    public String hashTag(String tag, int length, PasswordType passwordType) {
+        Worker worker = getWorker();
+        if (worker == null) {
+            return null;
+        }
+        hash(worker, tag, length, passwordType);
+        String password = new String(worker.mHash, 0, length);
+        Arrays.fill(worker.mHash, ' ');
+        // The state may have been wiped while hashing
+        return mWiped ? null : password;
+    }
+
+    /**
+     * Generate a hashed password for a tag, storing it in a caller-supplied buffer.
+     * No intermediate strings are created.
+     *
+     * @param tag          the tag name
+     * @param length       the password length
+     * @param passwordType the password type
+     * @param password     the output buffer, whose first length chars are overwritten
+     * @return true in case of success, false if an error occurred or the session has been
+     * wiped
+     */
+    public boolean hashTag(String tag, int length, PasswordType passwordType, char[] password) {
+        Worker worker = getWorker();
+        if (worker == null) {
+            return false;
+        }
+        hash(worker, tag, length, passwordType);
+        System.arraycopy(worker.mHash, 0, password, 0, length);
+        Arrays.fill(worker.mHash, ' ');
+        if (mWiped) {
+            Arrays.fill(password, 0, length, ' ');
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Check whether the session uses a private key
+     *
+     * @return true if a private key is used, false otherwise
+     */
+    public boolean hasPrivateKey() {
+        return mPrivateKeyBytes != null;
+    }
+
+    /**
+     * Get a digest of the private key, which identifies the private key without revealing it
+     *
+     * @return the Base64 encoded SHA-256 digest of the private key, or null if the session does
+     * not use a private key or an error occurred
+     */
+    public String getPrivateKeyDigest() {
+        return mPrivateKeyDigest;
+    }
+
+    /**
+     * Calculate the intermediate hash of a tag, which is the hash of the private key keyed with
+     * the tag. It does not depend on the master key, so it can be reused by any session which
+     * uses the same private key.
+     *
+     * @param tag the tag name
+     * @return the intermediate hash, or null if the session does not use a private key, an
+     * error occurred or the session has been wiped
+     */
+    public char[] hashPrivateKey(String tag) {
+        Worker worker = getWorker();
+        if (worker == null || mPrivateKeyBytes == null) {
+            return null;
+        }
+        hashPrivateKey(worker, tag);
+        char[] intermediate =
+                Arrays.copyOf(worker.mHash, PasswordHasher.INTERMEDIATE_HASH_SIZE);
+        Arrays.fill(worker.mHash, ' ');
+        return mWiped ? null : intermediate;
+    }
+
+    /**
+     * Generate a hashed password from an intermediate hash calculated with
+     * {@link #hashPrivateKey(String)}, skipping the private key hashing
+     *
+     * @param intermediate the intermediate hash of the tag
+     * @param length       the password length
+     * @param passwordType the password type
+     * @return the hashed password, or null if an error occurred or the session has been wiped
+     */
+    public String hashIntermediate(char[] intermediate, int length, PasswordType passwordType) {
+        Worker worker = getWorker();
+        if (worker == null) {
+            return null;
+        }
+        System.arraycopy(intermediate, 0, worker.mHash, 0, PasswordHasher.INTERMEDIATE_HASH_SIZE);
+        hashMasterKey(worker, worker.toIntermediateMessage(), length, passwordType,
+                PasswordHasher.INTERMEDIATE_HASH_SIZE);
+        String password = new String(worker.mHash, 0, length);
+        Arrays.fill(worker.mHash, ' ');
+        return mWiped ? null : password;
+    }
+
+    private static String calculateDigest(byte[] input) {
+        try {
+            return Base64.encodeToString(MessageDigest.getInstance(DIGEST_SHA256).digest(input),
+                    Base64.NO_PADDING | Base64.NO_WRAP);
+        } catch (NoSuchAlgorithmException e) {
+            LOGGER.severe("Could not find SHA-256 algorithm: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Get the hashing state of the calling thread
+     *
+     * @return the state, or null if the session has been wiped or an error occurred
+     */
+    private Worker getWorker() {
+        return mWiped ? null : mWorker.get();
+    }
+
+    private void hash(Worker worker, String tag, int length, PasswordType passwordType) {
+        if (mPrivateKeyBytes != null) {
+            // First, hash the tag with the private key
+            hashPrivateKey(worker, tag);
+            hashMasterKey(worker, worker.toIntermediateMessage(), length, passwordType,
+                    PasswordHasher.INTERMEDIATE_HASH_SIZE);
+        } else {
+            byte[] message = worker.encode(tag);
+            hashMasterKey(worker, message, length, passwordType, worker.mMessageLength);
+        }
+    }
+
+    private void hashPrivateKey(Worker worker, String tag) {
+        // The tag is the key of this HMAC, encoded as UTF-8
+        byte[] key = worker.encode(tag, true);
+        worker.mTagHmac.init(key, worker.mMessageLength);
+        Arrays.fill(key, (byte) 0);
+        worker.mTagHmac.doFinal(mPrivateKeyBytes, mPrivateKeyBytes.length, worker.mDigest);
+        PasswordHasher.hashDigest(worker.mDigest, PasswordHasher.INTERMEDIATE_HASH_SIZE,
+                PasswordType.ALPHANUMERIC_AND_SPECIAL_CHARS, worker.mHash);
+    }
+
+    private void hashMasterKey(Worker worker, byte[] message, int length,
+                               PasswordType passwordType, int messageLength) {
+        worker.mMasterKeyHmac.doFinal(message, messageLength, worker.mDigest);
+        PasswordHasher.hashDigest(worker.mDigest, length, passwordType, worker.mHash);
+    }
+
+    /**
+     * Wipe the copy of the master key kept by the session and the hashing state of every
+     * thread. Passwords which are being generated by other threads fail.
+     */
+    public void wipe() {
+        synchronized (mWorkers) {
+            mWiped = true;
+            Arrays.fill(mMasterKey, ' ');
+            Arrays.fill(mMasterKeyBytes, (byte) 0);
+            for (Worker worker : mWorkers) {
+                worker.wipe();
+            }
+            mWorkers.clear();
+        }
+    }
+
+    /**
+     * Per-thread HMAC instances and scratch buffers
+     */
+    private static class Worker {
+
+        private static final int ASCII_LIMIT = 0x80;
+
+        private final HmacSha1 mMasterKeyHmac;
+        private final HmacSha1 mTagHmac;
+        private final byte[] mDigest = new byte[PasswordHasher.HMAC_SIZE];
+        private final char[] mHash = new char[PasswordHasher.HASH_SIZE];
+        private final byte[] mIntermediate = new byte[PasswordHasher.INTERMEDIATE_HASH_SIZE];
+        private byte[] mMessage = new byte[PasswordHasher.HASH_SIZE];
+        private int mMessageLength;
+
+        /**
+         * Constructor
+         *
+         * @param masterKeyHmac the HMAC keyed with the master key
+         * @param tagHmac       the HMAC used to hash the private key
+         */
+        public Worker(HmacSha1 masterKeyHmac, HmacSha1 tagHmac) {
+            mMasterKeyHmac = masterKeyHmac;
+            mTagHmac = tagHmac;
+        }
+
+        /**
+         * Wipe the HMAC keys and the scratch buffers
+         */
+        public void wipe() {
+            mMasterKeyHmac.wipe();
+            mTagHmac.wipe();
+            Arrays.fill(mDigest, (byte) 0);
+            Arrays.fill(mHash, ' ');
+            Arrays.fill(mIntermediate, (byte) 0);
+            Arrays.fill(mMessage, (byte) 0);
+        }
+
+        /**
+         * Convert the intermediate hash stored in the hash buffer to a message
+         *
+         * @return the buffer which contains the intermediate hash message
+         */
+        public byte[] toIntermediateMessage() {
+            // The intermediate hash only contains ASCII chars
+            for (int i = 0; i < PasswordHasher.INTERMEDIATE_HASH_SIZE; i++) {
+                mIntermediate[i] = (byte) mHash[i];
+            }
+            return mIntermediate;
+        }
+
+        /**
+         * Encode a tag with the platform charset, reusing the message buffer for ASCII tags
+         *
+         * @param tag the tag
+         * @return the buffer which contains the encoded tag in its first mMessageLength bytes
+         */
+        public byte[] encode(String tag) {
+            return encode(tag, false);
+        }
+
+        /**
+         * Encode a tag, reusing the message buffer for ASCII tags
+         *
+         * @param tag  the tag
+         * @param utf8 true to encode non-ASCII tags as UTF-8, false to use the platform charset
+         * @return the buffer which contains the encoded tag in its first mMessageLength bytes
+         */
+        public byte[] encode(String tag, boolean utf8) {
+            int length = tag.length();
+            for (int i = 0; i < length; i++) {
+                if (tag.charAt(i) >= ASCII_LIMIT) {
+                    byte[] bytes = utf8 ? SecurePassword.toBytes(tag.toCharArray()) :
+                            tag.getBytes();
+                    mMessageLength = bytes.length;
+                    return bytes;
+                }
+            }
+            if (mMessage.length < length) {
+                mMessage = new byte[length];
+            }
+            for (int i = 0; i < length; i++) {
+                mMessage[i] = (byte) tag.charAt(i);
+            }
+            mMessageLength = length;
+            return mMessage;
+        }
+    }
+}
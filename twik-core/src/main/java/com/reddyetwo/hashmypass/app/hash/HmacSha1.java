@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.hash;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * HMAC-SHA1 (RFC 2104) specialised for hashing many short messages with the same key.
+ * <p/>
+ * The SHA-1 states after compressing the inner and outer padded keys are computed once when
+ * the key is set, and each hash starts from copies of them. It then only compresses the message
+ * blocks and the single outer block, instead of also compressing both padded keys again as a
+ * generic {@link javax.crypto.Mac} does after each {@code doFinal}. Messages of up to 55 bytes
+ * take two compressions instead of four.
+ * <p/>
+ * The compression itself is done by the platform SHA-1 implementation, which is native or
+ * intrinsified by the JIT and much faster than Java code. If its states cannot be copied, the
+ * padded keys are compressed again on each hash. Instances are not thread-safe.
+ */
+class HmacSha1 {
+
+    /**
+     * Size of the HMAC output, in bytes
+     */
+    static final int MAC_SIZE = 20;
+
+    private static final Logger LOGGER = Logger.getLogger(HmacSha1.class.getName());
+    private static final String SHA1 = "SHA-1";
+    private static final int BLOCK_SIZE = 64;
+    private static final byte IPAD = 0x36;
+    private static final byte OPAD = 0x5c;
+
+    private final MessageDigest mInner;
+    private final MessageDigest mOuter;
+    private final byte[] mInnerPad = new byte[BLOCK_SIZE];
+    private final byte[] mOuterPad = new byte[BLOCK_SIZE];
+    private final byte[] mInnerHash = new byte[MAC_SIZE];
+    private boolean mCloneable = true;
+
+    private HmacSha1(MessageDigest inner, MessageDigest outer) {
+        mInner = inner;
+        mOuter = outer;
+    }
+
+    /**
+     * Create a new, not initialized, HMAC instance
+     *
+     * @return the {@link com.reddyetwo.hashmypass.app.hash.HmacSha1} instance, or null if
+     * SHA-1 is not available
+     */
+    static HmacSha1 create() {
+        try {
+            return new HmacSha1(MessageDigest.getInstance(SHA1), MessageDigest.getInstance(SHA1));
+        } catch (NoSuchAlgorithmException e) {
+            LOGGER.severe("HMAC error: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Set the key and precompute the inner and outer midstates
+     *
+     * @param key       the buffer which contains the key
+     * @param keyLength the length of the key
+     */
+    void init(byte[] key, int keyLength) {
+        Arrays.fill(mInnerPad, (byte) 0);
+        if (keyLength > BLOCK_SIZE) {
+            // Long keys are replaced by their hash
+            mInner.reset();
+            mInner.update(key, 0, keyLength);
+            digest(mInner, mInnerPad);
+        } else {
+            System.arraycopy(key, 0, mInnerPad, 0, keyLength);
+        }
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            mOuterPad[i] = (byte) (mInnerPad[i] ^ OPAD);
+            mInnerPad[i] ^= IPAD;
+        }
+
+        mInner.reset();
+        mInner.update(mInnerPad);
+        mOuter.reset();
+        mOuter.update(mOuterPad);
+    }
+
+    /**
+     * Calculate the HMAC of a message
+     *
+     * @param message       the buffer which contains the message
+     * @param messageLength the length of the message
+     * @param mac           the output buffer, of size {@link #MAC_SIZE}
+     */
+    void doFinal(byte[] message, int messageLength, byte[] mac) {
+        MessageDigest inner = copyState(mInner, mInnerPad);
+        inner.update(message, 0, messageLength);
+        digest(inner, mInnerHash);
+
+        MessageDigest outer = copyState(mOuter, mOuterPad);
+        outer.update(mInnerHash, 0, MAC_SIZE);
+        digest(outer, mac);
+        Arrays.fill(mInnerHash, (byte) 0);
+    }
+
+    /**
+     * Wipe the padded keys and the midstates
+     */
+    void wipe() {
+        Arrays.fill(mInnerPad, (byte) 0);
+        Arrays.fill(mOuterPad, (byte) 0);
+        mInner.reset();
+        mOuter.reset();
+    }
+
+    private MessageDigest copyState(MessageDigest midstate, byte[] pad) {
+        if (mCloneable) {
+            try {
+                return (MessageDigest) midstate.clone();
+            } catch (CloneNotSupportedException e) {
+                mCloneable = false;
+            }
+        }
+        // The midstate is used as the working digest, so compress the padded key again
+        midstate.reset();
+        midstate.update(pad);
+        return midstate;
+    }
+
+    private static void digest(MessageDigest md, byte[] output) {
+        byte[] digest = md.digest();
+        System.arraycopy(digest, 0, output, 0, MAC_SIZE);
+        Arrays.fill(digest, (byte) 0);
+    }
+}
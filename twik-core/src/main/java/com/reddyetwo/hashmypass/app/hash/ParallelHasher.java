@@ -0,0 +1,251 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.hash;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generator of hashed passwords for large lists of tags, which splits the list in chunks that
+ * are hashed in parallel by a pool of worker threads. Each worker keeps its own HMAC state.
+ * <p/>
+ * Hashing blocks the calling thread, so it must not be used from the UI thread.
+ */
+public class ParallelHasher {
+
+    /**
+     * Number of chunks per worker thread. Using several chunks per thread balances the load
+     * when some threads are slower than others.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * Minimum number of tags per chunk, so that small lists are not split in tiny tasks
+     */
+    private static final int MIN_CHUNK_SIZE = 64;
+
+    private final ExecutorService mExecutor;
+    private final int mThreads;
+
+    /**
+     * Constructor. One worker thread is used per available processor.
+     */
+    public ParallelHasher() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param threads the number of worker threads
+     */
+    public ParallelHasher(int threads) {
+        mThreads = threads;
+        mExecutor = Executors.newFixedThreadPool(threads, new WorkerThreadFactory());
+    }
+
+    /**
+     * Generate the hashed passwords of a list of tags using a master key and a private key.
+     * The passwords are delivered to the listener on the calling thread in the order defined by
+     * the comparator, as soon as all the preceding ones are available. Before returning, the
+     * chunks which are still being hashed are stopped and the keys are wiped from every worker
+     * thread.
+     *
+     * @param tags       the tags
+     * @param <T>        the tag type
+     * @param masterKey  the master key
+     * @param privateKey the private key
+     * @param order      the order of the results, or null to keep the order of the list
+     * @param listener   the listener which receives the passwords
+     * @throws InterruptedException  if the calling thread is interrupted while waiting
+     * @throws IllegalStateException if an error occurred while hashing a tag, for example
+     *                               because of an unsupported password length
+     */
+    public <T extends HashableTag> void hashTagsWithKeys(List<T> tags, char[] masterKey,
+                                                         String privateKey,
+                                                         Comparator<? super T> order,
+                                                         OnTagHashedListener<? super T> listener)
+            throws InterruptedException {
+        hashTags(tags, new HasherSession(masterKey, privateKey), order, listener);
+    }
+
+    /**
+     * Generate the hashed passwords of a list of tags with a session, which is wiped before
+     * returning. See {@link #hashTagsWithKeys(java.util.List, char[], String,
+     * java.util.Comparator, ParallelHasher.OnTagHashedListener)}.
+     */
+    <T extends HashableTag> void hashTags(List<T> tags, HasherSession session,
+                                          Comparator<? super T> order,
+                                          OnTagHashedListener<? super T> listener)
+            throws InterruptedException {
+        List<T> sortedTags = tags;
+        if (order != null) {
+            sortedTags = new ArrayList<>(tags);
+            Collections.sort(sortedTags, order);
+        }
+
+        int size = sortedTags.size();
+        int chunkSize = Math.max(MIN_CHUNK_SIZE,
+                (size + mThreads * CHUNKS_PER_THREAD - 1) / (mThreads * CHUNKS_PER_THREAD));
+        List<HashChunkTask> tasks = new ArrayList<>();
+        List<Future<String[]>> chunks = new ArrayList<>();
+        try {
+            for (int start = 0; start < size; start += chunkSize) {
+                HashChunkTask task = new HashChunkTask(session,
+                        sortedTags.subList(start, Math.min(start + chunkSize, size)));
+                tasks.add(task);
+                chunks.add(mExecutor.submit(task));
+            }
+
+            // Stream the results back in order
+            int position = 0;
+            for (Future<String[]> chunk : chunks) {
+                for (String password : chunk.get()) {
+                    listener.onTagHashed(sortedTags.get(position++), password);
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error hashing tags", e.getCause());
+        } finally {
+            // No worker thread may use the session while it is wiped
+            for (HashChunkTask task : tasks) {
+                task.stop();
+            }
+            for (Future<String[]> chunk : chunks) {
+                chunk.cancel(false);
+            }
+            session.wipe();
+        }
+    }
+
+    /**
+     * Stop the worker threads. The hasher cannot be used after calling this method.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Interface which can be implemented to receive the passwords generated by
+     * {@link com.reddyetwo.hashmypass.app.hash.ParallelHasher}
+     */
+    public interface OnTagHashedListener<T extends HashableTag> {
+
+        /**
+         * Method called when the password of a tag has been generated
+         *
+         * @param tag      the tag
+         * @param password the password. It is only null if SHA-1 is not available: errors
+         *                 hashing a tag are thrown by the hasher instead.
+         */
+        void onTagHashed(T tag, String password);
+    }
+
+    /**
+     * Task which hashes a chunk of a tag list
+     */
+    private static class HashChunkTask implements Callable<String[]> {
+
+        private final HasherSession mSession;
+        private final List<? extends HashableTag> mTags;
+        private final AtomicBoolean mStarted = new AtomicBoolean();
+        private final CountDownLatch mFinished = new CountDownLatch(1);
+        private volatile boolean mStopped;
+
+        /**
+         * Constructor
+         *
+         * @param session the hashing session
+         * @param tags    the chunk of tags
+         */
+        public HashChunkTask(HasherSession session, List<? extends HashableTag> tags) {
+            mSession = session;
+            mTags = tags;
+        }
+
+        @Override
+        public String[] call() {
+            String[] passwords = new String[mTags.size()];
+            if (!mStarted.compareAndSet(false, true)) {
+                // Stopped before it started
+                return passwords;
+            }
+            try {
+                for (int i = 0; i < passwords.length && !mStopped; i++) {
+                    HashableTag tag = mTags.get(i);
+                    passwords[i] = mSession.hashTag(tag.getName(), tag.getPasswordLength(),
+                            tag.getPasswordType());
+                }
+                return passwords;
+            } finally {
+                mFinished.countDown();
+            }
+        }
+
+        /**
+         * Stop the task, waiting until it is not running. A task which has not started yet
+         * will not hash any tag.
+         */
+        public void stop() {
+            mStopped = true;
+            if (mStarted.compareAndSet(false, true)) {
+                return;
+            }
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    mFinished.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Factory of daemon worker threads, so that an idle hasher does not keep the process alive
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ParallelHasher-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ * Copyright 2014 Red Dye No. 2
+ * Copyright (C) 2011-2013 TG Byte Software GmbH
+ * Copyright (C) 2009-2011 Thilo-Alexander Ginkel.
+ * Copyright (C) 2010-2014 Eric Woodruff
+ * Copyright (C) 2006-2010 Steve Cooper
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.hash;
+
+import com.reddyetwo.hashmypass.app.data.PasswordType;
+import com.reddyetwo.hashmypass.app.util.SecurePassword;
+
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Generator of hashed passwords
+ */
+public class PasswordHasher {
+
+    private static final Logger LOGGER = Logger.getLogger(PasswordHasher.class.getName());
+
+    /**
+     * Keyed-hash message authentication code (HMAC) used
+     */
+    private static final String HMAC_SHA1 = "HmacSHA1";
+
+    /**
+     * Message digest used to calculate key digest
+     */
+    private static final String DIGEST_MD5 = "MD5";
+
+    private static final int INJECT_RESERVED = 4;
+    private static final int INJECT_NUMBER_OF_NUMERIC_CHARS = 10;
+    private static final int INJECT_NUMBER_OF_SPECIAL_CHARS = 15;
+    private static final int INJECT_NUMBER_OF_ALPHA_CHARS = 26;
+    private static final int INJECT_OFFSET_NUMERIC = 0;
+    private static final int INJECT_OFFSET_SPECIAL = 1;
+    private static final int INJECT_OFFSET_ALPHA_UPPERCASE = 2;
+    private static final int INJECT_OFFSET_ALPHA_LOWERCASE = 3;
+    static final int INTERMEDIATE_HASH_SIZE = 24;
+
+    /**
+     * Size of the HMAC-SHA1 output, in bytes
+     */
+    static final int HMAC_SIZE = 20;
+
+    /**
+     * Size of the Base64 encoding (without padding) of the HMAC-SHA1 output, in chars
+     */
+    static final int HASH_SIZE = 27;
+
+    private PasswordHasher() {
+
+    }
+
+    private static String hashKey(String tag, char[] key, int length, PasswordType type) {
+
+        Mac hmac = createHmac();
+        if (hmac == null) {
+            return null;
+        }
+
+        /* First, we have to calculate the hashing key as a result of hashing
+         the tag and the private key */
+        if (!initHmac(hmac, createKeySpec(key))) {
+            return null;
+        }
+
+        return hashMessage(hmac, tag.getBytes(), length, type);
+    }
+
+    /**
+     * Hash a message with an already initialized HMAC and convert the result to a password
+     *
+     * @param hmac    the initialized {@link javax.crypto.Mac} instance
+     * @param message the message to hash
+     * @param length  the password length
+     * @param type    the password type
+     * @return the hashed password
+     */
+    static String hashMessage(Mac hmac, byte[] message, int length, PasswordType type) {
+        String hash = Base64.encodeToString(hmac.doFinal(message),
+                Base64.NO_PADDING | Base64.NO_WRAP);
+
+        int sum = 0;
+        for (int i = 0; i < hash.length(); i++) {
+            sum += hash.charAt(i);
+        }
+
+        /* Parse password to match the request type */
+        if (type == PasswordType.NUMERIC) {
+            hash = convertToDigits(hash, sum, length);
+        } else {
+            /* We force digits, punctuation characters and mixed case in
+            order to provide compatibility with the Chrome extension */
+            // Force digits
+            hash = injectCharacter(hash, INJECT_OFFSET_NUMERIC, INJECT_RESERVED, sum, length, '0',
+                    INJECT_NUMBER_OF_NUMERIC_CHARS);
+            if (type == PasswordType.ALPHANUMERIC_AND_SPECIAL_CHARS) {
+                // Force special chars
+                hash = injectCharacter(hash, INJECT_OFFSET_SPECIAL, INJECT_RESERVED, sum, length,
+                        '!', INJECT_NUMBER_OF_SPECIAL_CHARS);
+            }
+            // Force mixed case
+            hash = injectCharacter(hash, INJECT_OFFSET_ALPHA_UPPERCASE, INJECT_RESERVED, sum,
+                    length, 'A', INJECT_NUMBER_OF_ALPHA_CHARS);
+            hash = injectCharacter(hash, INJECT_OFFSET_ALPHA_LOWERCASE, INJECT_RESERVED, sum,
+                    length, 'a', INJECT_NUMBER_OF_ALPHA_CHARS);
+
+            // Remove special chars if needed
+            if (type == PasswordType.ALPHANUMERIC) {
+                hash = removeSpecialCharacters(hash, sum, length);
+            }
+        }
+
+        /* Trim the password to match the requested length */
+        return hash.substring(0, length);
+    }
+
+    /**
+     * Convert an HMAC digest to a password, using a caller-supplied buffer
+     *
+     * @param digest the HMAC digest, of size {@link #HMAC_SIZE}
+     * @param length the password length
+     * @param type   the password type
+     * @param hash   the output buffer, of size {@link #HASH_SIZE}. The password is stored in
+     *               its first length chars.
+     */
+    static void hashDigest(byte[] digest, int length, PasswordType type, char[] hash) {
+        int hashLength = Base64.encode(digest, HMAC_SIZE, hash);
+        int sum = 0;
+        for (int i = 0; i < hashLength; i++) {
+            sum += hash[i];
+        }
+
+        /* Parse password to match the request type */
+        if (type == PasswordType.NUMERIC) {
+            convertToDigits(hash, sum, length);
+        } else {
+            injectCharacter(hash, INJECT_OFFSET_NUMERIC, INJECT_RESERVED, sum, length, '0',
+                    INJECT_NUMBER_OF_NUMERIC_CHARS);
+            if (type == PasswordType.ALPHANUMERIC_AND_SPECIAL_CHARS) {
+                injectCharacter(hash, INJECT_OFFSET_SPECIAL, INJECT_RESERVED, sum, length, '!',
+                        INJECT_NUMBER_OF_SPECIAL_CHARS);
+            }
+            injectCharacter(hash, INJECT_OFFSET_ALPHA_UPPERCASE, INJECT_RESERVED, sum, length,
+                    'A', INJECT_NUMBER_OF_ALPHA_CHARS);
+            injectCharacter(hash, INJECT_OFFSET_ALPHA_LOWERCASE, INJECT_RESERVED, sum, length,
+                    'a', INJECT_NUMBER_OF_ALPHA_CHARS);
+            if (type == PasswordType.ALPHANUMERIC) {
+                removeSpecialCharacters(hash, sum, length);
+            }
+        }
+    }
+
+    /**
+     * Create a new, not initialized, HMAC instance
+     *
+     * @return the {@link javax.crypto.Mac} instance, or null if the algorithm is not available
+     */
+    private static Mac createHmac() {
+        try {
+            return Mac.getInstance(HMAC_SHA1);
+        } catch (NoSuchAlgorithmException e) {
+            LOGGER.severe("HMAC error: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Create the HMAC secret key of a key
+     *
+     * @param key the key
+     * @return the {@link javax.crypto.spec.SecretKeySpec} instance
+     */
+    private static SecretKeySpec createKeySpec(char[] key) {
+        return new SecretKeySpec(SecurePassword.toBytes(key), HMAC_SHA1);
+    }
+
+    /**
+     * Initialize an HMAC with a secret key
+     *
+     * @param hmac    the {@link javax.crypto.Mac} instance
+     * @param keySpec the secret key
+     * @return true in case of success, false if the key is not valid
+     */
+    private static boolean initHmac(Mac hmac, SecretKeySpec keySpec) {
+        try {
+            hmac.init(keySpec);
+            return true;
+        } catch (InvalidKeyException e) {
+            LOGGER.severe("Invalid secret key: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Generate a hashed password using a tag, a master key and a private key
+     *
+     * @param tag          the tag name
+     * @param masterKey    the master key
+     * @param privateKey   the private key
+     * @param length       the password length
+     * @param passwordType the password type
+     * @return the hashed password
+     */
+    public static String hashTagWithKeys(String tag, char[] masterKey, String privateKey,
+                                         int length, PasswordType passwordType) {
+        // First, hash the tag with the private key (in the case that it is used)
+        String tagToHash = privateKey == null ? tag :
+                hashKey(privateKey, tag.toCharArray(), INTERMEDIATE_HASH_SIZE,
+                        PasswordType.ALPHANUMERIC_AND_SPECIAL_CHARS);
+
+        // Then, hash the result with the master key
+        return hashKey(tagToHash, masterKey, length, passwordType);
+    }
+
+    /**
+     * Generate the hashed passwords of a list of tags using a master key and a private key.
+     * The keys are encoded and set up once for the whole list, and each password is generated
+     * with the length and type of its tag. The keys are wiped even if hashing a tag throws an
+     * exception, for example because of an unsupported password length.
+     *
+     * @param tags       the tags
+     * @param masterKey  the master key
+     * @param privateKey the private key
+     * @return the hashed passwords, in the same order as the tags. A password is null if an
+     * error occurred while hashing its tag.
+     */
+    public static List<String> hashTagsWithKeys(List<? extends HashableTag> tags,
+                                                char[] masterKey, String privateKey) {
+        HasherSession session = new HasherSession(masterKey, privateKey);
+        List<String> passwords = new ArrayList<>(tags.size());
+        try {
+            for (HashableTag tag : tags) {
+                passwords.add(session.hashTag(tag.getName(), tag.getPasswordLength(),
+                        tag.getPasswordType()));
+            }
+        } finally {
+            session.wipe();
+        }
+        return passwords;
+    }
+
+    /**
+     * Calculate the digest of an input string
+     *
+     * @param input the input string
+     * @return the digest of the input string
+     */
+    public static byte[] calculateDigest(char[] input) {
+        MessageDigest messageDigest;
+        byte[] result;
+
+        try {
+            messageDigest = MessageDigest.getInstance(DIGEST_MD5);
+            result = messageDigest.digest(SecurePassword.toBytes(input));
+        } catch (NoSuchAlgorithmException e) {
+            LOGGER.severe("Could not find DIGEST MD5 algorithm: " + e);
+            result = null;
+        }
+
+        return result;
+    }
+
+    /**
+     * Convert input string to digits-only
+     *
+     * @param input  input string
+     * @param seed   seed for pseudo-randomizing the position and injected character
+     * @param length length of head of string that will eventually survive truncation
+     * @return the digits-only string
+     */
+    private static String convertToDigits(String input, int seed, int length) {
+        char[] inputChars = input.toCharArray();
+        // Pivot for next char-to-digit conversion
+        int pivot = 0;
+        for (int i = 0; i < length; i++) {
+            if (!Character.isDigit(inputChars[i])) {
+                inputChars[i] =
+                        (char) ((seed + inputChars[pivot]) % INJECT_NUMBER_OF_NUMERIC_CHARS + '0');
+                pivot = i + 1;
+            }
+        }
+
+        return String.valueOf(inputChars);
+    }
+
+    /**
+     * Replace special chars with alphanumeric chars
+     *
+     * @param input  input string
+     * @param seed   seed for pseudo-randomizing the position and injected
+     *               character
+     * @param length length of head of string that will eventually survive
+     *               truncation
+     * @return the string with special chars replaced
+     */
+    private static String removeSpecialCharacters(String input, int seed, int length) {
+        char[] inputChars = input.toCharArray();
+        int pivot = 0;
+        for (int i = 0; i < length; i++) {
+            if (!Character.isLetterOrDigit(inputChars[i])) {
+                inputChars[i] = (char) ((seed + pivot) % INJECT_NUMBER_OF_ALPHA_CHARS + 'A');
+                pivot = i + 1;
+            }
+        }
+
+        return String.valueOf(inputChars);
+    }
+
+    /**
+     * Inject a character chosen from a range of character codes into a block
+     * at the front of a string if one of those characters is not already
+     * present
+     *
+     * @param input    input string
+     * @param offset   offset for position of injected character
+     * @param reserved number of offsets reserved for special chars
+     * @param seed     seed for pseudo-randomizing the position and
+     *                 injected character
+     * @param length   length of head of string that will eventually
+     *                 survive truncation
+     * @param cStart   character code for first valid injected character
+     * @param cNum     number of valid character codes starting from cStart
+     * @return the string with the injected chars
+     */
+    @SuppressWarnings("SameParameterValue")
+    private static String injectCharacter(String input, int offset, int reserved, int seed,
+                                          int length, char cStart, int cNum) {
+        int pos0 = seed % length;
+        int pos = (pos0 + offset) % length;
+        // Check if a qualified character is already present.
+        // Write the loop so that the reserved block is ignored.
+        for (int i = 0; i < length - reserved; i++) {
+            int i2 = (pos0 + reserved + i) % length;
+            char c = input.charAt(i2);
+            if (c >= cStart && c < cStart + cNum) {
+                // Already present - nothing to do
+                return input;
+            }
+        }
+
+        String head = pos > 0 ? input.substring(0, pos) : "";
+        char inject = (char) (((seed + input.charAt(pos)) % cNum) + cStart);
+        String tail = (pos + 1 < input.length()) ? input.substring(pos + 1) : "";
+
+        return head + inject + tail;
+    }
+
+    /**
+     * Convert the head of a hash to digits-only, in place
+     *
+     * @param hash   the hash
+     * @param seed   seed for pseudo-randomizing the position and injected character
+     * @param length length of head of hash that will eventually survive truncation
+     */
+    private static void convertToDigits(char[] hash, int seed, int length) {
+        int pivot = 0;
+        for (int i = 0; i < length; i++) {
+            if (!Character.isDigit(hash[i])) {
+                hash[i] = (char) ((seed + hash[pivot]) % INJECT_NUMBER_OF_NUMERIC_CHARS + '0');
+                pivot = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Replace special chars in the head of a hash with alphanumeric chars, in place
+     *
+     * @param hash   the hash
+     * @param seed   seed for pseudo-randomizing the position and injected character
+     * @param length length of head of hash that will eventually survive truncation
+     */
+    private static void removeSpecialCharacters(char[] hash, int seed, int length) {
+        int pivot = 0;
+        for (int i = 0; i < length; i++) {
+            if (!Character.isLetterOrDigit(hash[i])) {
+                hash[i] = (char) ((seed + pivot) % INJECT_NUMBER_OF_ALPHA_CHARS + 'A');
+                pivot = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Inject a character into the head of a hash, in place. See
+     * {@link #injectCharacter(String, int, int, int, int, char, int)}.
+     *
+     * @param hash     the hash
+     * @param offset   offset for position of injected character
+     * @param reserved number of offsets reserved for special chars
+     * @param seed     seed for pseudo-randomizing the position and injected character
+     * @param length   length of head of hash that will eventually survive truncation
+     * @param cStart   character code for first valid injected character
+     * @param cNum     number of valid character codes starting from cStart
+     */
+    @SuppressWarnings("SameParameterValue")
+    private static void injectCharacter(char[] hash, int offset, int reserved, int seed,
+                                        int length, char cStart, int cNum) {
+        int pos0 = seed % length;
+        int pos = (pos0 + offset) % length;
+        for (int i = 0; i < length - reserved; i++) {
+            char c = hash[(pos0 + reserved + i) % length];
+            if (c >= cStart && c < cStart + cNum) {
+                // Already present - nothing to do
+                return;
+            }
+        }
+
+        hash[pos] = (char) (((seed + hash[pos]) % cNum) + cStart);
+    }
+}
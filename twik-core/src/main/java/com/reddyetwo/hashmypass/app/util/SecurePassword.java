@@ -19,8 +19,6 @@
 
 package com.reddyetwo.hashmypass.app.util;
 
-import android.text.Editable;
-
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
@@ -36,12 +34,13 @@ public class SecurePassword {
     }
 
     /**
-     * Get the password stored in an {@link android.text.Editable} object
+     * Get the password stored in a {@link java.lang.CharSequence} object, such as an
+     * {@code android.text.Editable}, without creating an immutable copy
      *
-     * @param s the {@link android.text.Editable} instance
+     * @param s the {@link java.lang.CharSequence} instance
      * @return the password
      */
-    public static char[] getPassword(Editable s) {
+    public static char[] getPassword(CharSequence s) {
         int length = s.length();
         char[] password = new char[length];
         for (int i = 0; i < length; i++) {
@@ -23,35 +23,28 @@
 
 package com.reddyetwo.hashmypass.app.hash;
 
-import android.util.Base64;
-import android.util.Log;
-
-import com.reddyetwo.hashmypass.app.TwikApplication;
 import com.reddyetwo.hashmypass.app.data.PasswordType;
 import com.reddyetwo.hashmypass.app.util.SecurePassword;
 
 import java.security.InvalidKeyException;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 
 /**
- * Generator of hashed passwords
+ * Copy of the original, String-based, implementation of
+ * {@link com.reddyetwo.hashmypass.app.hash.PasswordHasher#hashTagWithKeys(String, char[], String,
+ * int, PasswordType)}, which is used as the reference of the tests and as the baseline of the
+ * benchmarks of twik-bench
  */
-public class PasswordHasher {
+public class BaselinePasswordHasher {
 
     /**
      * Keyed-hash message authentication code (HMAC) used
      */
     private static final String HMAC_SHA1 = "HmacSHA1";
 
-    /**
-     * Message digest used to calculate key digest
-     */
-    private static final String DIGEST_MD5 = "MD5";
-
     private static final int INJECT_RESERVED = 4;
     private static final int INJECT_NUMBER_OF_NUMERIC_CHARS = 10;
     private static final int INJECT_NUMBER_OF_SPECIAL_CHARS = 15;
@@ -62,7 +55,7 @@ public class PasswordHasher {
     private static final int INJECT_OFFSET_ALPHA_LOWERCASE = 3;
     private static final int INTERMEDIATE_HASH_SIZE = 24;
 
-    private PasswordHasher() {
+    private BaselinePasswordHasher() {
 
     }
 
@@ -72,7 +65,6 @@ public class PasswordHasher {
         try {
             hmac = Mac.getInstance(HMAC_SHA1);
         } catch (NoSuchAlgorithmException e) {
-            Log.e(TwikApplication.LOG_TAG, "HMAC error: " + e);
             return null;
         }
 
@@ -82,7 +74,6 @@ public class PasswordHasher {
         try {
             hmac.init(keySpec);
         } catch (InvalidKeyException e) {
-            Log.e(TwikApplication.LOG_TAG, "Invalid secret key: " + e);
             return null;
         }
 
@@ -145,27 +136,6 @@ public class PasswordHasher {
         return hashKey(tagToHash, masterKey, length, passwordType);
     }
 
-    /**
-     * Calculate the digest of an input string
-     *
-     * @param input the input string
-     * @return the digest of the input string
-     */
-    public static byte[] calculateDigest(char[] input) {
-        MessageDigest messageDigest;
-        byte[] result;
-
-        try {
-            messageDigest = MessageDigest.getInstance(DIGEST_MD5);
-            result = messageDigest.digest(SecurePassword.toBytes(input));
-        } catch (NoSuchAlgorithmException e) {
-            Log.e(TwikApplication.LOG_TAG, "Could not find DIGEST MD5 algorithm: " + e);
-            result = null;
-        }
-
-        return result;
-    }
-
     /**
      * Convert input string to digits-only
      *
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.hash;
+
+import com.reddyetwo.hashmypass.app.data.PasswordType;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Check that {@link com.reddyetwo.hashmypass.app.hash.ParallelHasher} delivers the same
+ * passwords as the sequential implementation, in order, and that it stops and wipes the keys
+ * when hashing fails
+ */
+public class ParallelHasherTest {
+
+    private static final int THREADS = 4;
+    private static final int TAG_COUNT = 5000;
+    private static final int MIN_LENGTH = 4;
+    private static final int MAX_LENGTH = 26;
+    private static final String MASTER_KEY = "masterkey";
+    private static final String PRIVATE_KEY = "FDCT-EZ2H-X9UK-HEAK-WB32";
+
+    private static final Comparator<Tag> NAME_COMPARATOR = new Comparator<Tag>() {
+        @Override
+        public int compare(Tag lhs, Tag rhs) {
+            return lhs.getName().compareTo(rhs.getName());
+        }
+    };
+
+    private final ParallelHasher mHasher = new ParallelHasher(THREADS);
+
+    @After
+    public void tearDown() {
+        mHasher.shutdown();
+    }
+
+    @Test
+    public void testMatchesSequentialHashing() throws InterruptedException {
+        List<Tag> tags = createTags(TAG_COUNT);
+        List<Tag> sortedTags = new ArrayList<>(tags);
+        Collections.sort(sortedTags, NAME_COMPARATOR);
+        List<Tag> reversedTags = new ArrayList<>(sortedTags);
+        Collections.reverse(reversedTags);
+
+        for (String privateKey : new String[]{null, PRIVATE_KEY}) {
+            assertHashedInOrder(tags, privateKey, null);
+            assertHashedInOrder(sortedTags, privateKey, NAME_COMPARATOR);
+            assertHashedInOrder(reversedTags, privateKey,
+                    Collections.reverseOrder(NAME_COMPARATOR));
+        }
+    }
+
+    @Test
+    public void testEmptyList() throws InterruptedException {
+        mHasher.hashTagsWithKeys(new ArrayList<Tag>(), MASTER_KEY.toCharArray(), PRIVATE_KEY,
+                null, new ParallelHasher.OnTagHashedListener<Tag>() {
+                    @Override
+                    public void onTagHashed(Tag tag, String password) {
+                        fail();
+                    }
+                });
+    }
+
+    @Test
+    public void testListenerError() throws InterruptedException {
+        List<Tag> tags = createTags(TAG_COUNT * 4);
+        HasherSession session = new HasherSession(MASTER_KEY.toCharArray(), PRIVATE_KEY);
+        final RuntimeException error = new RuntimeException();
+        try {
+            mHasher.hashTags(tags, session, null, new ParallelHasher.OnTagHashedListener<Tag>() {
+                @Override
+                public void onTagHashed(Tag tag, String password) {
+                    throw error;
+                }
+            });
+            fail();
+        } catch (RuntimeException e) {
+            assertSame(error, e);
+        }
+        assertStopped(tags, session);
+    }
+
+    @Test
+    public void testHashingError() throws InterruptedException {
+        List<Tag> tags = createTags(TAG_COUNT * 4);
+        // Unsupported password length
+        tags.set(0, new Tag("example.com", MAX_LENGTH + 10, PasswordType.NUMERIC));
+        HasherSession session = new HasherSession(MASTER_KEY.toCharArray(), PRIVATE_KEY);
+        try {
+            mHasher.hashTags(tags, session, null, new ParallelHasher.OnTagHashedListener<Tag>() {
+                @Override
+                public void onTagHashed(Tag tag, String password) {
+                    fail();
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        assertStopped(tags, session);
+    }
+
+    private void assertHashedInOrder(List<Tag> expectedOrder, String privateKey,
+                                     Comparator<Tag> order) throws InterruptedException {
+        List<String> expectedPasswords = PasswordHasher.hashTagsWithKeys(expectedOrder,
+                MASTER_KEY.toCharArray(), privateKey);
+        final List<Tag> hashedTags = new ArrayList<>();
+        final List<String> passwords = new ArrayList<>();
+        // The hasher must not depend on the order of the list when a comparator is used
+        List<Tag> tags = new ArrayList<>(expectedOrder);
+        if (order != null) {
+            Collections.shuffle(tags);
+        }
+        mHasher.hashTagsWithKeys(tags, MASTER_KEY.toCharArray(), privateKey, order,
+                new ParallelHasher.OnTagHashedListener<Tag>() {
+                    @Override
+                    public void onTagHashed(Tag tag, String password) {
+                        hashedTags.add(tag);
+                        passwords.add(password);
+                    }
+                });
+        assertEquals(expectedOrder, hashedTags);
+        assertEquals(expectedPasswords, passwords);
+    }
+
+    /**
+     * Check that no tag is hashed after the hasher returns, that the chunks which had not
+     * started were not hashed and that the session has been wiped
+     */
+    private static void assertStopped(List<Tag> tags, HasherSession session)
+            throws InterruptedException {
+        int hashedCount = getHashedCount(tags);
+        Thread.sleep(100);
+        assertEquals(hashedCount, getHashedCount(tags));
+        assertTrue(hashedCount < tags.size());
+        assertNull(session.hashTag("example.com", MAX_LENGTH, PasswordType.NUMERIC));
+    }
+
+    private static int getHashedCount(List<Tag> tags) {
+        int count = 0;
+        for (Tag tag : tags) {
+            count += tag.mNameReads.get();
+        }
+        return count;
+    }
+
+    private static List<Tag> createTags(int count) {
+        List<Tag> tags = new ArrayList<>(count);
+        PasswordType[] types = PasswordType.values();
+        for (int i = 0; i < count; i++) {
+            tags.add(new Tag("tag" + i + ".example.com",
+                    MIN_LENGTH + i % (MAX_LENGTH - MIN_LENGTH + 1), types[i % types.length]));
+        }
+        return tags;
+    }
+
+    private static class Tag implements HashableTag {
+
+        private final String mName;
+        private final int mPasswordLength;
+        private final PasswordType mPasswordType;
+        private final AtomicInteger mNameReads = new AtomicInteger();
+
+        Tag(String name, int passwordLength, PasswordType passwordType) {
+            mName = name;
+            mPasswordLength = passwordLength;
+            mPasswordType = passwordType;
+        }
+
+        @Override
+        public String getName() {
+            mNameReads.incrementAndGet();
+            return mName;
+        }
+
+        @Override
+        public int getPasswordLength() {
+            return mPasswordLength;
+        }
+
+        @Override
+        public PasswordType getPasswordType() {
+            return mPasswordType;
+        }
+    }
+}
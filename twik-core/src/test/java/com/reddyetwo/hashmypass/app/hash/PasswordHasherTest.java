@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015 Red Dye No. 2
+ *
+ * This file is part of Twik.
+ *
+ * Twik is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Twik is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Twik.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.reddyetwo.hashmypass.app.hash;
+
+import com.reddyetwo.hashmypass.app.data.PasswordType;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that every implementation of the password hashing generates the same passwords as the
+ * original implementation, {@link com.reddyetwo.hashmypass.app.hash.BaselinePasswordHasher}
+ */
+public class PasswordHasherTest {
+
+    private static final int MIN_LENGTH = 4;
+    private static final int MAX_LENGTH = 26;
+    private static final String PRIVATE_KEY = "FDCT-EZ2H-X9UK-HEAK-WB32";
+
+    private static final String[] TAGS = {"example.com", "a", "mail.google.com", "espa\u00f1ol.es",
+            "\u043f\u0440\u0438\u043c\u0435\u0440.\u0440\u0444"};
+    private static final String[] MASTER_KEYS = {"masterkey", "m", "contrase\u00f1a",
+            "\u043f\u0430\u0440\u043e\u043b\u044c\u20ac", "\ud83d\udd11key"};
+    private static final String[] PRIVATE_KEYS = {null, PRIVATE_KEY, "cl\u00e9 priv\u00e9e"};
+
+    @Test
+    public void testGoldenVectors() {
+        assertEquals("h0Ehnb\"wEuI8", PasswordHasher.hashTagWithKeys("example.com",
+                "masterkey".toCharArray(), null, 12, PasswordType.ALPHANUMERIC_AND_SPECIAL_CHARS));
+        assertEquals("ZPez,sGtzd9G", PasswordHasher.hashTagWithKeys("example.com",
+                "masterkey".toCharArray(), PRIVATE_KEY, 12,
+                PasswordType.ALPHANUMERIC_AND_SPECIAL_CHARS));
+        assertEquals("h7EDnbDw", PasswordHasher.hashTagWithKeys("example.com",
+                "masterkey".toCharArray(), null, 8, PasswordType.ALPHANUMERIC));
+        assertEquals("5567", PasswordHasher.hashTagWithKeys("example.com",
+                "masterkey".toCharArray(), PRIVATE_KEY, 4, PasswordType.NUMERIC));
+        assertEquals("BKw+v2jmjX9WqbWTO51jZxqSKQ", PasswordHasher.hashTagWithKeys("example.com",
+                "contrase\u00f1a".toCharArray(), PRIVATE_KEY, 26,
+                PasswordType.ALPHANUMERIC_AND_SPECIAL_CHARS));
+    }
+
+    @Test
+    public void testHashTagWithKeys() {
+        for (String privateKey : PRIVATE_KEYS) {
+            for (String masterKey : MASTER_KEYS) {
+                for (String tag : TAGS) {
+                    for (PasswordType type : PasswordType.values()) {
+                        for (int length = MIN_LENGTH; length <= MAX_LENGTH; length++) {
+                            assertEquals(getBaseline(tag, masterKey, privateKey, length, type),
+                                    PasswordHasher.hashTagWithKeys(tag, masterKey.toCharArray(),
+                                            privateKey, length, type));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testHasherSession() {
+        char[] password = new char[MAX_LENGTH];
+        for (String privateKey : PRIVATE_KEYS) {
+            for (String masterKey : MASTER_KEYS) {
+                HasherSession session = new HasherSession(masterKey.toCharArray(), privateKey);
+                for (String tag : TAGS) {
+                    char[] intermediate = session.hashPrivateKey(tag);
+                    for (PasswordType type : PasswordType.values()) {
+                        for (int length = MIN_LENGTH; length <= MAX_LENGTH; length++) {
+                            String expected =
+                                    getBaseline(tag, masterKey, privateKey, length, type);
+                            assertEquals(expected, session.hashTag(tag, length, type));
+                            assertTrue(session.hashTag(tag, length, type, password));
+                            assertEquals(expected, new String(password, 0, length));
+                            if (intermediate != null) {
+                                assertEquals(expected,
+                                        session.hashIntermediate(intermediate, length, type));
+                            }
+                        }
+                    }
+                }
+                session.wipe();
+            }
+        }
+    }
+
+    @Test
+    public void testHashTagsWithKeys() {
+        List<Tag> tags = new ArrayList<>();
+        for (String tag : TAGS) {
+            for (PasswordType type : PasswordType.values()) {
+                for (int length = MIN_LENGTH; length <= MAX_LENGTH; length++) {
+                    tags.add(new Tag(tag, length, type));
+                }
+            }
+        }
+        for (String privateKey : PRIVATE_KEYS) {
+            for (String masterKey : MASTER_KEYS) {
+                List<String> passwords =
+                        PasswordHasher.hashTagsWithKeys(tags, masterKey.toCharArray(), privateKey);
+                assertEquals(tags.size(), passwords.size());
+                for (int i = 0; i < tags.size(); i++) {
+                    Tag tag = tags.get(i);
+                    assertEquals(getBaseline(tag.getName(), masterKey, privateKey,
+                            tag.getPasswordLength(), tag.getPasswordType()), passwords.get(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWipedSession() {
+        HasherSession session = new HasherSession("masterkey".toCharArray(), PRIVATE_KEY);
+        char[] intermediate = session.hashPrivateKey("example.com");
+        session.wipe();
+
+        char[] password = new char[MAX_LENGTH];
+        assertNull(session.hashTag("example.com", MAX_LENGTH, PasswordType.NUMERIC));
+        assertFalse(session.hashTag("example.com", MAX_LENGTH, PasswordType.NUMERIC, password));
+        assertNull(session.hashPrivateKey("example.com"));
+        assertNull(session.hashIntermediate(intermediate, MAX_LENGTH, PasswordType.NUMERIC));
+        assertFalse(session.matches("masterkey".toCharArray(), PRIVATE_KEY));
+    }
+
+    @Test
+    public void testPrivateKeyDigest() {
+        String digest = new HasherSession("masterkey".toCharArray(), PRIVATE_KEY)
+                .getPrivateKeyDigest();
+        assertEquals(digest, new HasherSession("other".toCharArray(), PRIVATE_KEY)
+                .getPrivateKeyDigest());
+        assertNotEquals(digest, new HasherSession("masterkey".toCharArray(), "other")
+                .getPrivateKeyDigest());
+        assertNull(new HasherSession("masterkey".toCharArray(), null).getPrivateKeyDigest());
+    }
+
+    private static String getBaseline(String tag, String masterKey, String privateKey,
+                                      int length, PasswordType type) {
+        return BaselinePasswordHasher.hashTagWithKeys(tag, masterKey.toCharArray(), privateKey,
+                length, type);
+    }
+
+    private static class Tag implements HashableTag {
+
+        private final String mName;
+        private final int mPasswordLength;
+        private final PasswordType mPasswordType;
+
+        Tag(String name, int passwordLength, PasswordType passwordType) {
+            mName = name;
+            mPasswordLength = passwordLength;
+            mPasswordType = passwordType;
+        }
+
+        @Override
+        public String getName() {
+            return mName;
+        }
+
+        @Override
+        public int getPasswordLength() {
+            return mPasswordLength;
+        }
+
+        @Override
+        public PasswordType getPasswordType() {
+            return mPasswordType;
+        }
+    }
+}